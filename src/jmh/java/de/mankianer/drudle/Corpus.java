@@ -0,0 +1,38 @@
+package de.mankianer.drudle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Benchmark inputs of {@code corpus/<name>.txt}, one drudle per line, {@code #} starts a comment. */
+final class Corpus {
+
+  private Corpus() {}
+
+  static List<String> load(String name) throws IOException {
+    try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".txt")) {
+      if (in == null) {
+        throw new IOException("Unknown corpus: " + name);
+      }
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8)
+          .lines()
+          .map(String::strip)
+          .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+          .toList();
+    }
+  }
+
+  /**
+   * @return a service with the rules of {@code rules/*.yaml} and without the solved cache, so
+   *     every call solves the drudle again
+   */
+  static DrudleServiceImpl service(DrudleProperties.Engine.Mode mode) throws IOException {
+    DrudleProperties properties = new DrudleProperties();
+    properties.getCache().setMaxEntries(0);
+    properties.getEngine().setMode(mode);
+    DrudleServiceImpl service = new DrudleServiceImpl(properties);
+    service.init();
+    return service;
+  }
+}
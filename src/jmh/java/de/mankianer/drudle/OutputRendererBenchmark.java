@@ -0,0 +1,39 @@
+package de.mankianer.drudle;
+
+import java.io.IOException;
+import java.io.Writer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link OutputRenderer#render(String, SolveResult)} and the compact page of {@link
+ * OutputRenderer#render(String, SolveResult, java.io.Writer)} of results solved once in the setup.
+ */
+@State(Scope.Benchmark)
+public class OutputRendererBenchmark {
+
+  @Param({"zweirot", "blaueszweirot", "zweizweizweizweizweizweiblau"})
+  public String drudle;
+
+  private final OutputRenderer renderer = new OutputRenderer();
+  private SolveResult result;
+
+  @Setup
+  public void setUp() throws IOException {
+    DrudleServiceImpl service = Corpus.service(DrudleProperties.Engine.Mode.SEQUENTIAL);
+    result = service.processDrudle(drudle, service.getDefaultLimits());
+  }
+
+  @Benchmark
+  public String render() {
+    return renderer.render(drudle, result);
+  }
+
+  @Benchmark
+  public void renderCompact() throws IOException {
+    renderer.render(drudle, result, Writer.nullWriter());
+  }
+}
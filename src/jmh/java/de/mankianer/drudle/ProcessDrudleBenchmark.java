@@ -0,0 +1,43 @@
+package de.mankianer.drudle;
+
+import java.io.IOException;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Solves every drudle of a corpus with the rules of {@code rules/*.yaml}, one operation per corpus. */
+@State(Scope.Benchmark)
+public class ProcessDrudleBenchmark {
+
+  @Param({"short", "medium", "pathological"})
+  public String corpus;
+
+  @Param({"SEQUENTIAL", "PARALLEL", "CHART", "BEST_FIRST"})
+  public DrudleProperties.Engine.Mode mode;
+
+  private DrudleServiceImpl service;
+  private List<String> drudles;
+
+  @Setup
+  public void setUp() throws IOException {
+    service = Corpus.service(mode);
+    drudles = Corpus.load(corpus);
+  }
+
+  @TearDown
+  public void tearDown() {
+    service.shutdown();
+  }
+
+  @Benchmark
+  public void processDrudle(Blackhole blackhole) {
+    for (String drudle : drudles) {
+      blackhole.consume(service.processDrudle(drudle, service.getDefaultLimits()));
+    }
+  }
+}
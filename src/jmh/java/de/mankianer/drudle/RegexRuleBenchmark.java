@@ -0,0 +1,53 @@
+package de.mankianer.drudle;
+
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** {@link RegexRule#apply(String)} on its own, without the rule index and the search. */
+@State(Scope.Benchmark)
+public class RegexRuleBenchmark {
+
+  @Param({"zweirot", "rotblaurotblaurotblau", "eeeeeeeeeeeeeeee"})
+  public String drudle;
+
+  private final RegexRule literal =
+      new RegexRule("rot-0", "rot", "<span style=\"color: #FF0000\">{head}*</span>{tail}");
+
+  /** Like the numbers rules, which repeat their tail up to twelve times. */
+  private final RegexRule repeated =
+      new RegexRule(
+          "zwei-0",
+          "zwei",
+          "{head}<span style=\"display: flex;\"><span>{tail}*</span><span>{tail}*</span></span>");
+
+  private final RegexRule groups =
+      new RegexRule("ee->e-0", "(?<first>e)(?<second>e)", "{head}{first}{tail}");
+
+  @Benchmark
+  public List<DrudleRuleResult> applyLiteral() {
+    return literal.apply(drudle);
+  }
+
+  /**
+   * Compiles the pattern and the output on every call, like the rules did before they were
+   * compiled at load time, the baseline of {@link #applyLiteral()}.
+   */
+  @Benchmark
+  public List<DrudleRuleResult> applyCompilingPerCall() {
+    return new RegexRule("rot-0", "rot", "<span style=\"color: #FF0000\">{head}*</span>{tail}")
+        .apply(drudle);
+  }
+
+  @Benchmark
+  public List<DrudleRuleResult> applyRepeated() {
+    return repeated.apply(drudle);
+  }
+
+  @Benchmark
+  public List<DrudleRuleResult> applyGroups() {
+    return groups.apply(drudle);
+  }
+}
@@ -0,0 +1,72 @@
+package de.mankianer.drudle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * The drudles of a load test with their weights, {@code <weight> <drudle>} per line, {@code #}
+ * starts a comment. The drudles are sent as they are written, not normalized, like a client would.
+ *
+ * @param drudles the drudles in the order of the corpus
+ * @param cumulativeWeights the sum of the weights of each drudle and all drudles before it
+ */
+record LoadCorpus(List<String> drudles, long[] cumulativeWeights) {
+
+  /**
+   * @param corpus a file or the name of a checked-in {@code corpus/<name>.txt}
+   * @return the corpus
+   */
+  static LoadCorpus load(String corpus) throws IOException {
+    Path file = Path.of(corpus);
+    if (Files.isRegularFile(file)) {
+      return parse(Files.readString(file));
+    }
+    try (InputStream in = LoadCorpus.class.getResourceAsStream("/corpus/" + corpus + ".txt")) {
+      if (in == null) {
+        throw new IOException("Unknown corpus: " + corpus);
+      }
+      return parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  static LoadCorpus parse(String text) {
+    List<String> drudles = new ArrayList<>();
+    long[] cumulativeWeights = new long[16];
+    long total = 0;
+    for (String line : text.lines().map(String::strip).toList()) {
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      String[] fields = line.split("\\s+", 2);
+      if (fields.length < 2 || !fields[0].chars().allMatch(Character::isDigit)) {
+        throw new IllegalArgumentException("Expected '<weight> <drudle>', got: " + line);
+      }
+      long weight = Long.parseLong(fields[0]);
+      if (weight <= 0) {
+        throw new IllegalArgumentException("Expected '<weight> <drudle>', got: " + line);
+      }
+      total += weight;
+      if (drudles.size() == cumulativeWeights.length) {
+        cumulativeWeights = Arrays.copyOf(cumulativeWeights, drudles.size() * 2);
+      }
+      cumulativeWeights[drudles.size()] = total;
+      drudles.add(fields[1]);
+    }
+    if (drudles.isEmpty()) {
+      throw new IllegalArgumentException("The corpus has no drudles");
+    }
+    return new LoadCorpus(List.copyOf(drudles), Arrays.copyOf(cumulativeWeights, drudles.size()));
+  }
+
+  /** @return the index of a drudle drawn by its weight */
+  int next(RandomGenerator random) {
+    long value = random.nextLong(cumulativeWeights[cumulativeWeights.length - 1]);
+    int ret = Arrays.binarySearch(cumulativeWeights, value + 1);
+    return ret >= 0 ? ret : -ret - 1;
+  }
+}
@@ -0,0 +1,72 @@
+package de.mankianer.drudle;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * Options of a {@link LoadTest} run, given as {@code --load.<option>=<value>} arguments. All other
+ * arguments are handed to the Spring application, e.g. {@code --drudle.cache.max-entries=0}.
+ *
+ * @param rate the requests started per second, whether earlier requests are answered or not
+ * @param duration the time requests are measured
+ * @param warmup the time requests are sent before, without measuring them
+ * @param clients the maximum number of requests in flight, a request that finds no free client
+ *     waits and the wait counts into its latency
+ * @param timeout the time after which a request counts as timed out
+ * @param corpus a file or the name of a checked-in {@code corpus/<name>.txt}
+ * @param seed the seed the drudles are drawn with, equal seeds send equal sequences
+ * @param reportDir the directory the reports are written to
+ * @param springArgs the arguments of the Spring application
+ */
+record LoadOptions(
+    double rate,
+    Duration duration,
+    Duration warmup,
+    int clients,
+    Duration timeout,
+    String corpus,
+    long seed,
+    Path reportDir,
+    List<String> springArgs) {
+
+  private static final String PREFIX = "--load.";
+
+  static LoadOptions parse(String... args) {
+    double rate = 20;
+    Duration duration = Duration.ofSeconds(60);
+    Duration warmup = Duration.ofSeconds(10);
+    int clients = 64;
+    Duration timeout = Duration.ofSeconds(30);
+    String corpus = "mix";
+    long seed = 42;
+    Path reportDir = Path.of("build", "reports", "loadtest");
+    List<String> springArgs = new ArrayList<>();
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (!arg.startsWith(PREFIX) || separator < 0) {
+        springArgs.add(arg);
+        continue;
+      }
+      String value = arg.substring(separator + 1);
+      switch (arg.substring(PREFIX.length(), separator)) {
+        case "rate" -> rate = Double.parseDouble(value);
+        case "duration" -> duration = DurationStyle.detectAndParse(value);
+        case "warmup" -> warmup = DurationStyle.detectAndParse(value);
+        case "clients" -> clients = Integer.parseInt(value);
+        case "timeout" -> timeout = DurationStyle.detectAndParse(value);
+        case "corpus" -> corpus = value;
+        case "seed" -> seed = Long.parseLong(value);
+        case "reportDir" -> reportDir = Path.of(value);
+        default -> throw new IllegalArgumentException("Unknown load test option: " + arg);
+      }
+    }
+    if (rate <= 0 || clients <= 0 || duration.isNegative() || duration.isZero()) {
+      throw new IllegalArgumentException("Rate, clients and duration have to be positive");
+    }
+    return new LoadOptions(
+        rate, duration, warmup, clients, timeout, corpus, seed, reportDir, List.copyOf(springArgs));
+  }
+}
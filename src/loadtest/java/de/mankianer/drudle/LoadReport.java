@@ -0,0 +1,419 @@
+package de.mankianer.drudle;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Thread-safe record of the measured requests of a {@link LoadTest} and the state of the JVM while
+ * they ran. Latencies are recorded in microseconds and reported in milliseconds. Only answered
+ * requests (status below 400) are recorded in the latency histograms, failed and timed out
+ * requests are counted on their own.<br>
+ * The service and the clients run in one JVM, so the heap and GC statistics include the clients.
+ */
+final class LoadReport {
+
+  private static final double MICROS_PER_MILLI = 1000.0;
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static final DateTimeFormatter RUN_NAME =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+  private static final String CSV_HEADER =
+      "started,corpus,rate,clients,seconds,sent,throughput,errorRate,timeoutRate,"
+          + "p50,p90,p99,p999,max,gcCount,gcMillis,maxHeapUsedMb";
+
+  /**
+   * Latency percentiles in milliseconds.
+   *
+   * @param count the number of recorded requests
+   */
+  record Latency(
+      long count, double mean, double p50, double p90, double p99, double p999, double max) {
+
+    static Latency of(Histogram histogram) {
+      return new Latency(
+          histogram.getTotalCount(),
+          histogram.getMean() / MICROS_PER_MILLI,
+          histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+          histogram.getValueAtPercentile(90) / MICROS_PER_MILLI,
+          histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+          histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+          histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+  }
+
+  /**
+   * @param maxUsedBytes the most heap in use in the samples taken while measuring
+   * @param usedBytes the heap in use at the end
+   * @param committedBytes the heap committed at the end
+   * @param maxBytes the maximum heap size
+   */
+  record Heap(long maxUsedBytes, long usedBytes, long committedBytes, long maxBytes) {}
+
+  /**
+   * @param name the name of the collector
+   * @param count the collections while measuring
+   * @param millis the time of the collections while measuring
+   */
+  record Gc(String name, long count, long millis) {}
+
+  /**
+   * @param drudle the drudle as it was sent
+   * @param errors the requests answered with a status of 400 or above, or failed without answer
+   * @param timeouts the requests that were not answered in time
+   * @param latency the latency of the answered requests
+   */
+  record DrudleSummary(String drudle, long errors, long timeouts, Latency latency) {}
+
+  /**
+   * The result of a run, written as {@code summary.json}.
+   *
+   * @param started the start of the measured requests
+   * @param seconds the time from the start of the measured requests until the last one finished
+   * @param sent the measured requests
+   * @param throughput the answered requests per second
+   * @param errorRate the share of the sent requests that failed
+   * @param timeoutRate the share of the sent requests that timed out
+   * @param truncated the answered requests whose search stopped at a limit
+   * @param statuses the number of responses per status code
+   * @param latency the time from the intended start of each request until its response was read,
+   *     so waiting for a free client counts as well
+   * @param serviceTime the time from sending each request until its response was read
+   */
+  record Summary(
+      String started,
+      String corpus,
+      double rate,
+      int clients,
+      double seconds,
+      long sent,
+      long answered,
+      long errors,
+      long timeouts,
+      long truncated,
+      long bytes,
+      double throughput,
+      double errorRate,
+      double timeoutRate,
+      Map<Integer, Long> statuses,
+      Latency latency,
+      Latency serviceTime,
+      Heap heap,
+      List<Gc> gc,
+      List<DrudleSummary> drudles) {}
+
+  private final LoadCorpus corpus;
+  private final ConcurrentHistogram latency = new ConcurrentHistogram(3);
+  private final ConcurrentHistogram serviceTime = new ConcurrentHistogram(3);
+  private final ConcurrentHistogram[] drudleLatency;
+  private final LongAdder[] drudleErrors;
+  private final LongAdder[] drudleTimeouts;
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder truncated = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+  private final AtomicLong maxHeapUsed = new AtomicLong();
+  private final Map<String, long[]> gcAtStart = new LinkedHashMap<>();
+  private Instant started;
+  private long startNanos;
+  private long endNanos;
+
+  LoadReport(LoadCorpus corpus) {
+    this.corpus = corpus;
+    int size = corpus.drudles().size();
+    drudleLatency = new ConcurrentHistogram[size];
+    drudleErrors = new LongAdder[size];
+    drudleTimeouts = new LongAdder[size];
+    for (int i = 0; i < size; i++) {
+      drudleLatency[i] = new ConcurrentHistogram(3);
+      drudleErrors[i] = new LongAdder();
+      drudleTimeouts[i] = new LongAdder();
+    }
+  }
+
+  /** Starts measuring, after the warmup. */
+  void start() {
+    for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcAtStart.put(gc.getName(), new long[] {gc.getCollectionCount(), gc.getCollectionTime()});
+    }
+    maxHeapUsed.set(0);
+    sampleHeap();
+    started = Instant.now();
+    startNanos = System.nanoTime();
+  }
+
+  /** Stops measuring, once the last measured request finished. */
+  void finish() {
+    endNanos = System.nanoTime();
+  }
+
+  void sampleHeap() {
+    long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    maxHeapUsed.accumulateAndGet(used, Math::max);
+  }
+
+  void sent() {
+    sent.increment();
+  }
+
+  /**
+   * @param drudle the index of the drudle in the corpus
+   * @param status the status code of the response
+   * @param truncated true if the search stopped at a limit
+   * @param bytes the bytes of the response body
+   * @param latencyNanos the time since the intended start of the request
+   * @param serviceNanos the time since the request was sent
+   */
+  void answered(
+      int drudle,
+      int status,
+      boolean truncated,
+      long bytes,
+      long latencyNanos,
+      long serviceNanos) {
+    statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+    this.bytes.add(bytes);
+    if (status >= 400) {
+      failed(drudle);
+      return;
+    }
+    if (truncated) {
+      this.truncated.increment();
+    }
+    latency.recordValue(latencyNanos / 1000);
+    serviceTime.recordValue(serviceNanos / 1000);
+    drudleLatency[drudle].recordValue(latencyNanos / 1000);
+  }
+
+  /** @param drudle the index of the drudle in the corpus */
+  void failed(int drudle) {
+    errors.increment();
+    drudleErrors[drudle].increment();
+  }
+
+  /** @param drudle the index of the drudle in the corpus */
+  void timedOut(int drudle) {
+    timeouts.increment();
+    drudleTimeouts[drudle].increment();
+  }
+
+  Summary summary(LoadOptions options) {
+    double seconds = (endNanos - startNanos) / 1e9;
+    long sent = this.sent.sum();
+    Map<Integer, Long> statuses = new TreeMap<>();
+    this.statuses.forEach((status, count) -> statuses.put(status, count.sum()));
+    var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    List<Gc> gc = new ArrayList<>();
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      long[] atStart = gcAtStart.getOrDefault(collector.getName(), new long[2]);
+      gc.add(
+          new Gc(
+              collector.getName(),
+              collector.getCollectionCount() - atStart[0],
+              collector.getCollectionTime() - atStart[1]));
+    }
+    List<DrudleSummary> drudles = new ArrayList<>();
+    for (int i = 0; i < drudleLatency.length; i++) {
+      drudles.add(
+          new DrudleSummary(
+              corpus.drudles().get(i),
+              drudleErrors[i].sum(),
+              drudleTimeouts[i].sum(),
+              Latency.of(drudleLatency[i])));
+    }
+    return new Summary(
+        started == null ? null : started.toString(),
+        options.corpus(),
+        options.rate(),
+        options.clients(),
+        seconds,
+        sent,
+        latency.getTotalCount(),
+        errors.sum(),
+        timeouts.sum(),
+        truncated.sum(),
+        bytes.sum(),
+        seconds > 0 ? latency.getTotalCount() / seconds : 0,
+        sent > 0 ? (double) errors.sum() / sent : 0,
+        sent > 0 ? (double) timeouts.sum() / sent : 0,
+        statuses,
+        Latency.of(latency),
+        Latency.of(serviceTime),
+        new Heap(maxHeapUsed.get(), heap.getUsed(), heap.getCommitted(), heap.getMax()),
+        gc,
+        drudles);
+  }
+
+  /**
+   * Writes {@code summary.json}, {@code summary.txt} and the percentile distributions {@code
+   * latency.hgrm} and {@code service-time.hgrm} into a new directory of the run, and appends the
+   * run to {@code runs.csv}, so runs can be compared over time.
+   *
+   * @param summary the summary of the run
+   * @param reportDir the directory of all runs
+   * @return the directory of the run
+   */
+  Path write(Summary summary, Path reportDir) throws IOException {
+    Path dir = reportDir.resolve(RUN_NAME.format(started == null ? Instant.now() : started));
+    Files.createDirectories(dir);
+    new ObjectMapper()
+        .enable(SerializationFeature.INDENT_OUTPUT)
+        .writeValue(dir.resolve("summary.json").toFile(), summary);
+    Files.writeString(dir.resolve("summary.txt"), text(summary));
+    writeDistribution(latency, dir.resolve("latency.hgrm"));
+    writeDistribution(serviceTime, dir.resolve("service-time.hgrm"));
+
+    Path runs = reportDir.resolve("runs.csv");
+    List<String> lines = new ArrayList<>();
+    if (!Files.exists(runs)) {
+      lines.add(CSV_HEADER);
+    }
+    lines.add(csv(summary));
+    Files.write(runs, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    return dir;
+  }
+
+  private static void writeDistribution(Histogram histogram, Path file) throws IOException {
+    try (var out = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8)) {
+      histogram.outputPercentileDistribution(out, 5, MICROS_PER_MILLI);
+    }
+  }
+
+  private static String csv(Summary summary) {
+    long gcCount = summary.gc().stream().mapToLong(Gc::count).sum();
+    long gcMillis = summary.gc().stream().mapToLong(Gc::millis).sum();
+    return String.join(
+        ",",
+        summary.started(),
+        summary.corpus(),
+        Double.toString(summary.rate()),
+        Integer.toString(summary.clients()),
+        format(summary.seconds()),
+        Long.toString(summary.sent()),
+        format(summary.throughput()),
+        format(summary.errorRate()),
+        format(summary.timeoutRate()),
+        format(summary.latency().p50()),
+        format(summary.latency().p90()),
+        format(summary.latency().p99()),
+        format(summary.latency().p999()),
+        format(summary.latency().max()),
+        Long.toString(gcCount),
+        Long.toString(gcMillis),
+        Long.toString(summary.heap().maxUsedBytes() / BYTES_PER_MEGABYTE));
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  /** @return the summary as text, the way it is printed at the end of a run */
+  static String text(Summary summary) {
+    var sb = new StringBuilder();
+    sb.append(
+        String.format(
+            Locale.ROOT,
+            "Load test of corpus '%s' at %.1f requests/s with %d clients, %.1f s measured%n",
+            summary.corpus(),
+            summary.rate(),
+            summary.clients(),
+            summary.seconds()));
+    sb.append(
+        String.format(
+            Locale.ROOT,
+            "Sent %d, answered %d (%.1f/s), errors %d (%.2f%%), timeouts %d (%.2f%%),"
+                + " truncated %d%n",
+            summary.sent(),
+            summary.answered(),
+            summary.throughput(),
+            summary.errors(),
+            summary.errorRate() * 100,
+            summary.timeouts(),
+            summary.timeoutRate() * 100,
+            summary.truncated()));
+    sb.append("Status codes:");
+    summary
+        .statuses()
+        .forEach((status, count) -> sb.append(' ').append(status).append('=').append(count));
+    sb.append(System.lineSeparator());
+    sb.append(latencyLine("Latency ms     ", summary.latency()));
+    sb.append(latencyLine("Service time ms", summary.serviceTime()));
+    sb.append(
+        String.format(
+            Locale.ROOT,
+            "Heap MB: max used %d, used %d, committed %d, max %d%n",
+            summary.heap().maxUsedBytes() / BYTES_PER_MEGABYTE,
+            summary.heap().usedBytes() / BYTES_PER_MEGABYTE,
+            summary.heap().committedBytes() / BYTES_PER_MEGABYTE,
+            summary.heap().maxBytes() / BYTES_PER_MEGABYTE));
+    for (var gc : summary.gc()) {
+      sb.append(
+          String.format(
+              Locale.ROOT,
+              "GC %s: %d collections, %d ms%n",
+              gc.name(),
+              gc.count(),
+              gc.millis()));
+    }
+    sb.append(
+        String.format(
+            Locale.ROOT,
+            "%8s %7s %8s %10s %10s %10s  %s%n",
+            "answered",
+            "errors",
+            "timeouts",
+            "p50 ms",
+            "p99 ms",
+            "max ms",
+            "drudle"));
+    for (var drudle : summary.drudles()) {
+      sb.append(
+          String.format(
+              Locale.ROOT,
+              "%8d %7d %8d %10.3f %10.3f %10.3f  %s%n",
+              drudle.latency().count(),
+              drudle.errors(),
+              drudle.timeouts(),
+              drudle.latency().p50(),
+              drudle.latency().p99(),
+              drudle.latency().max(),
+              drudle.drudle()));
+    }
+    return sb.toString();
+  }
+
+  private static String latencyLine(String name, Latency latency) {
+    return String.format(
+        Locale.ROOT,
+        "%s: mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+        name,
+        latency.mean(),
+        latency.p50(),
+        latency.p90(),
+        latency.p99(),
+        latency.p999(),
+        latency.max());
+  }
+}
@@ -0,0 +1,170 @@
+package de.mankianer.drudle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+
+/**
+ * End-to-end load test of {@code GET /drudle/{drudle}} across the whole Spring stack.<br>
+ * Starts the {@link JavaDrudleApplication} on a free local port and starts requests for drudles
+ * drawn from a {@link LoadCorpus} at a fixed rate, whether earlier requests are answered or not. At
+ * most {@link LoadOptions#clients()} requests are in flight, a request that finds no free client
+ * waits for one. Its latency is measured from the time it should have started, so a slow service
+ * can not hide its queue by slowing down the clients. The results are written by the {@link
+ * LoadReport}.
+ *
+ * <pre>
+ * ./gradlew loadTest -Prate=50 -Pduration=60s -Pclients=64 -PloadTestArgs=--drudle.cache.max-entries=0
+ * </pre>
+ */
+public final class LoadTest {
+
+  private static final Duration HEAP_SAMPLE_INTERVAL = Duration.ofMillis(100);
+
+  private LoadTest() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    var options = LoadOptions.parse(args);
+    var corpus = LoadCorpus.load(options.corpus());
+    var application = new SpringApplication(JavaDrudleApplication.class);
+    application.setDefaultProperties(
+        Map.of("server.port", "0", "spring.main.banner-mode", "off"));
+    LoadReport report;
+    try (var context = application.run(options.springArgs().toArray(String[]::new))) {
+      int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+      report = run(URI.create("http://localhost:" + port + "/drudle/"), options, corpus);
+    }
+    var summary = report.summary(options);
+    Path dir = report.write(summary, options.reportDir());
+    System.out.print(LoadReport.text(summary));
+    System.out.printf("Wrote the report to %s%n", dir);
+  }
+
+  /**
+   * Sends the requests of the warmup and of the measured time.
+   *
+   * @param base the URI the encoded drudles are resolved against
+   * @param options the options of the run
+   * @param corpus the drudles to send
+   * @return the record of the measured requests
+   */
+  static LoadReport run(URI base, LoadOptions options, LoadCorpus corpus)
+      throws InterruptedException {
+    var report = new LoadReport(corpus);
+    List<HttpRequest> requests =
+        corpus.drudles().stream()
+            .map(
+                drudle ->
+                    HttpRequest.newBuilder(base.resolve(encode(drudle)))
+                        .timeout(options.timeout())
+                        .header("Accept-Encoding", "gzip")
+                        .GET()
+                        .build())
+            .toList();
+    var random = new SplittableRandom(options.seed());
+    var clients = new Semaphore(options.clients());
+    var heapSampler = Executors.newSingleThreadScheduledExecutor();
+    heapSampler.scheduleAtFixedRate(
+        report::sampleHeap,
+        0,
+        HEAP_SAMPLE_INTERVAL.toMillis(),
+        TimeUnit.MILLISECONDS);
+    try (var client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(options.timeout())
+            .build()) {
+      try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        long start = System.nanoTime();
+        long measureStart = start + options.warmup().toNanos();
+        long end = measureStart + options.duration().toNanos();
+        double interval = 1e9 / options.rate();
+        boolean measuring = false;
+        for (long i = 0; ; i++) {
+          long intended = start + (long) (i * interval);
+          if (intended >= end) break;
+          LockSupport.parkNanos(intended - System.nanoTime());
+          boolean measured = intended >= measureStart;
+          if (measured && !measuring) {
+            report.start();
+            measuring = true;
+          }
+          int drudle = corpus.next(random);
+          clients.acquire();
+          if (measured) {
+            report.sent();
+          }
+          executor.execute(
+              () -> {
+                try {
+                  send(client, requests.get(drudle), drudle, intended, measured, report);
+                } finally {
+                  clients.release();
+                }
+              });
+        }
+      }
+      // closing the executor waited for the requests in flight
+      report.finish();
+    } finally {
+      heapSampler.shutdownNow();
+    }
+    return report;
+  }
+
+  private static void send(
+      HttpClient client,
+      HttpRequest request,
+      int drudle,
+      long intended,
+      boolean measured,
+      LoadReport report) {
+    long sent = System.nanoTime();
+    try {
+      var response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+      long bytes;
+      try (InputStream body = response.body()) {
+        bytes = body.transferTo(OutputStream.nullOutputStream());
+      }
+      long now = System.nanoTime();
+      if (measured) {
+        report.answered(
+            drudle,
+            response.statusCode(),
+            response.headers().firstValue(DrudleController.TRUNCATED_HEADER).isPresent(),
+            bytes,
+            now - intended,
+            now - sent);
+      }
+    } catch (HttpTimeoutException e) {
+      if (measured) report.timedOut(drudle);
+    } catch (IOException e) {
+      if (measured) report.failed(drudle);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** @return the drudle as one path segment */
+  private static String encode(String drudle) {
+    return URLEncoder.encode(drudle, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+}
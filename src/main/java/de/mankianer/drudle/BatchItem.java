@@ -0,0 +1,23 @@
+package de.mankianer.drudle;
+
+/**
+ * Outcome of one drudle of a {@link DrudleService#processBatch(java.util.List, SolveLimits)} call.
+ *
+ * @param drudle the input drudle string
+ * @param result the results of the drudle, null if it failed
+ * @param error why the drudle failed, null if it was solved
+ */
+public record BatchItem(String drudle, SolveResult result, String error) {
+
+  static BatchItem solved(String drudle, SolveResult result) {
+    return new BatchItem(drudle, result, null);
+  }
+
+  static BatchItem failed(String drudle, String error) {
+    return new BatchItem(drudle, null, error);
+  }
+
+  public boolean isFailed() {
+    return error != null;
+  }
+}
@@ -0,0 +1,515 @@
+package de.mankianer.drudle;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import de.mankianer.drudle.SolveResult.Truncation;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Search for all results of a drudle on index spans {@code [start, end)} of the drudle instead of
+ * substrings.<br>
+ * Works like {@link DrudleProcess.Sequential}, but a part is a {@link Span} of the one input string.
+ * Rules are matched on the span ({@link RuleIndex#candidates(String, int, int)}) and cut it into
+ * spans ({@link SpanSplit}), so matching a rule allocates no substrings. The spans are kept in a
+ * chart keyed by a polynomial hash of their text, computed in constant time from the prefix hashes
+ * of the drudle and confirmed with {@link String#regionMatches}, so equal parts at different
+ * positions share one span and are solved once, like the string keyed parts of the {@link
+ * DrudleProcess}. The text of a span is only cut out once it gets results, since the results name
+ * their input.<br>
+ * Rules that are no {@link RegexRule} can hand out parts that are not part of the drudle, e.g. a
+ * text they made up. Those parts become spans over their own text, and share the chart with the
+ * spans of the drudle.
+ */
+@Log4j2
+final class ChartProcess implements SolveProcess {
+
+  /** Multiplier of the polynomial span hash. */
+  private static final long HASH_BASE = 0x9E3779B97F4A7C15L;
+
+  /** A part of the input: the span of a text, mostly of the drudle. */
+  private static final class Span {
+    private final String source;
+    private final int start;
+    private final int end;
+    private final long hash;
+    private String text;
+
+    private final Set<DrudleRuleResultSolved> solved = new HashSet<>();
+    private final List<Consumer<DrudleRuleResultSolved>> consumers = new ArrayList<>(2);
+    private boolean expanded;
+    private boolean fromCache;
+    private int depth;
+
+    private Span(String source, int start, int end, long hash) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      this.hash = hash;
+    }
+
+    private int length() {
+      return end - start;
+    }
+
+    private String text() {
+      if (text == null) {
+        text = source.substring(start, end);
+      }
+      return text;
+    }
+  }
+
+  /** A {@link RegexRule} matched on a span, waiting for the results of its parts. */
+  private static final class Item {
+    private final String ruleName;
+    private final Span owner;
+    private final OutputTemplate template;
+    private final int[] slotToPart;
+
+    /** The distinct used parts. */
+    private final Span[] parts;
+
+    /** Start index of each part in the owner, at its first slot. */
+    private final int[] partStarts;
+
+    /** Results received for each part, in arrival order. */
+    private final List<DrudleRuleResultSolved>[] fulfilled;
+
+    private int fulfilledParts;
+
+    @SuppressWarnings("unchecked")
+    private Item(
+        String ruleName,
+        Span owner,
+        OutputTemplate template,
+        int[] slotToPart,
+        Span[] parts,
+        int[] partStarts) {
+      this.ruleName = ruleName;
+      this.owner = owner;
+      this.template = template;
+      this.slotToPart = slotToPart;
+      this.parts = parts;
+      this.partStarts = partStarts;
+      this.fulfilled = new List[parts.length];
+    }
+  }
+
+  /** A result of a rule that is no {@link RegexRule}, its parts are strings. */
+  private record StringItem(Span owner, DrudleRuleResult result) {}
+
+  /** A solved result of a span, to be added to the span. */
+  private record Solved(Span owner, DrudleRuleResultSolved result) {}
+
+  private final RuleIndex ruleIndex;
+  private final long rulesVersion;
+  private final SolvedCache solvedCache;
+  private final SolveLimits limits;
+  private final long deadline;
+
+  /** {@link Item}s, {@link StringItem}s and {@link Solved} results, worked off in order. */
+  private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+
+  /** Open addressing table of all spans, see {@link #span(String, int, int)}. */
+  private Span[] chart = new Span[64];
+
+  private int spans;
+
+  /** First equal solved result of this process, so each result exists only once. */
+  private final Set<DrudleRuleResultSolved> interned = new HashSet<>();
+
+  private String drudle;
+  private Span root;
+
+  /** Hash of each prefix of the drudle, {@code prefixHashes[i]} is the hash of {@code [0, i)}. */
+  private long[] prefixHashes;
+
+  /** {@code HASH_BASE} to the power of the index. */
+  private long[] powers;
+
+  private ResultListener listener = ResultListener.NONE;
+  private int drudleResults;
+  private int steps;
+  private int solvedCount;
+  private int peakWaiting;
+  private Truncation stoppedBy;
+
+  /** True if a span was kept as it is because of {@link SolveLimits#maxDepth()}. */
+  private boolean depthLimited;
+
+  ChartProcess(RuleIndex ruleIndex, long rulesVersion, SolvedCache solvedCache, SolveLimits limits) {
+    this.ruleIndex = ruleIndex;
+    this.rulesVersion = rulesVersion;
+    this.solvedCache = solvedCache;
+    this.limits = limits;
+    this.deadline = System.nanoTime() + limits.maxDuration().toNanos();
+  }
+
+  @Override
+  public Truncation run(String drudle, ResultListener listener) {
+    this.drudle = drudle;
+    this.listener = listener;
+    prefixHashes = new long[drudle.length() + 1];
+    powers = new long[drudle.length() + 1];
+    powers[0] = 1;
+    for (int i = 0; i < drudle.length(); i++) {
+      prefixHashes[i + 1] = prefixHashes[i] * HASH_BASE + drudle.charAt(i);
+      powers[i + 1] = powers[i] * HASH_BASE;
+    }
+    root = span(drudle, 0, drudle.length());
+    root.expanded = true;
+    applyRules(root);
+    while (!waiting.isEmpty() && !limitReached()) {
+      process(waiting.poll());
+    }
+    if (stoppedBy != null) {
+      log.warn("Search for drudle '{}' stopped after {} steps, limit: {}", drudle, steps, stoppedBy);
+      return stoppedBy;
+    }
+    return depthLimited ? Truncation.DEPTH : Truncation.NONE;
+  }
+
+  @Override
+  public Set<DrudleRuleResult> getResults() {
+    return root == null ? Set.of() : getSolved(root);
+  }
+
+  @Override
+  public void storeSolved() {
+    for (var span : chart) {
+      if (span != null && span.expanded && !span.fromCache) {
+        solvedCache.put(rulesVersion, span.text(), getSolved(span));
+      }
+    }
+  }
+
+  @Override
+  public int getSteps() {
+    return Math.min(steps, limits.maxSteps());
+  }
+
+  @Override
+  public int getSolvedCount() {
+    return solvedCount;
+  }
+
+  @Override
+  public int getPeakWaiting() {
+    return peakWaiting;
+  }
+
+  /**
+   * Counts a queue item and checks the limits.
+   *
+   * @return true if the search has to stop
+   */
+  private boolean limitReached() {
+    if (stoppedBy != null) return true;
+    if (listener.isCancelled()) return stop(Truncation.CANCELLED);
+    int step = ++steps;
+    if (step > limits.maxSteps()) return stop(Truncation.STEPS);
+    // reading the clock is cheap, but not free
+    if ((step & 0xFF) == 0 && System.nanoTime() - deadline > 0) return stop(Truncation.TIME);
+    if (drudleResults > limits.maxResults()) return stop(Truncation.RESULTS);
+    return false;
+  }
+
+  private boolean stop(Truncation truncation) {
+    if (stoppedBy == null) {
+      stoppedBy = truncation;
+    }
+    return true;
+  }
+
+  private void addWaiting(Object item) {
+    waiting.add(item);
+    peakWaiting = Math.max(peakWaiting, waiting.size());
+  }
+
+  /** Processes one item of the queue. */
+  private void process(Object current) {
+    switch (current) {
+      case Solved solved -> addToSolved(solved.owner(), solved.result());
+      case Item item -> processParts(item);
+      case StringItem item -> processParts(item);
+      default -> throw new IllegalStateException("Unknown queue item: " + current);
+    }
+  }
+
+  /** Matches the rules on the span and queues their results. */
+  private void applyRules(Span span) {
+    if (span.length() == 0) return;
+    var metrics = ruleIndex.metrics();
+    for (var candidate : ruleIndex.candidates(span.source, span.start, span.end)) {
+      long start = System.nanoTime();
+      int fired = 0;
+      if (candidate.splits() == null) {
+        for (var result : candidate.rule().apply(span.text())) {
+          fired++;
+          if (result.usesWholeInput()) {
+            // the result would wait for itself, see RuleFacts
+            log.warn(
+                "Rule {} uses its whole input as a part. Drudle: '{}'",
+                result.getRuleName(),
+                span.text());
+          } else if (result.isValid()) {
+            metrics.valid(result);
+            addWaiting(new StringItem(span, result));
+          } else {
+            log.error(
+                "Rule {} did not use all parts. Drudle: '{}'", result.getRuleName(), span.text());
+          }
+        }
+      } else {
+        var rule = (RegexRule) candidate.rule();
+        for (var split : candidate.splits()) {
+          var item = item(rule, span, split);
+          if (item != null) {
+            fired++;
+            metrics.valid(rule.getName());
+            addWaiting(item);
+          }
+        }
+      }
+      metrics.applied(candidate.rule(), fired, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * @return the rule matched on the span, or null if a required slot is empty
+   */
+  private Item item(RegexRule rule, Span span, SpanSplit split) {
+    var compiled = rule.getCompiled();
+    var slots = compiled.slots();
+    Span[] distinct = new Span[slots.size()];
+    // spans are shared by equal texts, so the span of a part may lie elsewhere in the drudle
+    int[] distinctStarts = new int[slots.size()];
+    int distinctCount = 0;
+    int[] slotToDistinctPart = new int[slots.size()];
+    for (int k = 0; k < slots.size(); k++) {
+      int i = split.slot(k);
+      var slot = slots.get(i);
+      if (!slot.used()) continue;
+      int start = split.starts()[i];
+      int end = split.ends()[i];
+      if (slot.required() && start == end) {
+        log.info(
+            "RegexRule '{}' drudle '{}': value is missing for group: {}",
+            rule::getName,
+            span::text,
+            slot::name);
+        return null;
+      }
+      if (rule.getFacts().growthCycle() && end - start == span.length()) {
+        // the rule would solve the span with its own results, see RuleFacts
+        return null;
+      }
+      var part = span(span.source, start, end);
+      int index = 0;
+      while (index < distinctCount && distinct[index] != part) {
+        index++;
+      }
+      if (index == distinctCount) {
+        distinctStarts[distinctCount] = start - span.start;
+        distinct[distinctCount++] = part;
+      }
+      slotToDistinctPart[i] = index;
+    }
+    var template = compiled.template();
+    int[] slotToPart = new int[template.slotCount()];
+    for (int i = 0; i < slotToPart.length; i++) {
+      slotToPart[i] = slotToDistinctPart[template.slot(i)];
+    }
+    Span[] parts = new Span[distinctCount];
+    System.arraycopy(distinct, 0, parts, 0, distinctCount);
+    return new Item(
+        rule.getName(),
+        span,
+        compiled.template(),
+        slotToPart,
+        parts,
+        Arrays.copyOf(distinctStarts, distinctCount));
+  }
+
+  private void processParts(Item item) {
+    if (item.parts.length == 0) {
+      log.error("Rule {} did not use all parts. Drudle: '{}'", item.ruleName, item.owner.text());
+      return;
+    }
+    for (int i = 0; i < item.parts.length; i++) {
+      int part = i;
+      subscribe(item.parts[i], item.owner.depth + 1, solved -> fulfill(item, part, solved));
+    }
+  }
+
+  private void processParts(StringItem item) {
+    var solvedResult = item.result().getSolvedResult();
+    if (solvedResult != null) {
+      addToSolved(item.owner(), solvedResult);
+      return;
+    }
+    var result = item.result();
+    for (int i = 0; i < result.getPartCount(); i++) {
+      int part = i;
+      String text = result.getPart(i);
+      subscribe(
+          span(text, 0, text.length()),
+          item.owner().depth + 1,
+          solved -> {
+            for (var applied : result.fulfill(part, solved)) {
+              if (interned.add(applied)) {
+                addWaiting(new Solved(item.owner(), applied));
+              }
+            }
+          });
+    }
+  }
+
+  /** Hands every result of the span to the consumer, the ones it has and the ones it will get. */
+  private void subscribe(Span part, int depth, Consumer<DrudleRuleResultSolved> consumer) {
+    part.consumers.add(consumer);
+    if (!part.expanded) {
+      expand(part, depth);
+    } else {
+      List.copyOf(part.solved).forEach(consumer);
+    }
+  }
+
+  /** Solves a span for the first time: from the cache, or with the rules and as it is. */
+  private void expand(Span span, int depth) {
+    span.expanded = true;
+    span.depth = depth;
+    var cached = solvedCache.get(rulesVersion, span.text());
+    if (cached != null) {
+      span.fromCache = true;
+      cached.forEach(result -> addToSolved(span, (DrudleRuleResultSolved) result));
+    } else if (depth > limits.maxDepth()) {
+      depthLimited = true;
+    } else {
+      applyRules(span);
+    }
+    addToSolved(span, new DrudleRuleResultSolved(span.text()));
+  }
+
+  /**
+   * Adds a result for a part of the item. Every combination of part results is queued exactly
+   * once, by the call that adds its last result.
+   */
+  private void fulfill(Item item, int part, DrudleRuleResultSolved solved) {
+    if (item.fulfilled[part] == null) {
+      item.fulfilled[part] = new ArrayList<>(2);
+      item.fulfilledParts++;
+    }
+    item.fulfilled[part].add(solved);
+    if (item.fulfilledParts < item.parts.length) return;
+    // index of the result per part, the new result is fixed for its own part
+    int[] chosen = new int[item.parts.length];
+    chosen[part] = item.fulfilled[part].size() - 1;
+    while (true) {
+      var parts = new DrudleRuleResultSolved[item.parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = item.fulfilled[i].get(chosen[i]);
+      }
+      var result =
+          new DrudleRuleResultSolved(
+              item.ruleName,
+              item.owner.text(),
+              item.template,
+              item.slotToPart,
+              item.partStarts,
+              parts);
+      // drop duplicates of already known results before they fan out
+      if (interned.add(result)) {
+        addWaiting(new Solved(item.owner, result));
+      }
+      // next combination of the other parts
+      int i = 0;
+      while (i < parts.length && (i == part || ++chosen[i] == item.fulfilled[i].size())) {
+        if (i != part) chosen[i] = 0;
+        i++;
+      }
+      if (i == parts.length) return;
+    }
+  }
+
+  private void addToSolved(Span span, DrudleRuleResultSolved result) {
+    if (!span.solved.add(result)) return;
+    solvedCount++;
+    if (span == root && !result.isUnsolvedValue()) {
+      if (++drudleResults <= limits.maxResults() && !listener.onResult(result)) {
+        stop(Truncation.CANCELLED);
+      }
+    }
+    log.debug("Solved drudle '{}' to '{}' with rule {}", span::text, () -> result, result::getRuleName);
+    // consumers only queue new results, so the list does not change while it is handed out
+    for (int i = 0, size = span.consumers.size(); i < size; i++) {
+      span.consumers.get(i).accept(result);
+    }
+  }
+
+  /** Solved results of a span, without the result that keeps it as it is. */
+  private static Set<DrudleRuleResult> getSolved(Span span) {
+    Set<DrudleRuleResult> ret = new HashSet<>(span.solved);
+    ret.removeIf(DrudleRuleResult::isUnsolvedValue);
+    return ret;
+  }
+
+  /**
+   * @return the span of the chart with the text of {@code source[start, end)}, created if there is
+   *     none yet
+   */
+  private Span span(String source, int start, int end) {
+    long hash = hash(source, start, end);
+    int mask = chart.length - 1;
+    for (int i = Long.hashCode(hash * HASH_BASE) & mask; ; i = (i + 1) & mask) {
+      var span = chart[i];
+      if (span == null) {
+        span = new Span(source, start, end, hash);
+        chart[i] = span;
+        if (++spans * 2 > chart.length) {
+          grow();
+        }
+        return span;
+      }
+      if (span.hash == hash
+          && span.length() == end - start
+          && source.regionMatches(start, span.source, span.start, end - start)) {
+        return span;
+      }
+    }
+  }
+
+  /** Polynomial hash of the text, equal for equal texts no matter which string they are part of. */
+  private long hash(String source, int start, int end) {
+    long ret;
+    if (source == drudle) {
+      ret = prefixHashes[end] - prefixHashes[start] * powers[end - start];
+    } else {
+      ret = 0;
+      for (int i = start; i < end; i++) {
+        ret = ret * HASH_BASE + source.charAt(i);
+      }
+    }
+    return ret;
+  }
+
+  private void grow() {
+    var old = chart;
+    chart = new Span[old.length * 2];
+    int mask = chart.length - 1;
+    for (var span : old) {
+      if (span == null) continue;
+      int i = Long.hashCode(span.hash * HASH_BASE) & mask;
+      while (chart[i] != null) {
+        i = (i + 1) & mask;
+      }
+      chart[i] = span;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package de.mankianer.drudle;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Load-time compiled form of a {@link RegexRule}.<br>
+ * Holds the precompiled {@link Pattern} and the slots of the rule: the named groups sorted by group
+ * index, followed by {@code head}, {@code content} and {@code tail}, see {@link #matchOrder(int[])}
+ * for their order in a match. Each slot knows whether the output uses it ({@code {slot}}) and
+ * whether it is required to be non-empty ({@code {slot}*}), so applying a rule only has to run the
+ * matcher. The output is parsed into an {@link OutputTemplate} whose slots point at these slots.
+ *
+ * @param regex the compiled pattern
+ * @param slots the named groups followed by head, content and tail
+ * @param template the output, its slots are indices into {@code slots}
+ */
+record CompiledRule(Pattern regex, List<Slot> slots, OutputTemplate template) {
+
+  static final String HEAD = "head";
+  static final String CONTENT = "content";
+  static final String TAIL = "tail";
+
+  /** Characters with a special meaning in a {@link Pattern}. */
+  private static final String REGEX_META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+  /**
+   * A part of the input a rule can hand to its output.
+   *
+   * @param name the group name or one of head, content, tail
+   * @param group true if the slot is a named group of the pattern
+   * @param used true if the output contains {@code {name}}
+   * @param required true if the output contains {@code {name}*}
+   */
+  record Slot(String name, boolean group, boolean used, boolean required) {}
+
+  static CompiledRule compile(String pattern, String output) {
+    var regex = Pattern.compile(pattern);
+    List<Slot> slots = new ArrayList<>();
+    regex.namedGroups().entrySet().stream()
+        .sorted(Comparator.comparingInt(Map.Entry::getValue))
+        .forEach(group -> slots.add(slot(group.getKey(), true, output)));
+    slots.add(slot(HEAD, false, output));
+    slots.add(slot(CONTENT, false, output));
+    slots.add(slot(TAIL, false, output));
+    var template = OutputTemplate.parse(output, slots.stream().map(Slot::name).toList());
+    return new CompiledRule(regex, List.copyOf(slots), template);
+  }
+
+  private static Slot slot(String name, boolean group, String output) {
+    return new Slot(
+        name,
+        group,
+        output.contains("{" + name + "}"),
+        output.contains("{" + name + "}*"));
+  }
+
+  /**
+   * Orders the slots of one match the way their parts lie in the input: the named groups by their
+   * start, followed by head, content and tail. Groups are declared in pattern order, but a group can
+   * match in front of a group declared before it, e.g. one in a lookahead. Groups with the same
+   * start keep their group order.
+   *
+   * @param starts the start index of each slot in the match, in slot order
+   * @return the slot indices in match order, null if that is the slot order
+   */
+  int[] matchOrder(int[] starts) {
+    int groups = slots.size() - 3;
+    int sorted = 1;
+    while (sorted < groups && starts[sorted - 1] <= starts[sorted]) {
+      sorted++;
+    }
+    if (sorted >= groups) return null;
+    int[] order = new int[slots.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    for (int i = 1; i < groups; i++) {
+      int slot = order[i];
+      int j = i;
+      while (j > 0 && starts[order[j - 1]] > starts[slot]) {
+        order[j] = order[j - 1];
+        j--;
+      }
+      order[j] = slot;
+    }
+    return order;
+  }
+
+  boolean hasGroups() {
+    return slots.getFirst().group();
+  }
+
+  /**
+   * @return true if the pattern is a non-empty plain text without any regex features, so it can be
+   *     matched by a {@link LiteralAutomaton}
+   */
+  boolean isLiteral() {
+    String pattern = regex.pattern();
+    if (pattern.isEmpty() || regex.flags() != 0) return false;
+    for (int i = 0; i < pattern.length(); i++) {
+      if (REGEX_META_CHARACTERS.indexOf(pattern.charAt(i)) >= 0) return false;
+    }
+    return true;
+  }
+}
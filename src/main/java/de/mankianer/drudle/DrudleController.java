@@ -1,28 +1,551 @@
 package de.mankianer.drudle;
 
-import java.util.Set;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/drudle")
 class DrudleController {
 
+    /** Header naming the limit that stopped the search, only set on partial results. */
+    static final String TRUNCATED_HEADER = "X-Drudle-Truncated";
+
+    private static final MediaType HTML = new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8);
+
+    /** Time a request may stay open after the search limit, to send the last results. */
+    private static final Duration TIMEOUT_SLACK = Duration.ofSeconds(5);
+
     private final DrudleService drudleService;
     private final OutputRenderer outputRenderer;
+    private final ObjectMapper objectMapper;
+    private final SolveGate solveGate;
+    private final ResponseCache responseCache;
 
-    public DrudleController(DrudleService drudleService, OutputRenderer outputRenderer) {
+    /** Send the compact page instead of the full page, see {@link DrudleProperties.Render}. */
+    private final boolean compactPage;
+
+    public DrudleController(
+            DrudleService drudleService,
+            OutputRenderer outputRenderer,
+            ObjectMapper objectMapper,
+            SolveGate solveGate,
+            ResponseCache responseCache,
+            DrudleProperties properties) {
         this.drudleService = drudleService;
         this.outputRenderer = outputRenderer;
+        this.objectMapper = objectMapper;
+        this.solveGate = solveGate;
+        this.responseCache = responseCache;
+        this.compactPage = properties.getRender().isCompactPage();
     }
 
+    /**
+     * Solves the drudle on a virtual thread once the {@link SolveGate} has a free slot. The search
+     * stops when the request times out or the client disconnects.<br>
+     * Complete responses of the default limits are kept in the {@link ResponseCache} until the rules
+     * change. They carry a strong ETag and are sent gzipped if the client accepts it, so a cached
+     * drudle is answered without a slot, and with 304 if the client already has it. Partial results
+     * are sent with {@code no-store}.
+     */
     @RequestMapping("/{drudle}")
-    public String getDrudle(@PathVariable String drudle) {
-        Set<DrudleRuleResult> result = drudleService.processDrudle(drudle);
-        if (result.isEmpty()) {
-            return "No rule applied to drudle: %s".formatted(drudle);
+    public DeferredResult<ResponseEntity<byte[]>> getDrudle(
+            @PathVariable String drudle,
+            @RequestParam(required = false) Integer maxSteps,
+            @RequestParam(required = false) Long maxMillis,
+            @RequestParam(required = false) Integer maxDepth,
+            @RequestParam(required = false) Integer maxResults,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        SolveLimits limits = limits(maxSteps, maxMillis, maxDepth, maxResults);
+        boolean gzip = acceptsGzip(acceptEncoding);
+        // read before solving, a reload in between only makes the entry stale for the old version
+        long rulesVersion = drudleService.getRuleSetInfo().version();
+        boolean cacheable = responseCache.isEnabled() && limits.equals(drudleService.getDefaultLimits());
+        var cached = cacheable ? responseCache.get(rulesVersion, drudle) : null;
+        if (cached != null) {
+            DeferredResult<ResponseEntity<byte[]>> ret = new DeferredResult<>();
+            ret.setResult(toResponse(cached, gzip, ifNoneMatch));
+            return ret;
+        }
+        return solve(limits, listener -> drudleService.processDrudle(drudle, limits, listener), result -> {
+            if (cacheable && !result.isTruncated()) {
+                return toResponse(
+                        responseCache.put(rulesVersion, drudle, out -> render(drudle, result, out)),
+                        gzip,
+                        ifNoneMatch);
+            }
+            // not stored, so neither hashed nor compressed
+            var body = new ByteArrayOutputStream();
+            try (var out = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+                render(drudle, result, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            var response = ResponseEntity.ok().contentType(HTML);
+            if (result.isTruncated()) {
+                response.header(TRUNCATED_HEADER, result.truncation().name()).cacheControl(CacheControl.noStore());
+            } else {
+                response.cacheControl(CacheControl.maxAge(responseCache.getMaxAge()).cachePublic());
+            }
+            return response.body(body.toByteArray());
+        });
+    }
+
+    /**
+     * Returns a page of the results as JSON, each result as its compact {@link ResultTree}. The
+     * results come cheapest first, in a stable order, and the search stops at the end of the page,
+     * see {@link ResultPage}. {@code nextCursor} fetches the next page as long as the rules do not
+     * change, {@code total} is only sent once the search found every result. The html of the
+     * results is only rendered with {@code html=true}.
+     */
+    @GetMapping(path = "/{drudle}/results", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<ResultsResponse>> getResults(
+            @PathVariable String drudle,
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean html,
+            @RequestParam(required = false) Integer maxSteps,
+            @RequestParam(required = false) Long maxMillis,
+            @RequestParam(required = false) Integer maxDepth,
+            @RequestParam(required = false) Integer maxResults) {
+        SolveLimits limits = limits(maxSteps, maxMillis, maxDepth, maxResults);
+        long rulesVersion = drudleService.getRuleSetInfo().version();
+        int offset;
+        try {
+            offset = ResultPage.offset(cursor, rulesVersion);
+        } catch (IllegalArgumentException e) {
+            return badRequest();
+        }
+        if (limit < 1 || limit > drudleService.getDefaultLimits().maxResults()) {
+            return badRequest();
+        }
+        int count = (int) Math.min((long) offset + limit, limits.maxResults());
+        return solve(limits, listener -> drudleService.processDrudleCheapest(drudle, limits, count, listener), result -> {
+            // stopped at the end of the page, not at a limit of the request
+            boolean more = result.truncation() == SolveResult.Truncation.RESULTS && count < limits.maxResults();
+            var page = ResultPage.of(result.results(), offset, limit, more);
+            return ResponseEntity.ok(new ResultsResponse(
+                    drudle,
+                    more ? SolveResult.Truncation.NONE.name() : result.truncation().name(),
+                    page.total(),
+                    page.items().stream()
+                            .map(item -> new ResultItem(
+                                    item.tree(), html ? outputRenderer.renderResult(item.result()) : null))
+                            .toList(),
+                    page.nextOffset() == null ? null : ResultPage.cursor(rulesVersion, page.nextOffset())));
+        });
+    }
+
+    private static <T> DeferredResult<ResponseEntity<T>> badRequest() {
+        DeferredResult<ResponseEntity<T>> ret = new DeferredResult<>();
+        ret.setResult(ResponseEntity.badRequest().build());
+        return ret;
+    }
+
+    /**
+     * Runs the search on a virtual thread once the {@link SolveGate} has a free slot and answers
+     * with the response of the result. The search stops when the request times out or the client
+     * disconnects.
+     */
+    private <T> DeferredResult<ResponseEntity<T>> solve(
+            SolveLimits limits,
+            Function<ResultListener, SolveResult> search,
+            Function<SolveResult, ResponseEntity<T>> respond) {
+        var ticket = solveGate.admit();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        DeferredResult<ResponseEntity<T>> deferred = new DeferredResult<>(timeout(limits).toMillis());
+        deferred.onTimeout(() -> cancelled.set(true));
+        deferred.onError(e -> cancelled.set(true));
+        // gives the place in the queue back if the request ends while it waits for a slot
+        deferred.onCompletion(ticket::close);
+        ticket.submit(() -> search.apply(new CancelListener(cancelled)))
+                .thenApply(respond)
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        deferred.setErrorResult(e instanceof CompletionException ? e.getCause() : e);
+                    } else if (!cancelled.get()) {
+                        deferred.setResult(response);
+                    }
+                });
+        return deferred;
+    }
+
+    /**
+     * Renders the results as the full page of {@link OutputRenderer#render(String, SolveResult)}, or
+     * as the compact page if {@code drudle.render.compact-page} is set.
+     */
+    private void render(String drudle, SolveResult result, Writer out) throws IOException {
+        if (result.results().isEmpty()) {
+            out.write(result.isTruncated()
+                    ? "No rule applied to drudle within the limits: %s".formatted(drudle)
+                    : "No rule applied to drudle: %s".formatted(drudle));
+            return;
+        }
+        if (compactPage) {
+            outputRenderer.render(drudle, result, out);
+        } else {
+            out.write(outputRenderer.render(drudle, result));
+        }
+    }
+
+    /** Answers with a complete response of the {@link ResponseCache}, 304 if the client has it. */
+    private ResponseEntity<byte[]> toResponse(ResponseCache.Entry entry, boolean gzip, String ifNoneMatch) {
+        var cacheControl = CacheControl.maxAge(responseCache.getMaxAge()).cachePublic();
+        if (entry.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(entry.etag(gzip))
+                    .cacheControl(cacheControl)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .build();
         }
-        return outputRenderer.render(drudle, result);
+        var response = ResponseEntity.ok()
+                .eTag(entry.etag(gzip))
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentType(HTML);
+        return gzip
+                ? response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(entry.gzip())
+                : response.body(entry.body());
+    }
+
+    /**
+     * True if the {@code Accept-Encoding} header allows gzip, by name or by {@code *}. A {@code q=0}
+     * refuses it, and so does a malformed q value.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        boolean any = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].strip();
+            if (name.equalsIgnoreCase("gzip")) {
+                // named explicitly, wins over *
+                return quality(parts) > 0;
+            }
+            if (name.equals("*")) {
+                any = quality(parts) > 0;
+            }
+        }
+        return any;
+    }
+
+    /** @return the q value of a coding, 1 if it has none, 0 if it is malformed */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].strip();
+            if (param.regionMatches(true, 0, "q=", 0, 2)) {
+                try {
+                    return Double.parseDouble(param.substring(2).strip());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Streams every result as a Server-Sent Event named {@code result} with the html of the result,
+     * as soon as it is found. The last event is named {@code done} and holds the {@link
+     * SolveResult.Truncation}. The search stops when the client disconnects.
+     */
+    @GetMapping(path = "/{drudle}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDrudle(
+            @PathVariable String drudle,
+            @RequestParam(required = false) Integer maxSteps,
+            @RequestParam(required = false) Long maxMillis,
+            @RequestParam(required = false) Integer maxDepth,
+            @RequestParam(required = false) Integer maxResults) {
+        SolveLimits limits = limits(maxSteps, maxMillis, maxDepth, maxResults);
+        var ticket = acquire();
+        SseEmitter emitter = new SseEmitter(timeout(limits).toMillis());
+        AtomicBoolean cancelled = new AtomicBoolean();
+        emitter.onTimeout(() -> cancelled.set(true));
+        emitter.onError(e -> cancelled.set(true));
+        emitter.onCompletion(ticket::close);
+        ticket.submit(() -> {
+            try {
+                SolveResult result = drudleService.processDrudle(drudle, limits, new StreamListener(cancelled) {
+                    @Override
+                    void send(DrudleRuleResult res) throws IOException {
+                        emitter.send(SseEmitter.event()
+                                .name("result")
+                                .data(outputRenderer.renderResult(res), MediaType.TEXT_HTML));
+                    }
+                });
+                if (!cancelled.get()) {
+                    emitter.send(SseEmitter.event().name("done").data(result.truncation().name()));
+                    emitter.complete();
+                }
+            } catch (IOException | RuntimeException e) {
+                emitter.completeWithError(e);
+            }
+            return null;
+        }).exceptionally(e -> {
+            // the request ended before the solve started
+            emitter.completeWithError(e instanceof CompletionException ? e.getCause() : e);
+            return null;
+        });
+        return emitter;
+    }
+
+    /**
+     * Streams the results as a compact html page: the style and script first, then the drawing of
+     * every result as soon as it is found, and a note at the end if the search stopped at a limit.
+     * The search stops when the client disconnects.
+     */
+    @GetMapping(path = "/{drudle}/stream", produces = MediaType.TEXT_HTML_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamDrudleHtml(
+            @PathVariable String drudle,
+            @RequestParam(required = false) Integer maxSteps,
+            @RequestParam(required = false) Long maxMillis,
+            @RequestParam(required = false) Integer maxDepth,
+            @RequestParam(required = false) Integer maxResults,
+            NativeWebRequest request) {
+        SolveLimits limits = limits(maxSteps, maxMillis, maxDepth, maxResults);
+        var ticket = acquire();
+        closeWhenDone(request, ticket);
+        StreamingResponseBody body = out -> {
+            try (ticket) {
+                AtomicBoolean cancelled = new AtomicBoolean();
+                var page = outputRenderer.page(drudle, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                SolveResult result = ticket.call(() -> drudleService.processDrudle(drudle, limits, new StreamListener(cancelled) {
+                    @Override
+                    void send(DrudleRuleResult res) throws IOException {
+                        page.result(res);
+                        page.flush();
+                    }
+                }));
+                if (!cancelled.get()) {
+                    page.truncated(result.truncation());
+                    page.flush();
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(HTML).body(body);
+    }
+
+    /**
+     * Streams every result as one line of JSON, as soon as it is found. The last line holds the
+     * {@link SolveResult.Truncation} and the number of results. The search stops when the client
+     * disconnects.
+     */
+    @GetMapping(path = "/{drudle}/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamDrudleNdjson(
+            @PathVariable String drudle,
+            @RequestParam(required = false) Integer maxSteps,
+            @RequestParam(required = false) Long maxMillis,
+            @RequestParam(required = false) Integer maxDepth,
+            @RequestParam(required = false) Integer maxResults,
+            NativeWebRequest request) {
+        SolveLimits limits = limits(maxSteps, maxMillis, maxDepth, maxResults);
+        var ticket = acquire();
+        closeWhenDone(request, ticket);
+        StreamingResponseBody body = out -> {
+            try (ticket) {
+                AtomicBoolean cancelled = new AtomicBoolean();
+                SolveResult result = ticket.call(() -> drudleService.processDrudle(drudle, limits, new StreamListener(cancelled) {
+                    @Override
+                    void send(DrudleRuleResult res) throws IOException {
+                        writeLine(out, toResultLine(res));
+                    }
+                }));
+                if (!cancelled.get()) {
+                    writeLine(out, new DoneLine(true, result.truncation().name(), result.results().size()));
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Solves a list of drudles in one engine session, substrings several drudles share are solved
+     * only once. Each item holds its results and truncation, or the error that stopped it.
+     */
+    @PostMapping(
+            path = "/batch",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BatchResponse> postBatch(
+            @RequestBody BatchRequest request,
+            @RequestParam(required = false) Integer maxSteps,
+            @RequestParam(required = false) Long maxMillis,
+            @RequestParam(required = false) Integer maxDepth,
+            @RequestParam(required = false) Integer maxResults) {
+        if (request == null || request.drudles() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        SolveLimits limits = limits(maxSteps, maxMillis, maxDepth, maxResults);
+        List<BatchItem> items;
+        try {
+            items = solveGate.admit().call(() -> drudleService.processBatch(request.drudles(), limits));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(new BatchResponse(items.stream()
+                .map(item -> item.isFailed()
+                        ? new BatchItemResponse(item.drudle(), List.of(), null, item.error())
+                        : new BatchItemResponse(
+                                item.drudle(),
+                                item.result().results().stream().map(DrudleController::toResultLine).toList(),
+                                item.result().truncation().name(),
+                                null))
+                .toList()));
+    }
+
+    @ExceptionHandler(SolveRejectedException.class)
+    public ResponseEntity<String> rejected(SolveRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(e.getRetryAfter().toSeconds(), 1)))
+                .body(e.getMessage());
     }
+
+    private static ResultLine toResultLine(DrudleRuleResult res) {
+        return new ResultLine(
+                res.getRuleName(),
+                res.getOutput(),
+                res.getPreviousResults().stream()
+                        .map(r -> new UsedRule(r.getRuleName(), r.getInput()))
+                        .toList());
+    }
+
+    /** The default limits lowered to the request parameters, 400 if a parameter allows no search. */
+    private SolveLimits limits(Integer maxSteps, Long maxMillis, Integer maxDepth, Integer maxResults) {
+        try {
+            return drudleService.getDefaultLimits().restrict(
+                    maxSteps, maxMillis == null ? null : Duration.ofMillis(maxMillis), maxDepth, maxResults);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Admits a streamed solve and waits for its slot on the request thread, so a full gate is
+     * answered with 503 before the stream commits the response with 200.
+     */
+    private SolveGate.Ticket acquire() {
+        var ticket = solveGate.admit();
+        ticket.acquire();
+        return ticket;
+    }
+
+    /**
+     * Closes the ticket when the async request is over, also if the streaming body never ran, e.g.
+     * because the client was gone or the request timed out first.
+     */
+    private static void closeWhenDone(NativeWebRequest request, SolveGate.Ticket ticket) {
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(ticket, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                ticket.close();
+            }
+        });
+    }
+
+    /** Time a request may take: waiting for a slot, the search limit and the slack to answer. */
+    private Duration timeout(SolveLimits limits) {
+        return solveGate.getMaxWait().plus(limits.maxDuration()).plus(TIMEOUT_SLACK);
+    }
+
+    private void writeLine(OutputStream out, Object line) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(line);
+        synchronized (out) {
+            out.write(json);
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    /** Stops the search once the request is cancelled, e.g. because it timed out or the client is gone. */
+    private record CancelListener(AtomicBoolean cancelled) implements ResultListener {
+        @Override
+        public boolean onResult(DrudleRuleResult result) {
+            return !cancelled.get();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+
+    /** Sends each result to the client, a failed send means the client is gone and cancels the search. */
+    private abstract static class StreamListener implements ResultListener {
+        private final AtomicBoolean cancelled;
+
+        StreamListener(AtomicBoolean cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        abstract void send(DrudleRuleResult res) throws IOException;
+
+        @Override
+        public synchronized boolean onResult(DrudleRuleResult result) {
+            if (cancelled.get()) return false;
+            try {
+                send(result);
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                cancelled.set(true);
+                return false;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+
+    record UsedRule(String rule, String input) {}
+
+    record ResultLine(String rule, String output, List<UsedRule> usedRules) {}
+
+    record DoneLine(boolean done, String truncation, int results) {}
+
+    record BatchRequest(List<String> drudles) {}
+
+    record BatchItemResponse(String drudle, List<ResultLine> results, String truncation, String error) {}
+
+    record BatchResponse(List<BatchItemResponse> items) {}
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record ResultItem(ResultTree tree, String html) {}
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record ResultsResponse(String drudle, String truncation, Integer total, List<ResultItem> results, String nextCursor) {}
 }
@@ -0,0 +1,135 @@
+package de.mankianer.drudle;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the engine.<br>
+ * The meters of a rule are registered the first time the rule is applied and kept, so recording on
+ * the hot path only costs a map lookup, an increment and reading the clock. {@link #NONE} records
+ * nothing.
+ */
+class DrudleMetrics {
+
+  /** Records nothing, for services created without a {@link MeterRegistry}. */
+  static final DrudleMetrics NONE = new DrudleMetrics(null, "none");
+
+  /**
+   * Meters of one rule.
+   *
+   * @param fired results the rule returned
+   * @param valid results that passed {@link DrudleRuleResult#isValid()}
+   * @param apply time spent applying the rule
+   */
+  private record RuleMeters(Counter fired, Counter valid, Timer apply) {}
+
+  private final MeterRegistry registry;
+  private final String engine;
+  private final ConcurrentHashMap<String, RuleMeters> rules = new ConcurrentHashMap<>();
+
+  private final DistributionSummary steps;
+  private final DistributionSummary solved;
+  private final DistributionSummary waiting;
+  private final DistributionSummary results;
+
+  /**
+   * @param registry the registry to register the meters with, null to record nothing
+   * @param engine the engine mode, tag of the solve timer
+   */
+  DrudleMetrics(MeterRegistry registry, String engine) {
+    this.registry = registry;
+    this.engine = engine;
+    if (registry == null) {
+      steps = solved = waiting = results = null;
+      return;
+    }
+    steps =
+        DistributionSummary.builder("drudle.solve.steps")
+            .description("Queue items processed per request")
+            .register(registry);
+    solved =
+        DistributionSummary.builder("drudle.solve.solved.peak")
+            .description("Solved results held per request")
+            .register(registry);
+    waiting =
+        DistributionSummary.builder("drudle.solve.waiting.peak")
+            .description("Peak number of results waiting in the queue per request")
+            .register(registry);
+    results =
+        DistributionSummary.builder("drudle.solve.results")
+            .description("Results returned per request")
+            .register(registry);
+  }
+
+  /** Records one application of a rule, called by the {@link RuleIndex}. */
+  void applied(DrudleRule rule, int fired, long nanos) {
+    if (registry == null) return;
+    var meters = rules.computeIfAbsent(rule.getName(), name -> register(rule));
+    meters.fired().increment(fired);
+    meters.apply().record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Records a result of a rule that passed validation. */
+  void valid(DrudleRuleResult result) {
+    valid(result.getRuleName());
+  }
+
+  /** Records a result of the rule that passed validation. */
+  void valid(String ruleName) {
+    if (registry == null) return;
+    var meters = rules.get(ruleName);
+    if (meters != null) {
+      meters.valid().increment();
+    }
+  }
+
+  /**
+   * Records a request.
+   *
+   * @param startNanos {@link System#nanoTime()} when the request started
+   * @param result the result of the request
+   * @param cacheHit true if the result was answered from the solved cache
+   * @param process the search of the request, null if it was answered from the cache
+   */
+  void solved(long startNanos, SolveResult result, boolean cacheHit, SolveProcess process) {
+    if (registry == null) return;
+    Timer.builder("drudle.solve")
+        .description("Time to solve a drudle")
+        .tag("engine", engine)
+        .tag("truncation", result.truncation().name())
+        .tag("cache", cacheHit ? "hit" : "miss")
+        .publishPercentileHistogram()
+        .register(registry)
+        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    results.record(result.results().size());
+    if (process != null) {
+      steps.record(process.getSteps());
+      solved.record(process.getSolvedCount());
+      waiting.record(process.getPeakWaiting());
+    }
+  }
+
+  private RuleMeters register(DrudleRule rule) {
+    String source = rule.getSource().isEmpty() ? "none" : rule.getSource();
+    return new RuleMeters(
+        Counter.builder("drudle.rule.fired")
+            .description("Results returned by a rule")
+            .tag("file", source)
+            .tag("rule", rule.getName())
+            .register(registry),
+        Counter.builder("drudle.rule.valid")
+            .description("Results of a rule that used the whole input")
+            .tag("file", source)
+            .tag("rule", rule.getName())
+            .register(registry),
+        Timer.builder("drudle.rule.apply")
+            .description("Time spent applying a rule")
+            .tag("file", source)
+            .tag("rule", rule.getName())
+            .register(registry));
+  }
+}
@@ -0,0 +1,514 @@
+package de.mankianer.drudle;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import de.mankianer.drudle.SolveResult.Truncation;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * One search for all results of a drudle and its parts.<br>
+ * Every part is expanded once: the rules are applied to it and it is solved as it is. Unsolved
+ * results wait for the solutions of their used parts and are queued again, once solved. The state
+ * is thread-safe, so {@link Parallel} can solve independent parts at the same time, while {@link
+ * Sequential} works off a plain queue on the calling thread. {@link Sequential} keeps the latest
+ * solution of each part of a waiting result, see {@link DrudleRuleResult#fulfillLatest(int,
+ * DrudleRuleResult)}. The other runners combine every solution of every part, so their results do
+ * not depend on the order the solutions arrive in. {@link BestFirst} works off the queue by cost
+ * and stops once the cheapest results are known.
+ */
+@Log4j2
+abstract class DrudleProcess implements SolveProcess {
+
+  /** Solved results and waiting consumers of one drudle part. Guarded by itself. */
+  private static final class Part {
+    private final Set<DrudleRuleResult> solved = new HashSet<>();
+    private final List<Consumer<DrudleRuleResult>> consumers = new ArrayList<>();
+    private boolean expanded;
+    private boolean fromCache;
+    private int depth;
+  }
+
+  private final RuleIndex ruleIndex;
+  private final long rulesVersion;
+  private final SolvedCache solvedCache;
+  protected final SolveLimits limits;
+
+  private final ConcurrentHashMap<String, Part> parts = new ConcurrentHashMap<>();
+
+  /** First equal solved result of this process, so each result exists only once. */
+  private final ConcurrentHashMap<DrudleRuleResultSolved, DrudleRuleResultSolved> interned =
+      new ConcurrentHashMap<>();
+
+  private String drudle;
+  private ResultListener listener = ResultListener.NONE;
+  private final AtomicInteger drudleResults = new AtomicInteger();
+  private final AtomicInteger steps = new AtomicInteger();
+  private final AtomicInteger solvedCount = new AtomicInteger();
+  private final AtomicInteger peakWaiting = new AtomicInteger();
+  private final long deadline;
+  private final AtomicReference<Truncation> stoppedBy = new AtomicReference<>();
+
+  /** True if a part was kept as it is because of {@link SolveLimits#maxDepth()}. */
+  private volatile boolean depthLimited;
+
+  protected DrudleProcess(
+      RuleIndex ruleIndex, long rulesVersion, SolvedCache solvedCache, SolveLimits limits) {
+    this.ruleIndex = ruleIndex;
+    this.rulesVersion = rulesVersion;
+    this.solvedCache = solvedCache;
+    this.limits = limits;
+    this.deadline = System.nanoTime() + limits.maxDuration().toNanos();
+  }
+
+  @Override
+  public Truncation run(String drudle, ResultListener listener) {
+    this.drudle = drudle;
+    this.listener = listener;
+    var part = part(drudle);
+    synchronized (part) {
+      part.expanded = true;
+    }
+    runQueue(drudle);
+    if (stoppedBy.get() != null) {
+      log.warn(
+          "Search for drudle '{}' stopped after {} steps, limit: {}",
+          drudle,
+          steps.get(),
+          stoppedBy.get());
+      return stoppedBy.get();
+    }
+    return depthLimited ? Truncation.DEPTH : Truncation.NONE;
+  }
+
+  /** Applies the rules to the drudle and works off the queue until it is empty or stopped. */
+  protected abstract void runQueue(String drudle);
+
+  protected abstract void addWaiting(DrudleRuleResult result);
+
+  @Override
+  public Set<DrudleRuleResult> getResults() {
+    return getSolved(drudle);
+  }
+
+  @Override
+  public int getSteps() {
+    return Math.min(steps.get(), limits.maxSteps());
+  }
+
+  @Override
+  public int getSolvedCount() {
+    return solvedCount.get();
+  }
+
+  @Override
+  public int getPeakWaiting() {
+    return peakWaiting.get();
+  }
+
+  /** Called by the runners whenever the queue grows. */
+  protected void waitingGrew(int size) {
+    int peak;
+    while (size > (peak = peakWaiting.get()) && !peakWaiting.compareAndSet(peak, size)) {
+      // retry, another thread raised the peak
+    }
+  }
+
+  @Override
+  public void storeSolved() {
+    parts.forEach(
+        (value, part) -> {
+          synchronized (part) {
+            if (part.fromCache) return;
+          }
+          solvedCache.put(rulesVersion, value, getSolved(value));
+        });
+  }
+
+  /**
+   * Counts a queue item and checks the limits.
+   *
+   * @return true if the search has to stop
+   */
+  protected boolean limitReached() {
+    if (stoppedBy.get() != null) return true;
+    if (listener.isCancelled()) return stop(Truncation.CANCELLED);
+    int step = steps.incrementAndGet();
+    if (step > limits.maxSteps()) return stop(Truncation.STEPS);
+    // reading the clock is cheap, but not free
+    if ((step & 0xFF) == 0 && System.nanoTime() - deadline > 0) return stop(Truncation.TIME);
+    if (drudleResults.get() > limits.maxResults()) return stop(Truncation.RESULTS);
+    return false;
+  }
+
+  protected boolean stop(Truncation truncation) {
+    stoppedBy.compareAndSet(null, truncation);
+    return true;
+  }
+
+  protected long remainingNanos() {
+    return deadline - System.nanoTime();
+  }
+
+  /** Processes one item of the queue. */
+  protected void process(DrudleRuleResult current) {
+    var currentSolved = current.getSolvedResult();
+    if (currentSolved != null) {
+      addToSolved(currentSolved);
+      return;
+    }
+    processUsedParts(current);
+  }
+
+  boolean addToWaitingQueue(String drudle) {
+    boolean added = false;
+    for (var result : ruleIndex.apply(drudle)) {
+      if (result.usesWholeInput()) {
+        // the result would wait for itself, see RuleFacts
+        log.warn(
+            "Rule {} uses its whole input as a part. Drudle: '{}'", result.getRuleName(), drudle);
+      } else if (result.isValid()) {
+        ruleIndex.metrics().valid(result);
+        addWaiting(result);
+        added = true;
+      } else {
+        log.error("Rule {} did not use all parts. Drudle: '{}'", result.getRuleName(), drudle);
+      }
+    }
+    return added;
+  }
+
+  void addToSolved(DrudleRuleResultSolved result) {
+    var drudle = result.getInput();
+    var part = part(drudle);
+    List<Consumer<DrudleRuleResult>> consumers;
+    synchronized (part) {
+      if (!part.solved.add(result)) return;
+      consumers = List.copyOf(part.consumers);
+    }
+    solvedCount.incrementAndGet();
+    if (drudle.equals(this.drudle) && !result.isUnsolvedValue()) {
+      if (drudleResults.incrementAndGet() <= limits.maxResults() && !listener.onResult(result)) {
+        stop(Truncation.CANCELLED);
+      }
+    }
+    log.debug("Solved drudle '{}' to '{}' with rule {}", drudle, result, result.getRuleName());
+    consumers.forEach(consumer -> consumer.accept(result));
+  }
+
+  void processUsedParts(DrudleRuleResult current) {
+    int partDepth = depth(current.getInput()) + 1;
+    for (int i = 0; i < current.getPartCount(); i++) {
+      int index = i;
+      String value = current.getPart(i);
+      // Create consumer
+      Consumer<DrudleRuleResult> consumer =
+          (s) -> {
+            for (var applied : fulfill(current, index, s)) {
+              // drop duplicates of already known results before they fan out
+              if (intern(applied)) {
+                addWaiting(applied); // add solved drudle part
+              }
+            }
+          };
+      // Register consumer and take the already solved results in one step, so no result is missed
+      var part = part(value);
+      List<DrudleRuleResult> alreadySolved;
+      boolean expand;
+      synchronized (part) {
+        part.consumers.add(consumer);
+        alreadySolved = List.copyOf(part.solved);
+        expand = !part.expanded;
+        part.expanded = true;
+        if (expand) part.depth = partDepth;
+      }
+      if (expand) {
+        expand(value, part, partDepth);
+      } else {
+        // Apply to already solved parts
+        alreadySolved.forEach(consumer);
+      }
+    }
+  }
+
+  /**
+   * Adds a solution for a part of a waiting result.
+   *
+   * @param current the waiting result
+   * @param part index of the distinct used part
+   * @param solution a solved result of the part
+   * @return the results that are solved with the new solution
+   */
+  protected List<DrudleRuleResultSolved> fulfill(
+      DrudleRuleResult current, int part, DrudleRuleResult solution) {
+    return current.fulfill(part, solution);
+  }
+
+  /**
+   * @param result a new solved result of a part
+   * @return true to queue the result, false if an equal result is already known
+   */
+  protected boolean intern(DrudleRuleResultSolved result) {
+    return interned.putIfAbsent(result, result) == null;
+  }
+
+  /** Solves a part for the first time: from the cache, or with the rules and as it is. */
+  private void expand(String value, Part part, int partDepth) {
+    var cached = solvedCache.get(rulesVersion, value);
+    if (cached != null) {
+      synchronized (part) {
+        part.fromCache = true;
+      }
+      cached.forEach(result -> addToSolved((DrudleRuleResultSolved) result));
+    } else if (partDepth > limits.maxDepth()) {
+      depthLimited = true;
+    } else {
+      addToWaitingQueue(value);
+    }
+    addToSolved(new DrudleRuleResultSolved(value));
+  }
+
+  private Part part(String value) {
+    return parts.computeIfAbsent(value, k -> new Part());
+  }
+
+  private int depth(String value) {
+    var part = parts.get(value);
+    if (part == null) return 0;
+    synchronized (part) {
+      return part.depth;
+    }
+  }
+
+  /** Solved results of a part, without the result that keeps it as it is. */
+  private Set<DrudleRuleResult> getSolved(String value) {
+    var part = parts.get(value);
+    if (part == null) return Set.of();
+    Set<DrudleRuleResult> ret;
+    synchronized (part) {
+      ret = new HashSet<>(part.solved);
+    }
+    ret.removeIf(DrudleRuleResult::isUnsolvedValue);
+    return ret;
+  }
+
+  /** Works off a plain queue on the calling thread. */
+  static final class Sequential extends DrudleProcess {
+    private final Queue<DrudleRuleResult> waiting = new ArrayDeque<>();
+
+    Sequential(RuleIndex ruleIndex, long rulesVersion, SolvedCache solvedCache, SolveLimits limits) {
+      super(ruleIndex, rulesVersion, solvedCache, limits);
+    }
+
+    @Override
+    protected void runQueue(String drudle) {
+      addToWaitingQueue(drudle);
+      while (!waiting.isEmpty() && !limitReached()) {
+        process(waiting.poll());
+      }
+    }
+
+    @Override
+    protected void addWaiting(DrudleRuleResult result) {
+      waiting.add(result);
+      waitingGrew(waiting.size());
+    }
+
+    @Override
+    protected List<DrudleRuleResultSolved> fulfill(
+        DrudleRuleResult current, int part, DrudleRuleResult solution) {
+      var ret = current.fulfillLatest(part, solution);
+      return ret == null ? List.of() : List.of(ret);
+    }
+  }
+
+  /**
+   * Works off the queue by {@link Scoring cost} on the calling thread. Every item is queued with a
+   * lower bound of the cost of the results built from it, but never below the item that is worked
+   * off, so the items are worked off in ascending order and the results of the drudle are found
+   * cheapest first. The search stops as soon as {@link SolveLimits#maxResults()} results are found,
+   * those are the cheapest ones.
+   */
+  static final class BestFirst extends DrudleProcess {
+
+    /** A queued item, items with equal priorities are worked off in the order they were queued. */
+    private record Waiting(DrudleRuleResult result, double priority, long order) {}
+
+    private final PriorityQueue<Waiting> waiting =
+        new PriorityQueue<>(
+            Comparator.comparingDouble(Waiting::priority).thenComparingLong(Waiting::order));
+
+    private final Scoring scoring;
+
+    /** Cost of the cheapest queued derivation of each result. */
+    private final Map<DrudleRuleResultSolved, Double> cheapest = new HashMap<>();
+
+    /** The results of the drudle, cheapest first. */
+    private final Set<DrudleRuleResult> found = new LinkedHashSet<>();
+
+    /** Priority of the item that is worked off. */
+    private double current;
+
+    private long queued;
+
+    BestFirst(
+        RuleIndex ruleIndex,
+        long rulesVersion,
+        SolvedCache solvedCache,
+        SolveLimits limits,
+        Scoring.Weights weights) {
+      super(ruleIndex, rulesVersion, solvedCache, limits);
+      this.scoring = new Scoring(ruleIndex, weights);
+    }
+
+    @Override
+    public Truncation run(String drudle, ResultListener listener) {
+      return super.run(
+          drudle,
+          new ResultListener() {
+            @Override
+            public boolean onResult(DrudleRuleResult result) {
+              found.add(result);
+              return listener.onResult(result);
+            }
+
+            @Override
+            public boolean isCancelled() {
+              return listener.isCancelled();
+            }
+          });
+    }
+
+    @Override
+    protected void runQueue(String drudle) {
+      addToWaitingQueue(drudle);
+      while (!waiting.isEmpty() && !limitReached()) {
+        var next = waiting.poll();
+        current = next.priority();
+        process(next.result());
+        if (found.size() >= limits.maxResults()) {
+          // everything still queued costs at least as much as the results found
+          if (!waiting.isEmpty()) stop(Truncation.RESULTS);
+          return;
+        }
+      }
+    }
+
+    @Override
+    protected void addWaiting(DrudleRuleResult result) {
+      waiting.add(new Waiting(result, Math.max(current, scoring.bound(result)), queued++));
+      waitingGrew(waiting.size());
+    }
+
+    /** A cheaper derivation of a known result is queued again, it is worked off first. */
+    @Override
+    protected boolean intern(DrudleRuleResultSolved result) {
+      double cost = scoring.cost(result);
+      var known = cheapest.get(result);
+      if (known != null && known <= cost) return false;
+      cheapest.put(result, cost);
+      return true;
+    }
+
+    @Override
+    public Set<DrudleRuleResult> getResults() {
+      return found;
+    }
+  }
+
+  /**
+   * Processes every queue item as its own task of a {@link ForkJoinPool}. New items are forked from
+   * the worker that found them, idle workers steal them, so independent parts are solved at the
+   * same time.
+   */
+  static final class Parallel extends DrudleProcess {
+    private final ForkJoinPool pool;
+
+    /** Number of submitted tasks that have not finished yet. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    Parallel(
+        RuleIndex ruleIndex,
+        long rulesVersion,
+        SolvedCache solvedCache,
+        SolveLimits limits,
+        ForkJoinPool pool) {
+      super(ruleIndex, rulesVersion, solvedCache, limits);
+      this.pool = pool;
+    }
+
+    @Override
+    protected void runQueue(String drudle) {
+      submit(() -> addToWaitingQueue(drudle));
+      try {
+        done.get(Math.max(remainingNanos(), 0), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        stop(Truncation.TIME);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stop(Truncation.TIME);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+      // once stopped, the remaining tasks end without work, wait for them to leave the state alone
+      done.join();
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+    }
+
+    @Override
+    protected void addWaiting(DrudleRuleResult result) {
+      submit(
+          () -> {
+            if (!limitReached()) {
+              process(result);
+            }
+          });
+    }
+
+    /** A failed task ends the search, the remaining tasks end without work. */
+    @Override
+    protected boolean limitReached() {
+      return failure.get() != null || super.limitReached();
+    }
+
+    private void submit(Runnable task) {
+      waitingGrew(pending.incrementAndGet());
+      pool.execute(
+          () -> {
+            try {
+              task.run();
+            } catch (RuntimeException e) {
+              // rethrown by runQueue, the search did not stop at a limit
+              failure.compareAndSet(null, e);
+            } finally {
+              if (pending.decrementAndGet() == 0) {
+                done.complete(null);
+              }
+            }
+          });
+    }
+  }
+}
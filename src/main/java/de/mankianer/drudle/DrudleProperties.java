@@ -0,0 +1,188 @@
+package de.mankianer.drudle;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/** Settings of the drudle engine, bound from the {@code drudle.*} properties. */
+@Data
+@ConfigurationProperties("drudle")
+public class DrudleProperties {
+
+  private final Cache cache = new Cache();
+  private final Limits limits = new Limits();
+  private final Engine engine = new Engine();
+  private final Batch batch = new Batch();
+  private final Rules rules = new Rules();
+  private final Admission admission = new Admission();
+  private final Index index = new Index();
+  private final Render render = new Render();
+
+  @Data
+  public static class Cache {
+    /** Maximum number of solved substrings kept between requests, 0 disables the cache. */
+    private int maxEntries = 10_000;
+
+    /**
+     * Maximum weight of the cached results: the chars they hold plus a fixed weight per result of
+     * their derivations, see {@link SolvedCache}.
+     */
+    private long maxWeight = 20_000_000;
+
+    /** Cache of the rendered responses, see {@link ResponseCache}. */
+    private final Response response = new Response();
+
+    @Data
+    public static class Response {
+      /** Maximum number of cached responses, 0 disables the cache. */
+      private int maxEntries = 10_000;
+
+      /** Maximum number of bytes the cached responses may hold, plain and gzipped. */
+      private long maxBytes = 64 * 1024 * 1024;
+
+      /** Time clients may use a response without asking again, sent as Cache-Control max-age. */
+      private Duration maxAge = Duration.ofMinutes(5);
+    }
+  }
+
+  /** Default limits of a request, requests may only lower them. */
+  @Data
+  public static class Limits {
+    /** Maximum number of queue items processed per request. */
+    private int maxSteps = 1_000_000;
+
+    /** Maximum wall-clock time per request. */
+    private Duration maxDuration = Duration.ofSeconds(10);
+
+    /** Maximum number of rules applied on top of each other. */
+    private int maxDepth = 32;
+
+    /** Maximum number of results per request. */
+    private int maxResults = 1_000;
+
+    SolveLimits toSolveLimits() {
+      return new SolveLimits(maxSteps, maxDuration, maxDepth, maxResults);
+    }
+  }
+
+  @Data
+  public static class Engine {
+    public enum Mode {
+      /**
+       * Solves a request on its own thread, a result combines the latest solution of each of its
+       * parts. The solutions of a part depend on the drudle it is a part of, so only whole drudles
+       * are cached, no parts.
+       */
+      SEQUENTIAL,
+      /**
+       * Solves the independent parts of a request on a shared fork-join pool, a result combines
+       * every solution of each of its parts, like all modes below.
+       */
+      PARALLEL,
+      /**
+       * Solves a request on its own thread on index spans of the drudle instead of substrings, see
+       * {@link ChartProcess}.
+       */
+      CHART,
+      /**
+       * Solves a request on its own thread, cheapest derivations first, and stops once the {@code
+       * maxResults} cheapest results are known, see {@link DrudleProcess.BestFirst}.
+       */
+      BEST_FIRST
+    }
+
+    private Mode mode = Mode.SEQUENTIAL;
+
+    /** Number of workers of the parallel engine. */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** Cost of the results of the best-first engine, see {@link Scoring}. */
+    private final BestFirst bestFirst = new BestFirst();
+
+    @Data
+    public static class BestFirst {
+      /**
+       * Cost per level of the derivation tree, on top of the weights of the rules, which default
+       * to 1.
+       */
+      private double depth = 0.5;
+
+      /** Cost per char of the drudle that no rule solved. */
+      private double remainder = 0.25;
+
+      Scoring.Weights toWeights() {
+        return new Scoring.Weights(depth, remainder);
+      }
+    }
+  }
+
+  @Data
+  public static class Rules {
+    /**
+     * Load the rules from the rule bundle the build compiles from the YAML files. Without a bundle,
+     * or if disabled, the YAML files are parsed on startup.
+     */
+    private boolean bundle = true;
+
+    /**
+     * Directory to load the YAML rule files from instead of the classpath, so rules can be changed
+     * without a new build. Unset to use the rules of the classpath.
+     */
+    private Path directory;
+
+    /** Reload the rules whenever a YAML file in the {@link #directory} changes. */
+    private boolean watch = true;
+
+    /**
+     * Refuse to load rules that can hand their whole input on as a part of their output, see {@link
+     * RuleFacts}. Otherwise such rules are loaded with a warning and only applied to shorter parts.
+     */
+    private boolean rejectGrowthCycles;
+  }
+
+  /** Admission control of the solves, see {@link SolveGate}. */
+  @Data
+  public static class Admission {
+    /**
+     * Maximum number of solves running at once. Below the number of cores by default, so the
+     * other endpoints keep a carrier thread.
+     */
+    private int maxConcurrent = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /** Maximum number of solves waiting for a free slot, further requests are rejected. */
+    private int maxQueued = 64;
+
+    /** Maximum time a solve waits for a free slot before it is rejected. */
+    private Duration maxWait = Duration.ofSeconds(5);
+
+    /** Retry-After of a rejected request. */
+    private Duration retryAfter = Duration.ofSeconds(1);
+  }
+
+  /** Precomputed solutions, see {@link SolutionIndex}. */
+  @Data
+  public static class Index {
+    /**
+     * Solution index file (Gradle task {@code precompute}) to answer the drudles and substrings it
+     * holds from, unset to solve everything live. An index of other rules is not used.
+     */
+    private Path file;
+  }
+
+  @Data
+  public static class Batch {
+    /** Maximum number of drudles per batch request. */
+    private int maxItems = 1_000;
+  }
+
+  /** Html of {@code GET /drudle/{drudle}}, see {@link OutputRenderer}. */
+  @Data
+  public static class Render {
+    /**
+     * Send the compact page, with the style and script only once, instead of the full page that
+     * repeats them for every result.
+     */
+    private boolean compactPage = false;
+  }
+}
@@ -15,4 +15,15 @@ public interface DrudleRule {
 
     public String getName();
     public default String getDescription() { return ""; }
+
+    /**
+     * @return the file the rule was loaded from, empty if it was not loaded from a file
+     */
+    public default String getSource() { return ""; }
+
+    /**
+     * @return the cost of applying the rule in a derivation, see {@link Scoring}, 1 unless the rule
+     *     tells otherwise
+     */
+    public default double getWeight() { return 1; }
 }
@@ -1,32 +1,62 @@
 package de.mankianer.drudle;
 
-import static java.util.stream.Collectors.toMap;
-
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Function;
 import lombok.Getter;
 
 public class DrudleRuleResult {
+  /** Rule name of results that keep a part as it is, see {@link DrudleRuleResultSolved#DrudleRuleResultSolved(String)}. */
+  public static final String NO_RULE = "NoRule";
+
   @Getter private final String ruleName;
   @Getter private final String input;
-  @Getter private final String output;
-  @Getter
-  protected List<DrudleRuleResult> previousResults;
+  private final String output;
 
-  /** List of parts that matched the input string */
+  /** List of parts that matched the input string, null if the parts are given by offsets */
   private final List<String> matchingParts;
 
-  /** List of parts that are used to generate the output string */
+  /** List of parts that are used to generate the output string, null if the parts are given by offsets */
   private final List<String> usedParts;
 
-  private final Map<String, String> fulfilledParts;
+  /** Distinct used parts, the order of the parts of the solved results. Null if the parts are given by offsets. */
+  private final List<String> distinctParts;
+
+  /**
+   * Boundaries in the input of the parts that matched the input, see {@link MatchSplit#bounds()}.
+   * Null if the parts are given as strings.
+   */
+  private final int[] bounds;
+
+  /** Start index in the input of each distinct used part, null if the rule does not tell. */
+  private final int[] partStarts;
+
+  /** End index (exclusive) in the input of each distinct used part, null if the parts are given as strings. */
+  private final int[] partEnds;
+
+  /** Output of the rule with slots for the parts, null if the output is built by a function. */
+  private final OutputTemplate template;
+
+  /** Index of the distinct used part of each slot of the {@link #template}. */
+  private final int[] slotToPart;
 
-  /** Map of functions to fulfill the used parts of the rule. Functions returns <br>null: if function is unsolved<br>DrudleRuleResult: if all functions are solved*/
-  @Getter
-  private final Map<String, Function<DrudleRuleResult, DrudleRuleResultSolved>> usedPartsFulfillmentConsumerMap;
+  /** Builds the output from the outputs of the parts, null if there is a {@link #template}. */
+  private final Function<Map<String, String>, String> loadOutput;
+
+  /**
+   * Solutions received for each distinct used part, in arrival order, or only the latest one, see
+   * {@link #fulfillLatest(int, DrudleRuleResult)}. Only allocated when the first solution arrives,
+   * most results never get one. Guarded by this.
+   */
+  private List<DrudleRuleResultSolved>[] fulfilledParts;
+
+  /** Number of distinct used parts with at least one solution. Guarded by this. */
+  private int fulfilledCount;
 
   /**
    * Constructor for an unsolved DrudleRuleResult. The output is generated when all used parts are
@@ -34,7 +64,7 @@ public class DrudleRuleResult {
    *
    * @param ruleName the name of the rule
    * @param input the input string
-   * @param matchingParts the parts that matched the input string
+   * @param matchingParts the parts that matched the input string, in the order they matched
    * @param usedParts the parts that would be used to generate the output string
    * @param loadOutput a function that takes a map of fulfilled parts and returns the output string
    */
@@ -44,13 +74,68 @@ public class DrudleRuleResult {
       List<String> matchingParts,
       List<String> usedParts,
       Function<Map<String, String>, String> loadOutput) {
+    this(
+        ruleName,
+        input,
+        matchingParts,
+        usedParts,
+        usedParts.stream().distinct().toList(),
+        null,
+        null,
+        null,
+        null,
+        null,
+        loadOutput);
+  }
+
+  /**
+   * Constructor for an unsolved DrudleRuleResult of a rule with an {@link OutputTemplate}. The parts
+   * are kept as offsets into the input instead of substrings. Solved results reference the template
+   * and their part results, their output is only built when it is asked for.
+   *
+   * @param ruleName the name of the rule
+   * @param input the input string
+   * @param bounds the boundaries of the parts that matched the input, see {@link MatchSplit#bounds()}
+   * @param partStarts start index in the input of each distinct used part
+   * @param partEnds end index (exclusive) in the input of each distinct used part
+   * @param template the output of the rule
+   * @param slotToPart index of the distinct used part of each slot of the template
+   */
+  DrudleRuleResult(
+      String ruleName,
+      String input,
+      int[] bounds,
+      int[] partStarts,
+      int[] partEnds,
+      OutputTemplate template,
+      int[] slotToPart) {
+    this(ruleName, input, null, null, null, bounds, partStarts, partEnds, template, slotToPart, null);
+  }
+
+  private DrudleRuleResult(
+      String ruleName,
+      String input,
+      List<String> matchingParts,
+      List<String> usedParts,
+      List<String> distinctParts,
+      int[] bounds,
+      int[] partStarts,
+      int[] partEnds,
+      OutputTemplate template,
+      int[] slotToPart,
+      Function<Map<String, String>, String> loadOutput) {
     this.ruleName = ruleName;
     this.input = input;
     this.output = null;
     this.matchingParts = matchingParts;
     this.usedParts = usedParts;
-    fulfilledParts = new HashMap<>();
-    usedPartsFulfillmentConsumerMap = getUsedPartsFulfillmentConsumerMap(loadOutput);
+    this.distinctParts = distinctParts;
+    this.bounds = bounds;
+    this.partStarts = partStarts;
+    this.partEnds = partEnds;
+    this.template = template;
+    this.slotToPart = slotToPart;
+    this.loadOutput = loadOutput;
   }
 
   private DrudleRuleResult(
@@ -58,75 +143,274 @@ public class DrudleRuleResult {
       String input,
       String output,
       List<String> matchingParts,
-      List<String> usedParts) {
+      List<String> usedParts,
+      int[] bounds,
+      int[] partStarts) {
     this.ruleName = ruleName;
     this.input = input;
     this.output = output;
     this.matchingParts = matchingParts;
     this.usedParts = usedParts;
-    fulfilledParts = Map.of();
-    usedPartsFulfillmentConsumerMap = Map.of();
+    this.distinctParts = null;
+    this.bounds = bounds;
+    this.partStarts = partStarts;
+    this.partEnds = null;
+    this.template = null;
+    this.slotToPart = null;
+    this.loadOutput = null;
+  }
+
+  /** @return the number of distinct used parts that wait for a solution, 0 for solved results */
+  public int getPartCount() {
+    if (distinctParts != null) return distinctParts.size();
+    return partEnds == null ? 0 : partEnds.length;
+  }
+
+  /**
+   * @param part index of a distinct used part
+   * @return the text of the part, a new substring of the input if the parts are given by offsets
+   */
+  public String getPart(int part) {
+    if (distinctParts != null) return distinctParts.get(part);
+    return input.substring(partStarts[part], partEnds[part]);
   }
 
   /**
-   * Returns a map of functions to fulfill the used parts of the rule. Each function takes a String
-   * value and returns a DrudleRuleResult if all parts are fulfilled, otherwise returns null.
+   * @param part index of a distinct used part
+   * @return the length of the part, without building its text
+   */
+  public int getPartLength(int part) {
+    if (distinctParts != null) return distinctParts.get(part).length();
+    return partEnds[part] - partStarts[part];
+  }
+
+  /** @return true if one of the used parts is the whole input, so the result would wait for itself */
+  public boolean usesWholeInput() {
+    for (int i = 0; i < getPartCount(); i++) {
+      if (getPartLength(i) == input.length()
+          && (distinctParts == null || distinctParts.get(i).equals(input))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a map of functions to fulfill the used parts of the rule. Functions return <br>
+   * null: if a part is unsolved<br>
+   * DrudleRuleResultSolved: the result of the latest solution of every part, see {@link
+   * #fulfillLatest(int, DrudleRuleResult)}<br>
+   * The map is a view built on every call, see {@link #fulfill(int, DrudleRuleResult)} to fulfill
+   * the parts by their index with every combination of their solutions.
    *
-   * @return
+   * @return the fulfillment function per distinct used part, in the order of the parts
    */
-  private Map<String, Function<DrudleRuleResult, DrudleRuleResultSolved>> getUsedPartsFulfillmentConsumerMap(
-      Function<Map<String, String>, String> loadOutput) {
-    return usedParts.stream()
-        .distinct()
-        .collect(
-            toMap(
-                part -> part,
-                part ->
-                    (DrudleRuleResult solved) -> {
-                      fulfilledParts.put(part, solved.getOutput());
-                      if (fulfilledParts.size() == usedParts.size()) {
-                          var previous = new ArrayList<>(solved.getPreviousResults());
-                          previous.add(this);
-                        return new DrudleRuleResultSolved(
-                            ruleName,
-                            input,
-                            loadOutput.apply(fulfilledParts),
-                            matchingParts,
-                            usedParts, previous);
-                      }
-                      return null;
-                    }));
+  public Map<String, Function<DrudleRuleResult, DrudleRuleResultSolved>> getUsedPartsFulfillmentConsumerMap() {
+    Map<String, Function<DrudleRuleResult, DrudleRuleResultSolved>> ret = new LinkedHashMap<>();
+    for (int i = 0; i < getPartCount(); i++) {
+      int part = i;
+      ret.put(getPart(i), solved -> fulfillLatest(part, solved));
+    }
+    return ret;
+  }
+
+  /** Solutions of parts are solved results, also the empty solution of an empty part. */
+  private static DrudleRuleResultSolved asSolved(DrudleRuleResult solved) {
+    return solved instanceof DrudleRuleResultSolved ret ? ret : solved.getSolvedResult();
+  }
+
+  /**
+   * Adds a solution for a part. Every combination of part solutions is returned exactly once, by
+   * the call that adds its last solution, so the results do not depend on the order (or the
+   * threads) the solutions arrive in.
+   *
+   * @param part index of the distinct used part, see {@link #getPartCount()}
+   * @param solution a solved result of the part
+   * @return the results that are solved with the new solution, empty as long as a part is unsolved
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized List<DrudleRuleResultSolved> fulfill(int part, DrudleRuleResult solution) {
+    int partCount = getPartCount();
+    if (fulfilledParts == null) {
+      fulfilledParts = new List[partCount];
+    }
+    if (fulfilledParts[part] == null) {
+      fulfilledParts[part] = new ArrayList<>(2);
+      fulfilledCount++;
+    }
+    fulfilledParts[part].add(asSolved(solution));
+    if (fulfilledCount < partCount) {
+      return List.of();
+    }
+    // index of the solution per part, the new solution is fixed for its own part
+    int[] chosen = new int[partCount];
+    chosen[part] = fulfilledParts[part].size() - 1;
+    List<DrudleRuleResultSolved> ret = new ArrayList<>();
+    while (true) {
+      var parts = new DrudleRuleResultSolved[partCount];
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = fulfilledParts[i].get(chosen[i]);
+      }
+      ret.add(new DrudleRuleResultSolved(this, loadOutput == null ? null : loadOutput(parts), parts));
+      // next combination of the other parts
+      int i = 0;
+      while (i < parts.length && (i == part || ++chosen[i] == fulfilledParts[i].size())) {
+        if (i != part) chosen[i] = 0;
+        i++;
+      }
+      if (i == parts.length) {
+        return ret;
+      }
+    }
+  }
+
+  /**
+   * Sets the solution of a part, replacing the solution it had. Once every part has a solution,
+   * every call returns the result of the latest solution of every part. Replaced solutions are not
+   * combined again, so the results depend on the order the solutions arrive in.
+   *
+   * @param part index of the distinct used part, see {@link #getPartCount()}
+   * @param solution a solved result of the part
+   * @return the result solved with the latest solutions, null as long as a part is unsolved
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized DrudleRuleResultSolved fulfillLatest(int part, DrudleRuleResult solution) {
+    int partCount = getPartCount();
+    if (fulfilledParts == null) {
+      fulfilledParts = new List[partCount];
+    }
+    if (fulfilledParts[part] == null) {
+      fulfilledParts[part] = new ArrayList<>(1);
+      fulfilledCount++;
+    }
+    fulfilledParts[part].clear();
+    fulfilledParts[part].add(asSolved(solution));
+    if (fulfilledCount < partCount) {
+      return null;
+    }
+    var parts = new DrudleRuleResultSolved[partCount];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = fulfilledParts[i].getLast();
+    }
+    return new DrudleRuleResultSolved(this, loadOutput == null ? null : loadOutput(parts), parts);
+  }
+
+  private String loadOutput(DrudleRuleResultSolved[] parts) {
+    Map<String, String> outputs = new HashMap<>();
+    for (int i = 0; i < parts.length; i++) {
+      outputs.put(distinctParts.get(i), parts[i].getOutput());
+    }
+    return loadOutput.apply(outputs);
+  }
+
+  /**
+   * @return the output, null as long as the result is unsolved
+   */
+  public String getOutput() {
+    return output;
+  }
+
+  /**
+   * @return the length of the output, 0 as long as the result is unsolved
+   */
+  public int getOutputLength() {
+    return output == null ? 0 : output.length();
+  }
+
+  /**
+   * @return the unsolved results of the rules used to get this result, in the order they were
+   *     applied, empty as long as the result is unsolved
+   */
+  public List<DrudleRuleResult> getPreviousResults() {
+    return List.of();
+  }
+
+  /**
+   * @return true if this result keeps its input as it is, without applying a rule
+   */
+  public boolean isUnsolvedValue() {
+    return NO_RULE.equals(ruleName);
   }
 
   public boolean isSolved() {
-    return output != null && !output.isEmpty();
+    return getOutputLength() > 0;
   }
 
   public DrudleRuleResultSolved getSolvedResult() {
     if (isSolved()) {
       return new DrudleRuleResultSolved(
-          ruleName, input, output, matchingParts, usedParts, previousResults == null ? List.of() : previousResults);
+          ruleName, input, output, matchingParts, usedParts, getPreviousResults());
     }
     return null;
   }
 
+  /**
+   * Checks that the rule used at least one part and that the parts that matched the input cover
+   * every character of the input exactly once, in the order they matched. Compares lengths and
+   * offsets only, no regex, in one pass over the parts.
+   *
+   * @return true if the result is valid
+   */
   public boolean isValid() {
     if (ruleName == null || ruleName.isEmpty()) return false;
     if (input == null || input.isEmpty()) return false;
+    if (bounds != null) {
+      return partStarts != null && partStarts.length > 0 && coversInput(bounds);
+    }
+    if (matchingParts == null && usedParts == null) {
+      // built from the results of its parts, or keeps its input as it is
+      return true;
+    }
     if (usedParts == null || usedParts.isEmpty()) return false;
     if (matchingParts == null || matchingParts.isEmpty()) return false;
     if (matchingParts.size() < usedParts.size()) return false;
-    // Check if all characters from input are used in matching parts
-    var o = input;
-    matchingParts.sort((a, b) -> b.length() - a.length());
+    int position = 0;
     for (String part : matchingParts) {
-      if (part == null || o.length() < part.length()) return false;
-      o = o.replaceFirst(part, "");
+      if (part == null || !input.startsWith(part, position)) return false;
+      position += part.length();
     }
-    return o.isEmpty();
+    return position == input.length();
   }
 
+  /** @return true if the bounds start at 0, do not decrease and end at the end of the input */
+  private boolean coversInput(int[] bounds) {
+    if (bounds.length < 2 || bounds[0] != 0 || bounds[bounds.length - 1] != input.length()) {
+      return false;
+    }
+    for (int i = 1; i < bounds.length; i++) {
+      if (bounds[i] < bounds[i - 1]) return false;
+    }
+    return true;
+  }
+
+  /**
+   * A solved result. Two solved results are equal if they have the same rule, input and output, no
+   * matter which derivation produced them.<br>
+   * Solved results form a DAG: a result references the results of its parts instead of a copy of
+   * their output and trace. Both are only built when they are asked for.
+   */
   public static class DrudleRuleResultSolved extends DrudleRuleResult {
+    /** Output template of the rule, null if the output is known. */
+    private final OutputTemplate template;
+
+    private final int[] slotToPart;
+
+    /** Results of the distinct used parts. */
+    private final DrudleRuleResultSolved[] parts;
+
+    /** Trace given on creation, null if it is built from the {@link #parts}. */
+    private final List<DrudleRuleResult> previousResults;
+
+    private final int outputLength;
+
+    /**
+     * {@link String#hashCode()} of the output, computed once from the hashes of the parts, so
+     * hashing a result never walks its derivation.
+     */
+    private final int outputHash;
+
+    private final int hash;
+
     protected DrudleRuleResultSolved(
         String ruleName,
         String input,
@@ -134,14 +418,222 @@ public class DrudleRuleResult {
         List<String> matchingParts,
         List<String> usedParts,
         List<DrudleRuleResult> previousResults) {
-      super(ruleName, input, output, matchingParts, usedParts);
-        this.previousResults = List.copyOf(previousResults);
+      super(ruleName, input, output, matchingParts, usedParts, null, null);
+      this.template = null;
+      this.slotToPart = null;
+      this.parts = new DrudleRuleResultSolved[0];
+      this.previousResults = List.copyOf(previousResults);
+      this.outputLength = output.length();
+      this.outputHash = output.hashCode();
+      this.hash = hash(ruleName, input, outputHash);
     }
 
     public DrudleRuleResultSolved(String unsolvedValue) {
-        super("NoRule", unsolvedValue, unsolvedValue, List.of(unsolvedValue), List.of(unsolvedValue));
-        this.previousResults = List.of();
+      super(NO_RULE, unsolvedValue, unsolvedValue, null, null, null, null);
+      this.template = null;
+      this.slotToPart = null;
+      this.parts = new DrudleRuleResultSolved[0];
+      this.previousResults = List.of();
+      this.outputLength = unsolvedValue.length();
+      this.outputHash = unsolvedValue.hashCode();
+      this.hash = hash(NO_RULE, unsolvedValue, outputHash);
     }
 
+    /**
+     * @param source the unsolved result
+     * @param output the output, null to build it from the template of the source
+     * @param parts the results of the distinct used parts of the source
+     */
+    private DrudleRuleResultSolved(
+        DrudleRuleResult source, String output, DrudleRuleResultSolved[] parts) {
+      super(
+          source.ruleName,
+          source.input,
+          output,
+          source.matchingParts,
+          source.usedParts,
+          source.bounds,
+          source.partStarts);
+      this.template = output == null ? source.template : null;
+      this.slotToPart = source.slotToPart;
+      this.parts = parts;
+      this.previousResults = null;
+      if (template != null) {
+        this.outputLength = template.length(parts, slotToPart);
+        this.outputHash = template.hash(parts, slotToPart);
+      } else {
+        this.outputLength = output.length();
+        this.outputHash = output.hashCode();
+      }
+      this.hash = hash(source.ruleName, source.input, outputHash);
+    }
+
+    /**
+     * Creates the result of a rule with an output template from the results of its parts, for
+     * engines that do not keep the parts as strings, e.g. the {@link ChartProcess}.
+     *
+     * @param ruleName the name of the rule
+     * @param input the input string
+     * @param template the output of the rule
+     * @param slotToPart index of the part of each slot of the template
+     * @param partStarts start index in the input of each part
+     * @param parts the results of the distinct used parts
+     */
+    DrudleRuleResultSolved(
+        String ruleName,
+        String input,
+        OutputTemplate template,
+        int[] slotToPart,
+        int[] partStarts,
+        DrudleRuleResultSolved[] parts) {
+      super(ruleName, input, (String) null, null, null, null, partStarts);
+      this.template = template;
+      this.slotToPart = slotToPart;
+      this.parts = parts;
+      this.previousResults = null;
+      this.outputLength = template.length(parts, slotToPart);
+      this.outputHash = template.hash(parts, slotToPart);
+      this.hash = hash(ruleName, input, outputHash);
+    }
+
+    /**
+     * Creates a result with a known output from the results of its parts, e.g. of a {@link
+     * SolutionIndex}.
+     *
+     * @param ruleName the name of the rule
+     * @param input the input string
+     * @param output the output
+     * @param partStarts start index in the input of each part, null if unknown
+     * @param parts the results of the distinct used parts
+     */
+    DrudleRuleResultSolved(
+        String ruleName,
+        String input,
+        String output,
+        int[] partStarts,
+        DrudleRuleResultSolved[] parts) {
+      super(ruleName, input, output, null, null, null, partStarts);
+      this.template = null;
+      this.slotToPart = null;
+      this.parts = parts;
+      this.previousResults = null;
+      this.outputLength = output.length();
+      this.outputHash = output.hashCode();
+      this.hash = hash(ruleName, input, outputHash);
+    }
+
+    @Override
+    public String getOutput() {
+      if (template == null) {
+        return super.getOutput();
+      }
+      var sb = new StringBuilder(outputLength);
+      appendOutput(sb);
+      return sb.toString();
+    }
+
+    @Override
+    public int getOutputLength() {
+      return outputLength;
+    }
+
+    /** Appends the output, without building the output of the parts on their own. */
+    void appendOutput(StringBuilder sb) {
+      if (template == null) {
+        sb.append(super.getOutput());
+      } else {
+        template.appendTo(sb, parts, slotToPart);
+      }
+    }
+
+    /**
+     * @return the results of the distinct used parts, the children of this result in its
+     *     derivation, empty if the result was not built from the results of its parts
+     */
+    List<DrudleRuleResultSolved> getParts() {
+      return List.of(parts);
+    }
+
+    /**
+     * @return the results this result keeps alive: the results of its parts, or the trace it was
+     *     created with
+     */
+    List<? extends DrudleRuleResult> getRetained() {
+      return previousResults != null ? previousResults : List.of(parts);
+    }
+
+    /**
+     * @param part index of a part in {@link #getParts()}
+     * @return the start index of the part in the input, -1 if it is unknown, e.g. because the part
+     *     is no substring of the input
+     */
+    int getPartStart(int part) {
+      int[] starts = ((DrudleRuleResult) this).partStarts;
+      return starts == null ? -1 : starts[part];
+    }
+
+    /** @return the output template of the rule, null if the output is known */
+    OutputTemplate getTemplate() {
+      return template;
+    }
+
+    /** @return the index in {@link #getParts()} of each slot of the {@link #getTemplate()} */
+    int[] getSlotToPart() {
+      return slotToPart;
+    }
+
+    /** @return the {@link String#hashCode()} of the output, without building it */
+    int outputHash() {
+      return outputHash;
+    }
+
+    @Override
+    public List<DrudleRuleResult> getPreviousResults() {
+      if (previousResults != null) {
+        return previousResults;
+      }
+      List<DrudleRuleResult> ret = new ArrayList<>();
+      for (var part : parts) {
+        ret.addAll(part.getPreviousResults());
+      }
+      ret.add(this);
+      return ret;
+    }
+
+    @Override
+    public DrudleRuleResultSolved getSolvedResult() {
+      return isSolved() ? this : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof DrudleRuleResultSolved other)) return false;
+      return hashCode() == other.hashCode()
+          && outputLength == other.outputLength
+          && getRuleName().equals(other.getRuleName())
+          && getInput().equals(other.getInput())
+          && outputEquals(other);
+    }
+
+    private boolean outputEquals(DrudleRuleResultSolved other) {
+      // same template filled with equal parts, e.g. the same derivation found in another order
+      if (template != null
+          && template == other.template
+          && Arrays.equals(slotToPart, other.slotToPart)
+          && Arrays.equals(parts, other.parts)) {
+        return true;
+      }
+      return getOutput().equals(other.getOutput());
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    private static int hash(String ruleName, String input, int outputHash) {
+      return Objects.hash(ruleName, input, outputHash);
+    }
   }
 }
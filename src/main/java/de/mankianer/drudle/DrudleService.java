@@ -1,7 +1,81 @@
 package de.mankianer.drudle;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
 public interface DrudleService {
+    /**
+     * Solves the drudle within the default {@link SolveLimits}.
+     *
+     * @param drudle the input drudle string
+     * @return the results found, possibly only a part of all results if a limit was hit
+     */
     public Set<DrudleRuleResult> processDrudle(String drudle);
+
+    /**
+     * Solves the drudle within the given limits.
+     *
+     * @param drudle the input drudle string
+     * @param limits the limits of the search
+     * @return the results found and whether a limit stopped the search
+     */
+    public SolveResult processDrudle(String drudle, SolveLimits limits);
+
+    /**
+     * Solves the drudle within the given limits and hands every result to the listener as soon as it
+     * is found.
+     *
+     * @param drudle the input drudle string
+     * @param limits the limits of the search
+     * @param listener receives the results and may cancel the search
+     * @return the results found and whether a limit or the listener stopped the search
+     */
+    public SolveResult processDrudle(String drudle, SolveLimits limits, ResultListener listener);
+
+    /**
+     * Finds the cheapest results of the drudle first, see {@link Scoring}, and stops as soon as the
+     * {@code count} cheapest ones are known. The search shares no solved parts with other requests,
+     * so the results come in the same order every time, and the results of a smaller count are the
+     * first results of a larger one.
+     *
+     * @param drudle the input drudle string
+     * @param limits the limits of the search
+     * @param count the number of results to find, at most {@link SolveLimits#maxResults()} are found
+     * @param listener receives the results, cheapest first, and may cancel the search
+     * @return the results found, cheapest first, truncated by {@link
+     *     SolveResult.Truncation#RESULTS} if the search stopped before it found every result
+     */
+    public SolveResult processDrudleCheapest(String drudle, SolveLimits limits, int count, ResultListener listener);
+
+    /**
+     * Solves all drudles in one engine session, so substrings several drudles share are solved only
+     * once. The limits apply to each drudle on its own, a drudle that fails does not stop the others.
+     *
+     * @param drudles the input drudle strings
+     * @param limits the limits of the search for each drudle
+     * @return one item per drudle, in the order of the drudles
+     * @throws IllegalArgumentException if there are more drudles than {@code drudle.batch.max-items}
+     */
+    public List<BatchItem> processBatch(List<String> drudles, SolveLimits limits);
+
+    /**
+     * @return the limits configured via {@code drudle.limits.*}
+     */
+    public SolveLimits getDefaultLimits();
+
+    /**
+     * @return the version and size of the rules drudles are currently solved with
+     */
+    public RuleSetInfo getRuleSetInfo();
+
+    /**
+     * Loads the rules again and swaps them in once they are loaded. Requests that are running finish
+     * with the rules they started with, results cached for the old rules are not used anymore.
+     *
+     * @return the version and size of the loaded rules
+     * @throws IOException if a rule file can not be read
+     * @throws IllegalArgumentException if a rule is invalid, the current rules are kept
+     */
+    public RuleSetInfo reloadRules() throws IOException;
 }
@@ -1,17 +1,23 @@
 package de.mankianer.drudle;
 
-import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import de.mankianer.drudle.SolveResult.Truncation;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
 import java.util.*;
-import java.util.function.BiConsumer;
-import java.util.function.Consumer;
-import java.util.function.Function;
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.boot.env.YamlPropertySourceLoader;
-import org.springframework.core.env.PropertySource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Service;
@@ -20,150 +26,400 @@ import org.springframework.stereotype.Service;
 @Service
 class DrudleServiceImpl implements DrudleService {
 
-  private final List<DrudleRule> rules = new ArrayList<>();
+  /** The current rules, replaced as a whole whenever rules are added or reloaded. */
+  private final AtomicReference<RuleSet> ruleSet = new AtomicReference<>(RuleSet.EMPTY);
 
+  /** Solved substrings shared between requests. */
+  private final SolvedCache solvedCache;
+
+  @Getter private final SolveLimits defaultLimits;
+
+  /** Maximum number of drudles of a batch. */
+  private final int maxBatchItems;
+
+  /** Workers of the parallel engine, null if another engine is used. */
+  private final ForkJoinPool pool;
+
+  private final DrudleProperties.Engine.Mode mode;
+
+  /** Cost of the results of the best-first engine. */
+  private final Scoring.Weights weights;
+
+  private final DrudleMetrics metrics;
+
+  /** Load the rules from the {@link RuleBundle} if there is one. */
+  private final boolean useRuleBundle;
+
+  /** Directory to load the rules from instead of the classpath, null to use the classpath. */
+  private final Path rulesDirectory;
+
+  private final boolean watchRulesDirectory;
+
+  /** Refuse rules that are growth cycles instead of bounding them. */
+  private final boolean rejectGrowthCycles;
+
+  /** Precomputed solutions to open for the rules, null to solve everything live. */
+  private final Path solutionIndexFile;
+
+  /** Precomputed solutions of the current rules, null if there are none. */
+  private volatile SolutionIndex solutionIndex;
+
+  /** Watches {@link #rulesDirectory}, null if it is not watched. */
+  private RuleDirectoryWatcher watcher;
+
+  DrudleServiceImpl() {
+    this(new DrudleProperties());
+  }
+
+  DrudleServiceImpl(DrudleProperties properties) {
+    this(properties, DrudleMetrics.NONE);
+  }
+
+  @Autowired
+  DrudleServiceImpl(DrudleProperties properties, MeterRegistry meterRegistry) {
+    this(properties, new DrudleMetrics(meterRegistry, properties.getEngine().getMode().name()));
+  }
+
+  private DrudleServiceImpl(DrudleProperties properties, DrudleMetrics metrics) {
+    this.metrics = metrics;
+    solvedCache =
+        new SolvedCache(properties.getCache().getMaxEntries(), properties.getCache().getMaxWeight());
+    defaultLimits = properties.getLimits().toSolveLimits();
+    maxBatchItems = properties.getBatch().getMaxItems();
+    useRuleBundle = properties.getRules().isBundle();
+    rulesDirectory = properties.getRules().getDirectory();
+    watchRulesDirectory = properties.getRules().isWatch();
+    rejectGrowthCycles = properties.getRules().isRejectGrowthCycles();
+    solutionIndexFile = properties.getIndex().getFile();
+    var engine = properties.getEngine();
+    mode = engine.getMode();
+    weights = engine.getBestFirst().toWeights();
+    pool =
+        engine.getMode() == DrudleProperties.Engine.Mode.PARALLEL
+            ? new ForkJoinPool(engine.getParallelism())
+            : null;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        log.warn("Failed to stop watching {}", rulesDirectory, e);
+      }
+    }
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+
+  /** Loads the rules and starts watching the rules directory if one is configured. */
   @PostConstruct
-  private void init() throws IOException {
-    loadYamlRules();
+  void init() throws IOException {
+    reloadRules();
+    if (rulesDirectory != null && watchRulesDirectory) {
+      watcher = new RuleDirectoryWatcher(rulesDirectory, this::reloadRules);
+      log.info("Watching {} for rule changes", rulesDirectory);
+    }
+  }
+
+  /**
+   * Loads the rules again and swaps them in. Requests that are running keep solving with the rules
+   * they started with. Rules added with {@link #addRules} are dropped.
+   */
+  public synchronized RuleSetInfo reloadRules() throws IOException {
+    long start = System.nanoTime();
+    var rules = loadRules();
+    checkGrowthCycles(rules);
+    var next = ruleSet.updateAndGet(current -> current.next(rules, metrics));
+    log.info(
+        "Loaded {} rules as version {} in {} ms",
+        rules.size(),
+        next.version(),
+        (System.nanoTime() - start) / 1_000_000);
+    openSolutionIndex(next);
+    return next.info();
+  }
+
+  /** Opens the {@link SolutionIndex} for the rules, if there is one solved with these rules. */
+  private void openSolutionIndex(RuleSet rules) {
+    if (solutionIndexFile == null) return;
+    SolutionIndex index = null;
+    try {
+      index = SolutionIndex.open(solutionIndexFile, rules);
+      if (index == null) {
+        log.warn("Solution index {} was solved with other rules, solving live", solutionIndexFile);
+      } else {
+        log.info("Mapped {} precomputed drudles of {}", index.size(), solutionIndexFile);
+      }
+    } catch (IOException e) {
+      log.warn("Failed to open solution index {}, solving live", solutionIndexFile, e);
+    }
+    solutionIndex = index;
+  }
+
+  public RuleSetInfo getRuleSetInfo() {
+    return ruleSet.get().info();
   }
 
-  private void loadYamlRules() throws IOException {
+  /**
+   * Loads the rules of the rules directory if one is configured, otherwise of the {@link
+   * RuleBundle} the build compiled, or of {@code classpath:rules/*.yaml} if there is no bundle, e.g.
+   * when started from an IDE.
+   */
+  private List<RegexRule> loadRules() throws IOException {
+    if (rulesDirectory != null) {
+      try (var files = Files.list(rulesDirectory)) {
+        return loadYamlRules(
+            files
+                .filter(file -> YamlRules.isYaml(file.getFileName().toString()))
+                .sorted()
+                .map(FileSystemResource::new)
+                .toArray(Resource[]::new));
+      }
+    }
+    var bundle = new ClassPathResource(RuleBundle.LOCATION);
+    if (useRuleBundle && bundle.exists()) {
+      return RuleBundle.read(bundle);
+    }
     PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
-    Resource[] resources = resolver.getResources("classpath:rules/*.yaml");
+    return loadYamlRules(resolver.getResources(YamlRules.CLASSPATH_PATTERN));
+  }
+
+  private List<RegexRule> loadYamlRules(Resource[] resources) throws IOException {
+    List<RegexRule> ret = new ArrayList<>();
     for (Resource res : resources) {
-      loadYamlRule(res)
+      YamlRules.load(res)
           .forEach(
               (rule) -> {
-                log.info("Found Rule: {}", rule.getName());
-                rules.add(rule);
+                log.debug("Found Rule: {}", rule.getName());
+                ret.add(rule);
               });
     }
-    log.info("Loaded {} rules", rules.size());
+    return ret;
   }
 
-  private List<RegexRule> loadYamlRule(Resource resource) throws IOException {
-    YamlPropertySourceLoader loader = new YamlPropertySourceLoader();
-    List<PropertySource<?>> load = loader.load(resource.getFilename(), resource);
-    return load.stream()
-        .map(
-            (yp) -> {
-              return new RegexRule(
-                  resource.getFilename() + "-" + ((String) yp.getProperty("name")),
-                  (String) yp.getProperty("pattern"),
-                  (String) yp.getProperty("output"),
-                  (String) yp.getProperty("description"));
-            })
-        .toList();
+  synchronized void addRules(DrudleRule... rules) {
+    checkGrowthCycles(List.of(rules));
+    var next =
+        ruleSet.updateAndGet(
+            current -> {
+              List<DrudleRule> list = new ArrayList<>(current.rules());
+              list.addAll(List.of(rules));
+              return current.next(list, metrics);
+            });
+    openSolutionIndex(next);
   }
 
-  void addRules(DrudleRule... rules) {
-    this.rules.addAll(List.of(rules));
+  /** @return the current rules */
+  List<DrudleRule> getRules() {
+    return ruleSet.get().rules();
   }
 
-  public Set<DrudleRuleResult> processDrudle(String drudle) {
-    drudle = drudle.toLowerCase();
-    HashMap<String, Set<DrudleRuleResult>> solved = new HashMap<>();
-    Queue<DrudleRuleResult> waiting = new LinkedList<>();
-    HashMap<String, List<Consumer<DrudleRuleResult>>> waitingForSolving = new HashMap<>();
-    Process currentProcess = getProcess(waiting, solved, waitingForSolving);
-
-    var result = currentProcess.addToWaitingQueue(drudle);
-    if (!result) {
-      return Set.of();
-    }
-    while (!waiting.isEmpty()) {
-      DrudleRuleResult current = waiting.poll();
-      var currentSolved = current.getSolvedResult();
-      if (currentSolved != null) {
-        currentProcess.addToSolved(currentSolved);
-        continue;
+  /**
+   * Finds the rules that can hand their whole input on as a part, see {@link RuleFacts}.
+   *
+   * @throws IllegalArgumentException if there are any and they are rejected
+   */
+  private void checkGrowthCycles(List<? extends DrudleRule> rules) {
+    List<String> cycles = new ArrayList<>();
+    for (var rule : rules) {
+      if (rule instanceof RegexRule regexRule && regexRule.getFacts().growthCycle()) {
+        cycles.add(rule.getName());
       }
-      currentProcess.processUsedParts(current);
-    }
-
-    return solved.get(drudle);
-  }
-
-  private Process getProcess(
-      Queue<DrudleRuleResult> waiting,
-      HashMap<String, Set<DrudleRuleResult>> solved,
-      HashMap<String, List<Consumer<DrudleRuleResult>>> waitingForSolving) {
-
-    return new Process(
-        waiting::add,
-        (dr) -> solved.getOrDefault(dr, new HashSet<>()),
-        (dr, output) -> {
-          solved.computeIfAbsent(dr, k -> new HashSet<>()).add(output);
-        },
-        (part, consumers) -> {
-          waitingForSolving.computeIfAbsent(part, k -> new ArrayList<>()).add(consumers);
-        },
-        (dr, output) -> {
-          if (waitingForSolving.containsKey(dr)) {
-            for (var consumer : waitingForSolving.get(dr)) {
-              consumer.accept(output);
-            }
-          }
-        });
-  }
-
-  @AllArgsConstructor
-  @Data
-  private class Process {
-    private final Consumer<DrudleRuleResult> addWaiting;
-    private final Function<String, Set<DrudleRuleResult>> getSolved;
-    private final BiConsumer<String, DrudleRuleResultSolved> addSolved;
-    private final BiConsumer<String, Consumer<DrudleRuleResult>> addWaitingSolvedList;
-    private final BiConsumer<String, DrudleRuleResult> alertSolvedConsumers;
-
-    boolean addToWaitingQueue(String drudle) {
-      boolean added = false;
-      for (var rule : rules) {
-        List<DrudleRuleResult> results = rule.apply(drudle);
-        for (var result : results) {
-          if (result.isValid()) {
-            addWaiting.accept(result);
-            added = true;
-          } else {
-            log.error("Rule {} did not use all parts. Drudle: '{}'", rule.getName(), drudle);
-          }
+    }
+    if (cycles.isEmpty()) return;
+    if (rejectGrowthCycles) {
+      throw new IllegalArgumentException("Rules can use their whole input as a part: " + cycles);
+    }
+    log.warn("Rules can use their whole input as a part, applied to shorter parts only: {}", cycles);
+  }
+
+  /** @return the precomputed solutions of the current rules, null if there are none */
+  SolutionIndex getSolutionIndex() {
+    return solutionIndex;
+  }
+
+  SolvedCache.Stats getSolvedCacheStats() {
+    return solvedCache.stats();
+  }
+
+  public Set<DrudleRuleResult> processDrudle(String drudle) {
+    return processDrudle(drudle, defaultLimits).results();
+  }
+
+  public SolveResult processDrudle(String drudle, SolveLimits limits) {
+    return processDrudle(drudle, limits, ResultListener.NONE);
+  }
+
+  public SolveResult processDrudle(String drudle, SolveLimits limits, ResultListener listener) {
+    return solve(drudle, limits, listener, solvedCache);
+  }
+
+  public SolveResult processDrudleCheapest(
+      String drudle, SolveLimits limits, int count, ResultListener listener) {
+    long start = System.nanoTime();
+    drudle = normalize(drudle).toLowerCase();
+    var rules = ruleSet.get();
+    limits = limits.restrict(null, null, null, count);
+    // parts from the caches would change the order equally cheap results are found in
+    var process =
+        new DrudleProcess.BestFirst(
+            rules.index(), rules.version(), SolvedCache.NONE, limits, weights);
+    var truncation = process.run(drudle, listener);
+    var result = SolveResult.of(process.getResults(), truncation, limits);
+    metrics.solved(start, result, false, process);
+    return result;
+  }
+
+  /**
+   * Solves words for a {@link SolutionIndex} with the default limits, {@code parallelism} words at
+   * the same time. The words are solved in waves of one length, shortest first. Each word of a
+   * wave gets its own session on top of the results of the earlier waves and never sees what the
+   * other words of its wave solved, their sessions are merged in word order once the wave is done.
+   * So the index does not depend on which word happened to solve a substring first, it is the same
+   * for every parallelism.
+   *
+   * @param words the words
+   * @param parallelism the number of words solved at the same time
+   * @return the complete solved results of every word and of every substring solved on the way;
+   *     words that hit a limit are left out, like the substrings only they solved
+   */
+  Map<String, Set<DrudleRuleResult>> precompute(List<String> words, int parallelism) {
+    long version = ruleSet.get().version();
+    // every solved substring of the finished waves, first merged first
+    Map<String, Set<DrudleRuleResult>> ret = new HashMap<>();
+    var solved = new SolvedCache.Session(solvedCache);
+    var earlier = solved.readOnly();
+    var waves =
+        words.stream()
+            .collect(Collectors.groupingBy(String::length, TreeMap::new, Collectors.toList()));
+    var truncated = new LongAdder();
+    var pool = new ForkJoinPool(parallelism);
+    try {
+      for (var wave : waves.values()) {
+        List<SolvedCache.Session> sessions =
+            pool.submit(
+                    () ->
+                        wave.parallelStream()
+                            .map(
+                                word -> {
+                                  var session = new SolvedCache.Session(earlier);
+                                  if (solve(word, defaultLimits, ResultListener.NONE, session)
+                                      .isTruncated()) {
+                                    truncated.increment();
+                                  }
+                                  return session;
+                                })
+                            .toList())
+                .join();
+        for (var session : sessions) {
+          session
+              .entries()
+              .forEach(
+                  (drudle, results) -> {
+                    if (ret.putIfAbsent(drudle, results) == null) {
+                      solved.put(version, drudle, results);
+                    }
+                  });
         }
       }
-      return added;
+    } finally {
+      pool.shutdown();
+    }
+    if (truncated.sum() > 0) {
+      log.warn("{} of {} words hit a limit and are not precomputed", truncated.sum(), words.size());
     }
+    return ret;
+  }
 
-    void addToSolved(DrudleRuleResultSolved result) {
-      var drudle = result.getInput();
-      var solved = getSolved.apply(drudle);
-      if (!solved.contains(result)) {
-        addSolved.accept(drudle, result);
-        log.debug("Solved drudle '{}' to '{}' with rule {}", drudle, result, result.getRuleName());
-        alertSolvedConsumers.accept(drudle, result);
+  public List<BatchItem> processBatch(List<String> drudles, SolveLimits limits) {
+    if (drudles.size() > maxBatchItems) {
+      throw new IllegalArgumentException(
+          "Batch of %d drudles exceeds the limit of %d".formatted(drudles.size(), maxBatchItems));
+    }
+    // keeps every drudle solved in this batch and the substrings of the engines that share them,
+    // also the ones the shared cache can not hold
+    var session = new SolvedCache.Session(solvedCache);
+    List<BatchItem> ret = new ArrayList<>(drudles.size());
+    for (String drudle : drudles) {
+      if (drudle == null || drudle.isBlank()) {
+        ret.add(BatchItem.failed(drudle, "Drudle is empty"));
+        continue;
+      }
+      try {
+        ret.add(BatchItem.solved(drudle, solve(drudle, limits, ResultListener.NONE, session)));
+      } catch (RuntimeException e) {
+        log.warn("Failed to solve drudle '{}' of a batch", drudle, e);
+        ret.add(BatchItem.failed(drudle, e.toString()));
       }
     }
+    log.debug("Solved batch of {} drudles, session cache: {}", drudles.size(), session.stats());
+    return ret;
+  }
+
+  /**
+   * Normalizes a drudle to Unicode NFC, so the composed and decomposed forms of an umlaut are one
+   * drudle for the rules and for the caches.
+   */
+  static String normalize(String drudle) {
+    return Normalizer.isNormalized(drudle, Normalizer.Form.NFC)
+        ? drudle
+        : Normalizer.normalize(drudle, Normalizer.Form.NFC);
+  }
 
-    void processUsedParts(DrudleRuleResult current) {
-      for (var part : current.getUsedPartsFulfillmentConsumerMap().entrySet()) {
-        // Create consumer
-        Consumer<DrudleRuleResult> consumer =
-            (s) -> {
-              DrudleRuleResult applied = part.getValue().apply(s);
-              if (applied != null) {
-                addWaiting.accept(applied); // add solved drudle part
-              }
-            };
-        // Register consumer
-        addWaitingSolvedList.accept(part.getKey(), consumer);
-        if (!getSolved.apply(part.getKey()).isEmpty()) {
-          // Apply to already solved parts
-          for (var s : getSolved.apply(part.getKey())) {
-            consumer.accept(s);
-          }
-        } else {
-          addToWaitingQueue(part.getKey());
-          addToSolved(new DrudleRuleResultSolved(part.getKey()));
+  private SolveResult solve(
+      String drudle, SolveLimits limits, ResultListener listener, SolvedCache cache) {
+    long start = System.nanoTime();
+    drudle = normalize(drudle).toLowerCase();
+    // the whole request is solved with this snapshot, even if the rules are reloaded meanwhile
+    var rules = ruleSet.get();
+    long version = rules.version();
+    var index = solutionIndex;
+    if (index != null && index.getRulesVersion() == version) {
+      cache = new SolvedCache.Indexed(cache, index);
+    }
+    var cached = cache.get(version, drudle);
+    if (cached != null) {
+      if (mode == DrudleProperties.Engine.Mode.BEST_FIRST) {
+        cached = new Scoring(rules.index(), weights).rank(cached);
+      }
+      var result = SolveResult.of(cached, Truncation.NONE, limits);
+      for (var res : result.results()) {
+        if (!listener.onResult(res)) {
+          result = new SolveResult(result.results(), Truncation.CANCELLED);
+          break;
         }
       }
+      metrics.solved(start, result, true, null);
+      return result;
+    }
+    // the sequential engine solves a part depending on the drudle it is a part of, so it shares
+    // whole drudles only, its results must not depend on the requests before
+    boolean shareParts = mode != DrudleProperties.Engine.Mode.SEQUENTIAL;
+    var partCache = shareParts ? cache : SolvedCache.NONE;
+    SolveProcess currentProcess =
+        switch (mode) {
+          case SEQUENTIAL -> new DrudleProcess.Sequential(rules.index(), version, partCache, limits);
+          case PARALLEL ->
+              new DrudleProcess.Parallel(rules.index(), version, partCache, limits, pool);
+          case CHART -> new ChartProcess(rules.index(), version, partCache, limits);
+          case BEST_FIRST ->
+              new DrudleProcess.BestFirst(rules.index(), version, partCache, limits, weights);
+        };
+    var truncation = currentProcess.run(drudle, listener);
+    if (truncation == Truncation.NONE) {
+      if (shareParts) {
+        // every substring is completely solved now, share them with later requests
+        currentProcess.storeSolved();
+      } else {
+        cache.put(version, drudle, currentProcess.getResults());
+      }
     }
+    log.debug("Solved drudle '{}', cache: {}", drudle, cache.stats());
+    var result = SolveResult.of(currentProcess.getResults(), truncation, limits);
+    metrics.solved(start, result, false, currentProcess);
+    return result;
   }
 }
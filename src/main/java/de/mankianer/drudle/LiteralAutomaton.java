@@ -0,0 +1,147 @@
+package de.mankianer.drudle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over a fixed list of literal patterns.<br>
+ * A scan visits every character of the text once and reports every occurrence of every pattern, so
+ * the cost of a scan depends on the text length and the number of occurrences, not on the number
+ * of patterns.
+ */
+final class LiteralAutomaton {
+
+  /** Receives the occurrences found by {@link #scan(CharSequence, int, int, MatchSink)}. */
+  @FunctionalInterface
+  interface MatchSink {
+    /**
+     * @param patternId the index of the pattern in the list the automaton was built from
+     * @param start the start index of the occurrence in the text
+     * @param end the end index (exclusive) of the occurrence in the text
+     */
+    void accept(int patternId, int start, int end);
+  }
+
+  private static final int[] NO_OUTPUTS = new int[0];
+
+  /** Sorted edge characters per state. */
+  private final char[][] edgeChars;
+
+  /** Target states per state, aligned with {@link #edgeChars}. */
+  private final int[][] edgeTargets;
+
+  /** Failure link per state, the state of the longest proper suffix that is in the trie. */
+  private final int[] fail;
+
+  /** Ids of the patterns ending in a state, including those reachable via failure links. */
+  private final int[][] outputs;
+
+  private final int[] patternLengths;
+
+  LiteralAutomaton(List<String> patterns) {
+    List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+    List<List<Integer>> stateOutputs = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    stateOutputs.add(new ArrayList<>());
+    patternLengths = new int[patterns.size()];
+    for (int id = 0; id < patterns.size(); id++) {
+      String pattern = patterns.get(id);
+      patternLengths[id] = pattern.length();
+      int state = 0;
+      for (int i = 0; i < pattern.length(); i++) {
+        Integer next = trie.get(state).get(pattern.charAt(i));
+        if (next == null) {
+          next = trie.size();
+          trie.get(state).put(pattern.charAt(i), next);
+          trie.add(new TreeMap<>());
+          stateOutputs.add(new ArrayList<>());
+        }
+        state = next;
+      }
+      stateOutputs.get(state).add(id);
+    }
+
+    int size = trie.size();
+    edgeChars = new char[size][];
+    edgeTargets = new int[size][];
+    for (int state = 0; state < size; state++) {
+      var edges = trie.get(state);
+      edgeChars[state] = new char[edges.size()];
+      edgeTargets[state] = new int[edges.size()];
+      int i = 0;
+      for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+        edgeChars[state][i] = edge.getKey();
+        edgeTargets[state][i] = edge.getValue();
+        i++;
+      }
+    }
+
+    // breadth first, so the failure state of a state is always complete before the state itself
+    fail = new int[size];
+    outputs = new int[size][];
+    outputs[0] = NO_OUTPUTS;
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int target : edgeTargets[0]) {
+      outputs[target] = toArray(stateOutputs.get(target), NO_OUTPUTS);
+      queue.add(target);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      for (int i = 0; i < edgeChars[state].length; i++) {
+        char c = edgeChars[state][i];
+        int target = edgeTargets[state][i];
+        int f = fail[state];
+        while (f != 0 && next(f, c) < 0) {
+          f = fail[f];
+        }
+        int failTarget = next(f, c);
+        fail[target] = failTarget < 0 ? 0 : failTarget;
+        outputs[target] = toArray(stateOutputs.get(target), outputs[fail[target]]);
+        queue.add(target);
+      }
+    }
+  }
+
+  /**
+   * Reports every occurrence of every pattern in {@code text[from, to)}, ordered by end index.
+   *
+   * @param text the text to scan
+   * @param from the first index to scan
+   * @param to the end index (exclusive) to scan
+   * @param sink receives the occurrences
+   */
+  void scan(CharSequence text, int from, int to, MatchSink sink) {
+    int state = 0;
+    for (int i = from; i < to; i++) {
+      char c = text.charAt(i);
+      int next = next(state, c);
+      while (next < 0 && state != 0) {
+        state = fail[state];
+        next = next(state, c);
+      }
+      state = next < 0 ? 0 : next;
+      for (int id : outputs[state]) {
+        sink.accept(id, i + 1 - patternLengths[id], i + 1);
+      }
+    }
+  }
+
+  private int next(int state, char c) {
+    int i = Arrays.binarySearch(edgeChars[state], c);
+    return i < 0 ? -1 : edgeTargets[state][i];
+  }
+
+  private static int[] toArray(List<Integer> own, int[] inherited) {
+    if (own.isEmpty()) return inherited;
+    int[] ret = Arrays.copyOf(inherited, inherited.length + own.size());
+    for (int i = 0; i < own.size(); i++) {
+      ret[inherited.length + i] = own.get(i);
+    }
+    return ret;
+  }
+}
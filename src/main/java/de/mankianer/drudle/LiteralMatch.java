@@ -0,0 +1,45 @@
+package de.mankianer.drudle;
+
+import java.util.regex.MatchResult;
+
+/**
+ * Match of a literal pattern found by a {@link LiteralAutomaton}. Has no groups besides group 0.
+ *
+ * @param text the text the match was found in
+ * @param start the start index of the match
+ * @param end the end index (exclusive) of the match
+ */
+record LiteralMatch(String text, int start, int end) implements MatchResult {
+
+  @Override
+  public int start(int group) {
+    checkGroup(group);
+    return start;
+  }
+
+  @Override
+  public int end(int group) {
+    checkGroup(group);
+    return end;
+  }
+
+  @Override
+  public String group() {
+    return text.substring(start, end);
+  }
+
+  @Override
+  public String group(int group) {
+    checkGroup(group);
+    return group();
+  }
+
+  @Override
+  public int groupCount() {
+    return 0;
+  }
+
+  private static void checkGroup(int group) {
+    if (group != 0) throw new IndexOutOfBoundsException("No group " + group);
+  }
+}
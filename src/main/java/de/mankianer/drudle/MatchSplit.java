@@ -0,0 +1,115 @@
+package de.mankianer.drudle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.MatchResult;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * The parts one match of a pattern cuts a drudle into, as index spans instead of substrings.<br>
+ * Only depends on the pattern, not on the output of a rule, so it is computed once per match and
+ * shared by all {@link RegexRule}s with the same pattern.
+ *
+ * @param starts the start index of each slot of the {@link CompiledRule}, in slot order
+ * @param ends the end index (exclusive) of each slot
+ * @param bounds the boundaries of the matching parts that cover the drudle, in order: part {@code
+ *     k} is {@code [bounds[k], bounds[k + 1])}. The matching parts are head, tail, the named groups
+ *     and the content between the named groups (or the whole content if there are no named groups)
+ * @param order the slots in match order, null if that is the slot order, see {@link
+ *     CompiledRule#matchOrder(int[])}
+ */
+@Log4j2
+record MatchSplit(int[] starts, int[] ends, int[] bounds, int[] order) {
+
+  /**
+   * Cuts the drudle at the match.
+   *
+   * @param drudle the input drudle string
+   * @param match a match of the pattern on the drudle
+   * @param compiled the compiled pattern with its slots
+   * @return the split, or null if the parts do not cover the whole drudle
+   */
+  static MatchSplit of(String drudle, MatchResult match, CompiledRule compiled) {
+    var slots = compiled.slots();
+    int[] starts = new int[slots.size()];
+    int[] ends = new int[slots.size()];
+    for (int i = 0; i < slots.size(); i++) {
+      switch (slots.get(i).name()) {
+        case CompiledRule.HEAD -> {
+          starts[i] = 0;
+          ends[i] = match.start();
+        }
+        case CompiledRule.CONTENT -> {
+          starts[i] = match.start();
+          ends[i] = match.end();
+        }
+        case CompiledRule.TAIL -> {
+          starts[i] = match.end();
+          ends[i] = drudle.length();
+        }
+        default -> {
+          starts[i] = match.start(slots.get(i).name());
+          ends[i] = match.end(slots.get(i).name());
+        }
+      }
+    }
+    int[] order = compiled.matchOrder(starts);
+    // head, each named group with the content before it, the rest of the content and tail
+    int groups = slots.size() - 3;
+    int[] bounds = new int[2 * groups + 4];
+    int bound = 1;
+    int contentPosition = match.start();
+    for (int k = 0; k < groups; k++) {
+      int i = order == null ? k : order[k];
+      // a group that did not take part in the match (-1), or overlaps the group before it
+      if (starts[i] < contentPosition) {
+        return notCovered(drudle, compiled);
+      }
+      bounds[++bound] = starts[i];
+      bounds[++bound] = ends[i];
+      contentPosition = ends[i];
+    }
+    // a group in a lookaround may end behind the match
+    if (contentPosition > match.end()) {
+      return notCovered(drudle, compiled);
+    }
+    bounds[1] = match.start();
+    bounds[++bound] = match.end();
+    bounds[++bound] = drudle.length();
+    return new MatchSplit(starts, ends, bounds, order);
+  }
+
+  /**
+   * @param k the position of a slot in the match order
+   * @return the index of the slot in the {@link CompiledRule}
+   */
+  int slot(int k) {
+    return order == null ? k : order[k];
+  }
+
+  private static MatchSplit notCovered(String drudle, CompiledRule compiled) {
+    log.info(
+        "Pattern '{}' did not use all parts. Drudle: '{}'", compiled.regex().pattern(), drudle);
+    return null;
+  }
+
+  /**
+   * Cuts the drudle at every match.
+   *
+   * @param drudle the input drudle string
+   * @param matches the matches of the pattern on the drudle, in order
+   * @param compiled the compiled pattern with its slots
+   * @return the splits of all matches that cover the whole drudle
+   */
+  static List<MatchSplit> of(
+      String drudle, List<? extends MatchResult> matches, CompiledRule compiled) {
+    List<MatchSplit> ret = new ArrayList<>(matches.size());
+    for (var match : matches) {
+      var split = of(drudle, match, compiled);
+      if (split != null) {
+        ret.add(split);
+      }
+    }
+    return ret;
+  }
+}
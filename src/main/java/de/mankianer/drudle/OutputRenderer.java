@@ -1,11 +1,17 @@
 package de.mankianer.drudle;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 import org.springframework.stereotype.Service;
 
 @Service
 public class OutputRenderer {
-  private String htmlTemplate =
+  String htmlTemplate =
 """
 
 <div id="canvas" style="aspect-ratio: 1 / 1; width: 25em; background: #ffffff; border: 0.2em solid #000000;
@@ -68,17 +74,188 @@ public class OutputRenderer {
 
     """;
 
+  /**
+   * Style and fit script of a compact page, written once per page. Every drawing of the page only
+   * refers to the classes, the script fits a drawing whenever the browser adds to it, so drawings
+   * are fitted while the page streams in.
+   */
+  private static final String COMPACT_HEAD =
+      """
+<style>
+.drudle-canvas { aspect-ratio: 1 / 1; width: 25em; background: #ffffff; border: 0.2em solid #000000;
+  display: grid; place-items: center; container-type: size; overflow: hidden; }
+.drudle-content { font-size: 4em; font-family: Arial; display: flex; flex-wrap: nowrap;
+  align-items: center; justify-content: center; white-space: nowrap; overflow: hidden; }
+</style>
+<script>
+(function() {
+    // Shrinks the font until the drawing fits inside its canvas
+    function fit(content) {
+        const canvas = content.parentElement;
+        let fontSize = parseFloat(content.style.fontSize) || 4;
+        content.style.fontSize = fontSize + "em";
+        while ((content.scrollWidth > canvas.clientWidth || content.scrollHeight > canvas.clientHeight)
+                && fontSize > 0.5) {
+            fontSize -= 0.1;
+            content.style.fontSize = fontSize + "em";
+        }
+    }
+    new MutationObserver(function(records) {
+        const changed = new Set();
+        for (const record of records) {
+            const target = record.target.nodeType === 1 ? record.target : record.target.parentElement;
+            const content = target && target.closest(".drudle-content");
+            if (content) changed.add(content);
+            record.addedNodes.forEach(function(node) {
+                if (node.nodeType === 1 && node.classList.contains("drudle-content")) changed.add(node);
+            });
+        }
+        changed.forEach(fit);
+    }).observe(document.documentElement, {childList: true, subtree: true, characterData: true});
+})();
+</script>
+""";
+
+  private static final String COMPACT_BEFORE =
+      "<div class=\"drudle-canvas\"><div class=\"drudle-content\">";
+
+  private static final String COMPACT_AFTER = "</div></div>";
+
+  /** The {@link #htmlTemplate} around the output, so results are appended without formatting. */
+  private final String htmlBefore = htmlTemplate.substring(0, htmlTemplate.indexOf("%s"));
+
+  private final String htmlAfter = htmlTemplate.substring(htmlTemplate.indexOf("%s") + 2);
+
   public String render(String drudle, Set<DrudleRuleResult> result) {
+    return render(drudle, new SolveResult(result, SolveResult.Truncation.NONE));
+  }
+
+  public String render(String drudle, SolveResult solveResult) {
 
 
     StringBuilder ret = new StringBuilder();
       ret.append("<h2>Input: %s</h2>".formatted(drudle));
-    for (DrudleRuleResult res : result) {
-        ret.append(htmlTemplate.formatted(res.getOutput()));
-        ret.append("<br/>Used Rules:");
-        res.getPreviousResults().forEach(r -> ret.append("<br/>%s: %s ->".formatted(r.getRuleName(),r.getInput())));
+    if (solveResult.isTruncated()) {
+        ret.append("<p><b>Partial result:</b> the search stopped at its %s limit, more drawings may exist.</p>"
+            .formatted(solveResult.truncation().name().toLowerCase()));
+    }
+    for (DrudleRuleResult res : solveResult.results()) {
+        appendResult(ret, res);
     }
 
     return ret.toString();
   }
+
+  /**
+   * Renders a single result: its drawing and the rules used, e.g. for streaming.
+   *
+   * @param res the result
+   * @return the html of the result
+   */
+  public String renderResult(DrudleRuleResult res) {
+    StringBuilder ret = new StringBuilder();
+    appendResult(ret, res);
+    return ret.toString();
+  }
+
+  private void appendResult(StringBuilder ret, DrudleRuleResult res) {
+    appendResult(ret, res, htmlBefore, htmlAfter);
+  }
+
+  private static void appendResult(StringBuilder ret, DrudleRuleResult res, String before, String after) {
+    ret.append(before);
+    if (res instanceof DrudleRuleResult.DrudleRuleResultSolved solved) {
+      // fill the output straight into the page, without building it on its own
+      solved.appendOutput(ret);
+    } else {
+      ret.append(res.getOutput());
+    }
+    ret.append(after);
+    ret.append("<br/>Used Rules:");
+    res.getPreviousResults().forEach(r -> ret.append("<br/>").append(r.getRuleName()).append(": ").append(r.getInput()).append(" ->"));
+  }
+
+  /**
+   * Renders the results as a compact page, see {@link Page}.
+   *
+   * @param drudle the drudle
+   * @param solveResult the results
+   * @param out the writer to render to, it is flushed but not closed
+   */
+  public void render(String drudle, SolveResult solveResult, Writer out) throws IOException {
+    var page = page(drudle, out);
+    page.truncated(solveResult.truncation());
+    for (DrudleRuleResult res : solveResult.results()) {
+      page.result(res);
+    }
+    page.flush();
+  }
+
+  /**
+   * Renders the results as a compact page in UTF-8, see {@link Page}.
+   *
+   * @param drudle the drudle
+   * @param solveResult the results
+   * @param out the stream to render to, it is flushed but not closed
+   */
+  public void render(String drudle, SolveResult solveResult, OutputStream out) throws IOException {
+    render(drudle, solveResult, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Starts a compact page, e.g. to write each result as soon as it is found.
+   *
+   * @param drudle the drudle
+   * @param out the writer to render to
+   * @return the page, with its head already written
+   */
+  public Page page(String drudle, Writer out) throws IOException {
+    return new Page(drudle, out);
+  }
+
+  /**
+   * A page that writes the style and the fit script once and then a small fragment per result,
+   * straight to a writer. Unlike {@link #render(String, SolveResult)} the size of a page grows with
+   * the drawings, not with the template times the number of results, and only the fragment of one
+   * result is held in memory. Not thread-safe.
+   */
+  public static final class Page {
+    private final Writer out;
+
+    /** Holds the fragment of one result, reused for every result. */
+    private final StringBuilder fragment = new StringBuilder();
+
+    private char[] chars = new char[0];
+
+    private Page(String drudle, Writer out) throws IOException {
+      this.out = out;
+      out.write(COMPACT_HEAD);
+      out.write("<h2>Input: %s</h2>".formatted(drudle));
+    }
+
+    /** Writes the note of a partial result, nothing if the search was not truncated. */
+    public void truncated(SolveResult.Truncation truncation) throws IOException {
+      if (truncation == SolveResult.Truncation.NONE) return;
+      out.write("<p><b>Partial result:</b> the search stopped at its %s limit, more drawings may exist.</p>"
+          .formatted(truncation.name().toLowerCase()));
+    }
+
+    /** Writes the drawing and the rules of a result. */
+    public void result(DrudleRuleResult res) throws IOException {
+      fragment.setLength(0);
+      appendResult(fragment, res, COMPACT_BEFORE, COMPACT_AFTER);
+      fragment.append('\n');
+      // Writer.append would copy the fragment into a new String first
+      if (chars.length < fragment.length()) {
+        chars = new char[fragment.length()];
+      }
+      fragment.getChars(0, fragment.length(), chars, 0);
+      out.write(chars, 0, fragment.length());
+    }
+
+    /** Writes the buffered part of the page to the client. */
+    public void flush() throws IOException {
+      out.flush();
+    }
+  }
 }
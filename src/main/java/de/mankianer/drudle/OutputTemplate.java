@@ -0,0 +1,158 @@
+package de.mankianer.drudle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output of a {@link RegexRule}, cut into literal text and the slots between it.<br>
+ * A filled template is never built as a string while solving: a {@link
+ * DrudleRuleResult.DrudleRuleResultSolved} only references the template and the results of its
+ * parts. Its length and hash are computed from theirs, the string is only built when it is asked
+ * for.
+ */
+final class OutputTemplate {
+
+  /** Literal text before, between and after the slots, one more than there are slots. */
+  private final String[] literals;
+
+  private final int[] literalHashes;
+
+  /** Index of the slot name of each slot, in output order. */
+  private final int[] slots;
+
+  private final int literalLength;
+
+  /**
+   * @param literals the literal text before, between and after the slots
+   * @param slots the index of the slot name of each slot
+   */
+  OutputTemplate(List<String> literals, List<Integer> slots) {
+    if (literals.size() != slots.size() + 1) {
+      throw new IllegalArgumentException("Expected one more literal than slots: " + literals.size());
+    }
+    this.literals = literals.toArray(String[]::new);
+    this.slots = slots.stream().mapToInt(Integer::intValue).toArray();
+    literalHashes = new int[this.literals.length];
+    int length = 0;
+    for (int i = 0; i < this.literals.length; i++) {
+      literalHashes[i] = this.literals[i].hashCode();
+      length += this.literals[i].length();
+    }
+    literalLength = length;
+  }
+
+  /**
+   * Cuts the output of a rule into literals and slots. Every {@code {name}} of the given slot names
+   * is a slot, the {@code *} marking required slots is removed from the whole output.
+   *
+   * @param output the output of the rule
+   * @param slotNames the names of the slots of the rule
+   * @return the template
+   */
+  static OutputTemplate parse(String output, List<String> slotNames) {
+    String text = output.replace("*", "");
+    List<String> literals = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+    int literalStart = 0;
+    int i = text.indexOf('{');
+    while (i >= 0) {
+      int slot = slotAt(text, i, slotNames);
+      if (slot < 0) {
+        i = text.indexOf('{', i + 1);
+        continue;
+      }
+      literals.add(text.substring(literalStart, i));
+      slots.add(slot);
+      literalStart = i + slotNames.get(slot).length() + 2;
+      i = text.indexOf('{', literalStart);
+    }
+    literals.add(text.substring(literalStart));
+    return new OutputTemplate(literals, slots);
+  }
+
+  private static int slotAt(String text, int i, List<String> slotNames) {
+    for (int slot = 0; slot < slotNames.size(); slot++) {
+      String name = slotNames.get(slot);
+      if (text.startsWith(name, i + 1) && text.startsWith("}", i + 1 + name.length())) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  int slotCount() {
+    return slots.length;
+  }
+
+  /**
+   * @return the length of the literal text, the length of the template filled with empty parts
+   */
+  int literalLength() {
+    return literalLength;
+  }
+
+  /**
+   * @param i the index of the literal, 0 is the text before the first slot
+   * @return the literal text
+   */
+  String literal(int i) {
+    return literals[i];
+  }
+
+  /**
+   * @param i the index of the slot in the output
+   * @return the index of its name in the slot names the template was parsed with
+   */
+  int slot(int i) {
+    return slots[i];
+  }
+
+  /**
+   * @param parts the results filling the slots
+   * @param slotToPart index of the part of each slot
+   * @return the length of the filled template
+   */
+  int length(DrudleRuleResult.DrudleRuleResultSolved[] parts, int[] slotToPart) {
+    int ret = literalLength;
+    for (int part : slotToPart) {
+      ret += parts[part].getOutputLength();
+    }
+    return ret;
+  }
+
+  /**
+   * @param parts the results filling the slots
+   * @param slotToPart index of the part of each slot
+   * @return the {@link String#hashCode()} of the filled template, from the stored hashes of the
+   *     parts, without building it
+   */
+  int hash(DrudleRuleResult.DrudleRuleResultSolved[] parts, int[] slotToPart) {
+    int ret = 0;
+    for (int i = 0; i < slots.length; i++) {
+      ret = concatHash(ret, literalHashes[i], literals[i].length());
+      var part = parts[slotToPart[i]];
+      ret = concatHash(ret, part.outputHash(), part.getOutputLength());
+    }
+    return concatHash(ret, literalHashes[slots.length], literals[slots.length].length());
+  }
+
+  void appendTo(StringBuilder sb, DrudleRuleResult.DrudleRuleResultSolved[] parts, int[] slotToPart) {
+    for (int i = 0; i < slots.length; i++) {
+      sb.append(literals[i]);
+      parts[slotToPart[i]].appendOutput(sb);
+    }
+    sb.append(literals[slots.length]);
+  }
+
+  /** Hash of the string {@code a + b}, given the hashes of both and the length of {@code b}. */
+  private static int concatHash(int hashA, int hashB, int lengthB) {
+    // String.hashCode() is a polynomial in 31, shifting a by the length of b appends b
+    int shift = 1;
+    int base = 31;
+    for (int e = lengthB; e > 0; e >>= 1) {
+      if ((e & 1) != 0) shift *= base;
+      base *= base;
+    }
+    return hashA * shift + hashB;
+  }
+}
@@ -0,0 +1,341 @@
+package de.mankianer.drudle;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * What every match of a {@link Pattern} needs, read from the pattern source once when a rule is
+ * loaded.<br>
+ * The facts are lower bounds: a text shorter than {@link #minLength()} or without one of the {@link
+ * #requiredChars()} can not contain a match, so the pattern does not have to be run on it. Patterns
+ * the analysis does not understand, e.g. with {@link Pattern#COMMENTS}, or whose matches can be
+ * shorter than the pattern reads, e.g. with {@link Pattern#CANON_EQ}, get the facts that hold for any
+ * pattern: minimum length 0 and no required chars.
+ *
+ * @param minLength the minimum length of a match
+ * @param requiredChars the chars every match contains
+ * @param wholeMatchGroups the named groups that can be the whole match, because the rest of the
+ *     pattern can match the empty string
+ */
+record PatternFacts(int minLength, char[] requiredChars, Set<String> wholeMatchGroups) {
+
+  /** Facts that hold for any pattern. */
+  static final PatternFacts UNKNOWN = new PatternFacts(0, new char[0], null);
+
+  /** Flags that do not change which chars a match contains. */
+  private static final int PLAIN_FLAGS = Pattern.MULTILINE | Pattern.DOTALL | Pattern.UNIX_LINES;
+
+  /**
+   * Flags that change which chars a match contains, but not its length: case insensitive matching
+   * compares one char with one char, and Unicode classes still match one char. Any other flag makes
+   * the facts {@link #UNKNOWN}, e.g. with {@link Pattern#CANON_EQ} a decomposed sequence in the
+   * pattern matches one composed char.
+   */
+  private static final int CHAR_FLAGS =
+      Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.UNICODE_CHARACTER_CLASS;
+
+  private static final int MAX_LENGTH = Integer.MAX_VALUE / 2;
+
+  static PatternFacts of(Pattern regex) {
+    int flags = regex.flags();
+    if ((flags & ~(PLAIN_FLAGS | CHAR_FLAGS)) != 0) return UNKNOWN;
+    var parser = new Parser(regex.pattern(), null);
+    Facts facts;
+    try {
+      facts = parser.parse();
+    } catch (RuntimeException e) {
+      // a construct the parser does not know, Pattern already accepted the pattern
+      return UNKNOWN;
+    }
+    if (parser.commentsFlag) return UNKNOWN;
+    Set<Character> required = parser.caseFlag || (flags & ~PLAIN_FLAGS) != 0 ? Set.of() : facts.required();
+    Set<String> wholeMatchGroups = new HashSet<>();
+    for (String group : regex.namedGroups().keySet()) {
+      // the group can be the whole match if everything else can be empty
+      if (new Parser(regex.pattern(), group).parse().min() == 0) {
+        wholeMatchGroups.add(group);
+      }
+    }
+    char[] requiredChars = new char[required.size()];
+    int i = 0;
+    for (char c : required) {
+      requiredChars[i++] = c;
+    }
+    return new PatternFacts(facts.min(), requiredChars, Set.copyOf(wholeMatchGroups));
+  }
+
+  /**
+   * @param text the text
+   * @param start the start index of the span
+   * @param end the end index (exclusive) of the span
+   * @return false if the pattern can not match in {@code text[start, end)}
+   */
+  boolean canMatch(String text, int start, int end) {
+    if (end - start < minLength) return false;
+    for (char c : requiredChars) {
+      if (text.indexOf(c, start, end) < 0) return false;
+    }
+    return true;
+  }
+
+  /**
+   * @param group a named group of the pattern
+   * @return true if the group can be the whole match
+   */
+  boolean canBeWholeMatch(String group) {
+    return wholeMatchGroups == null || wholeMatchGroups.contains(group);
+  }
+
+  /**
+   * Minimum length and required chars of a part of a pattern.
+   *
+   * @param min the minimum length of a match of the part
+   * @param required the chars every match of the part contains
+   */
+  private record Facts(int min, Set<Character> required) {
+    static final Facts EMPTY = new Facts(0, Set.of());
+    static final Facts ANY_CHAR = new Facts(1, Set.of());
+
+    static Facts literal(char c) {
+      return new Facts(1, Set.of(c));
+    }
+  }
+
+  /** Recursive descent over the pattern source, following the syntax of {@link Pattern}. */
+  private static final class Parser {
+    private final String pattern;
+    private int i;
+
+    /** Named group that counts as empty, to find out if the rest of the pattern can be empty. */
+    private final String emptyGroup;
+
+    private boolean caseFlag;
+    private boolean commentsFlag;
+
+    private Parser(String pattern, String emptyGroup) {
+      this.pattern = pattern;
+      this.emptyGroup = emptyGroup;
+    }
+
+    Facts parse() {
+      var ret = alternation();
+      if (i != pattern.length()) {
+        throw new IllegalStateException("Unbalanced ) at " + i);
+      }
+      return ret;
+    }
+
+    private Facts alternation() {
+      var ret = sequence();
+      while (i < pattern.length() && pattern.charAt(i) == '|') {
+        i++;
+        var other = sequence();
+        Set<Character> required = new HashSet<>(ret.required());
+        required.retainAll(other.required());
+        ret = new Facts(Math.min(ret.min(), other.min()), required);
+      }
+      return ret;
+    }
+
+    private Facts sequence() {
+      int min = 0;
+      Set<Character> required = new HashSet<>();
+      while (i < pattern.length() && pattern.charAt(i) != '|' && pattern.charAt(i) != ')') {
+        var atom = quantified(atom());
+        min = Math.min(min + atom.min(), MAX_LENGTH);
+        required.addAll(atom.required());
+      }
+      return new Facts(min, required);
+    }
+
+    private Facts atom() {
+      char c = pattern.charAt(i++);
+      return switch (c) {
+        case '(' -> group();
+        case '[' -> {
+          skipClass();
+          yield Facts.ANY_CHAR;
+        }
+        case '.' -> Facts.ANY_CHAR;
+        case '^', '$' -> Facts.EMPTY;
+        case '\\' -> escape();
+        default -> {
+          if (Character.isHighSurrogate(c)
+              && i < pattern.length()
+              && Character.isLowSurrogate(pattern.charAt(i))) {
+            // one code point, a quantifier applies to both chars
+            yield new Facts(2, Set.of(c, pattern.charAt(i++)));
+          }
+          yield Facts.literal(c);
+        }
+      };
+    }
+
+    private Facts group() {
+      String name = null;
+      boolean lookaround = false;
+      if (pattern.startsWith("?", i)) {
+        if (pattern.startsWith("?:", i) || pattern.startsWith("?>", i)) {
+          i += 2;
+        } else if (pattern.startsWith("?=", i) || pattern.startsWith("?!", i)) {
+          i += 2;
+          lookaround = true;
+        } else if (pattern.startsWith("?<=", i) || pattern.startsWith("?<!", i)) {
+          i += 3;
+          lookaround = true;
+        } else if (pattern.startsWith("?<", i)) {
+          int end = indexOf(">", i);
+          name = pattern.substring(i + 2, end);
+          i = end + 1;
+        } else {
+          // inline flags, (?idmsuxU-idmsuxU) or (?idmsux-idmsux:X)
+          int start = ++i;
+          while (Character.isLetter(pattern.charAt(i)) || pattern.charAt(i) == '-') {
+            i++;
+          }
+          String flags = pattern.substring(start, i);
+          caseFlag |= flags.indexOf('i') >= 0 || flags.indexOf('u') >= 0;
+          commentsFlag |= flags.indexOf('x') >= 0;
+          if (pattern.charAt(i++) == ')') return Facts.EMPTY;
+        }
+      }
+      var ret = alternation();
+      if (pattern.charAt(i++) != ')') {
+        throw new IllegalStateException("Unclosed group at " + i);
+      }
+      if (lookaround) return Facts.EMPTY;
+      return name != null && name.equals(emptyGroup) ? Facts.EMPTY : ret;
+    }
+
+    private Facts quantified(Facts atom) {
+      if (i >= pattern.length()) return atom;
+      Facts ret;
+      switch (pattern.charAt(i)) {
+        case '?', '*' -> {
+          i++;
+          ret = Facts.EMPTY;
+        }
+        case '+' -> {
+          i++;
+          ret = atom;
+        }
+        case '{' -> {
+          int end = indexOf("}", i);
+          String bounds = pattern.substring(i + 1, end);
+          int comma = bounds.indexOf(',');
+          int times = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+          i = end + 1;
+          ret =
+              times == 0
+                  ? Facts.EMPTY
+                  : new Facts((int) Math.min((long) atom.min() * times, MAX_LENGTH), atom.required());
+        }
+        default -> {
+          return atom;
+        }
+      }
+      // lazy and possessive quantifiers
+      if (i < pattern.length() && (pattern.charAt(i) == '?' || pattern.charAt(i) == '+')) {
+        i++;
+      }
+      return ret;
+    }
+
+    private Facts escape() {
+      char c = pattern.charAt(i++);
+      switch (c) {
+        case 'b', 'B', 'A', 'z', 'Z', 'G' -> {
+          if (c == 'b' && pattern.startsWith("{", i)) {
+            i = indexOf("}", i) + 1;
+          }
+          return Facts.EMPTY;
+        }
+        case 'd', 'D', 'w', 'W', 's', 'S', 'h', 'H', 'v', 'V', 'R', 'X', 't', 'n', 'r', 'f', 'a',
+            'e' -> {
+          return Facts.ANY_CHAR;
+        }
+        case 'p', 'P', 'x', 'N' -> {
+          if (pattern.startsWith("{", i)) {
+            i = indexOf("}", i) + 1;
+          } else {
+            i += c == 'x' ? 2 : 1;
+          }
+          return Facts.ANY_CHAR;
+        }
+        case 'u' -> {
+          i += 4;
+          return Facts.ANY_CHAR;
+        }
+        case 'c' -> {
+          i++;
+          return Facts.ANY_CHAR;
+        }
+        case '0' -> {
+          while (i < pattern.length() && pattern.charAt(i) >= '0' && pattern.charAt(i) <= '7') {
+            i++;
+          }
+          return Facts.ANY_CHAR;
+        }
+        case 'k' -> {
+          // back reference, may refer to an empty group
+          i = indexOf(">", i) + 1;
+          return Facts.EMPTY;
+        }
+        case 'Q' -> {
+          int end = pattern.indexOf("\\E", i);
+          if (end < 0) end = pattern.length();
+          Set<Character> required = new HashSet<>();
+          for (int j = i; j < end; j++) {
+            required.add(pattern.charAt(j));
+          }
+          var ret = new Facts(end - i, required);
+          i = Math.min(end + 2, pattern.length());
+          return ret;
+        }
+        default -> {
+          if (c >= '1' && c <= '9') {
+            while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+              i++;
+            }
+            return Facts.EMPTY;
+          }
+          if (Character.isLetterOrDigit(c)) {
+            throw new IllegalStateException("Unknown escape \\" + c);
+          }
+          return Facts.literal(c);
+        }
+      }
+    }
+
+    private int indexOf(String s, int from) {
+      int ret = pattern.indexOf(s, from);
+      if (ret < 0) {
+        throw new IllegalStateException("Missing " + s + " after " + from);
+      }
+      return ret;
+    }
+
+    /** Skips a char class, {@code i} is after its {@code [}. */
+    private void skipClass() {
+      if (pattern.startsWith("^", i)) i++;
+      // a ] right at the start is a literal
+      if (pattern.startsWith("]", i)) i++;
+      int depth = 1;
+      while (depth > 0) {
+        char c = pattern.charAt(i++);
+        if (c == '\\') {
+          if (pattern.charAt(i) == 'Q') {
+            i = indexOf("\\E", i) + 2;
+          } else {
+            i++;
+          }
+        } else if (c == '[') {
+          depth++;
+        } else if (c == ']') {
+          depth--;
+        }
+      }
+    }
+  }
+}
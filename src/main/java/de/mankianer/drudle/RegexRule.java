@@ -1,24 +1,62 @@
 package de.mankianer.drudle;
 
-import static java.util.stream.Collectors.toMap;
-
 import java.util.*;
-import java.util.function.UnaryOperator;
-import java.util.regex.Pattern;
-import lombok.AllArgsConstructor;
+import java.util.regex.MatchResult;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 
 @Log4j2
-@AllArgsConstructor
-@RequiredArgsConstructor
 public class RegexRule implements DrudleRule {
 
   @Getter private final String name;
-  private final String pattern;
-  private final String output;
-  @Getter private String description;
+  @Getter private final String pattern;
+  @Getter private final String description;
+  @Getter private final String source;
+  @Getter private final double weight;
+
+  /** Pattern and slots of this rule, compiled once when the rule is created. */
+  private final CompiledRule compiled;
+
+  private final RuleFacts facts;
+
+  public RegexRule(String name, String pattern, String output) {
+    this(name, pattern, output, null);
+  }
+
+  public RegexRule(String name, String pattern, String output, String description) {
+    this(name, pattern, output, description, "");
+  }
+
+  /**
+   * @param source the file the rule was loaded from
+   */
+  public RegexRule(String name, String pattern, String output, String description, String source) {
+    this(name, pattern, output, description, source, 1);
+  }
+
+  /**
+   * @param source the file the rule was loaded from
+   * @param weight the cost of applying the rule, see {@link Scoring}
+   */
+  public RegexRule(
+      String name, String pattern, String output, String description, String source, double weight) {
+    this(CompiledRule.compile(pattern, output), name, description, source, weight);
+  }
+
+  /** Creates a rule that is already compiled, e.g. by a {@link RuleBundle}. */
+  RegexRule(CompiledRule compiled, String name, String description, String source, double weight) {
+    if (!(weight >= 0) || Double.isInfinite(weight)) {
+      throw new IllegalArgumentException(
+          "Weight of rule " + name + " is no finite number >= 0: " + weight);
+    }
+    this.name = name;
+    this.pattern = compiled.regex().pattern();
+    this.description = description;
+    this.source = source;
+    this.weight = weight;
+    this.compiled = compiled;
+    this.facts = RuleFacts.of(compiled);
+  }
 
   /**
    * Applies the regex rule to the given drudle string and replace the output vars with the matching
@@ -30,108 +68,97 @@ public class RegexRule implements DrudleRule {
    */
   @Override
   public List<DrudleRuleResult> apply(String drudle) {
-    List<DrudleRuleResult> ret = new ArrayList<>();
-
-    var regex = Pattern.compile(pattern);
-    var matcher = regex.matcher(drudle);
+    List<MatchResult> matches = new ArrayList<>();
+    var matcher = compiled.regex().matcher(drudle);
     while (matcher.find()) {
-      List<String> matchingParts = new ArrayList<>();
-      List<String> usedParts = new ArrayList<>();
-      final Map<String, Set<String>> valuesToParam = new HashMap<>();
-      List<String> groupNames =
-          new ArrayList<>(
-              regex.namedGroups().keySet().stream()
-                  .sorted(Comparator.comparingInt(matcher::start))
-                  .toList());
-      boolean hasSubGroups = !groupNames.isEmpty();
-      String head = drudle.substring(0, matcher.start());
-      String content = drudle.substring(matcher.start(), matcher.end());
-      List<String> subContents = new ArrayList<>();
-      String tail = drudle.substring(matcher.end());
-      // fill regex groups and head/tail/content
-      groupNames.add("head");
-      groupNames.add("content");
-      groupNames.add("tail");
-      String[] contentAfter = {content};
-      UnaryOperator<String> getValue =
-          (String name) -> {
-            if (name.equals("head")) return head;
-            if (name.equals("content")) return content;
-            if (name.equals("tail")) return tail;
-            String value = matcher.group(name);
-            int val_start = matcher.start(name);
-            int val_end = matcher.end(name);
-            String contentBefore =
-                contentAfter[0].substring(
-                    0, val_start - matcher.start() - (content.length() - contentAfter[0].length()));
-            contentAfter[0] = contentAfter[0].substring(contentBefore.length() + value.length());
-            subContents.add(contentBefore);
-            return value;
-          };
-      boolean missingGroup = false;
-      for (var groupName : groupNames) {
-        String value = getValue.apply(groupName);
-        if (output.contains("{" + groupName + "}")) {
-          if (output.contains("{" + groupName + "}*") && value.isEmpty()) {
-            log.info(
-                "RegexRule '{}' drudle '{}': value is missing for group: {}",
-                name,
-                drudle,
-                groupName);
-            missingGroup = true;
-            break;
-          }
-
-          usedParts.add(value);
-          Set<String> set = valuesToParam.getOrDefault(value, new HashSet<>());
-          set.add(groupName);
-          valuesToParam.put(value, set);
-        }
-        matchingParts.add(value);
-      }
-      // split content by subgroups if needed
-      if (hasSubGroups) {
-        matchingParts.remove(content);
-        subContents.add(contentAfter[0]);
-        matchingParts.addAll(subContents);
+      matches.add(matcher.toMatchResult());
+    }
+    return apply(drudle, MatchSplit.of(drudle, matches, compiled));
+  }
+
+  /**
+   * Applies the rule to matches of its pattern that are already cut into parts, e.g. by a {@link
+   * RuleIndex} that shares the splits between all rules with the same pattern.
+   *
+   * @param drudle the input drudle string
+   * @param splits the splits of the matches of the pattern on the drudle
+   * @return a List of {@link DrudleRuleResult} for the splits that fill all required slots
+   */
+  public List<DrudleRuleResult> apply(String drudle, List<MatchSplit> splits) {
+    List<DrudleRuleResult> ret = new ArrayList<>(splits.size());
+    for (var split : splits) {
+      var result = applySplit(drudle, split);
+      if (result != null) {
+        ret.add(result);
       }
-      // precheck if all parts are used
-      if (matchingParts.stream().mapToInt(String::length).sum() == drudle.length() && !missingGroup) {
-        DrudleRuleResult newDrudle =
-            new DrudleRuleResult(
-                name,
-                drudle,
-                matchingParts,
-                usedParts,
-                parts -> {
-                  Map<String, String> mappedParts =
-                      parts.entrySet().stream()
-                          .filter(entry -> valuesToParam.containsKey(entry.getKey()))
-                          .flatMap(
-                              entry ->
-                                  valuesToParam.get(entry.getKey()).stream()
-                                      .map(v -> Map.entry(v, entry.getValue())))
-                          .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
-                  return getOutput(mappedParts);
-                });
-        ret.add(newDrudle);
-      } else {
+    }
+    return ret;
+  }
+
+  CompiledRule getCompiled() {
+    return compiled;
+  }
+
+  RuleFacts getFacts() {
+    return facts;
+  }
+
+  private DrudleRuleResult applySplit(String drudle, MatchSplit split) {
+    var slots = compiled.slots();
+    // the solved results hold one result per distinct part, in the match order of the used slots
+    int[] partStarts = new int[slots.size()];
+    int[] partEnds = new int[slots.size()];
+    int partCount = 0;
+    int[] slotToDistinctPart = new int[slots.size()];
+    for (int k = 0; k < slots.size(); k++) {
+      int i = split.slot(k);
+      var slot = slots.get(i);
+      if (!slot.used()) continue;
+      int start = split.starts()[i];
+      int end = split.ends()[i];
+      if (slot.required() && start == end) {
         log.info(
-            "RegexRule '{}' did not use all parts with pattern '{}'. Drudle: '{}', matched parts: {}",
+            "RegexRule '{}' drudle '{}': value is missing for group: {}",
             name,
-            pattern,
             drudle,
-            matchingParts);
+            slot.name());
+        return null;
+      }
+      if (facts.growthCycle() && end - start == drudle.length()) {
+        // the rule would solve its input with its own results, see RuleFacts
+        log.debug("RegexRule '{}' drudle '{}': not applied to its whole input", name, drudle);
+        return null;
       }
+      int part = 0;
+      while (part < partCount
+          && !sameText(drudle, partStarts[part], partEnds[part], start, end)) {
+        part++;
+      }
+      if (part == partCount) {
+        partStarts[part] = start;
+        partEnds[part] = end;
+        partCount++;
+      }
+      slotToDistinctPart[i] = part;
     }
-    return ret;
+    var template = compiled.template();
+    int[] slotToPart = new int[template.slotCount()];
+    for (int i = 0; i < slotToPart.length; i++) {
+      slotToPart[i] = slotToDistinctPart[template.slot(i)];
+    }
+    return new DrudleRuleResult(
+        name,
+        drudle,
+        split.bounds(),
+        Arrays.copyOf(partStarts, partCount),
+        Arrays.copyOf(partEnds, partCount),
+        template,
+        slotToPart);
   }
 
-  private String getOutput(Map<String, String> fulfilledParts) {
-    var result = output.replace("*", "");
-    for (var entry : fulfilledParts.entrySet()) {
-      result = result.replace("{" + entry.getKey() + "}", entry.getValue());
-    }
-    return result;
+  /** @return true if the two spans of the drudle have the same text */
+  private static boolean sameText(String drudle, int start, int end, int otherStart, int otherEnd) {
+    return end - start == otherEnd - otherStart
+        && drudle.regionMatches(start, drudle, otherStart, end - start);
   }
 }
@@ -0,0 +1,222 @@
+package de.mankianer.drudle;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Thread-safe cache of the rendered responses of {@code GET /drudle/{drudle}}.<br>
+ * For a fixed rule set the response only depends on the drudle, so entries are keyed by the
+ * normalized drudle and the rule set version, and entries of an older version are dropped as soon
+ * as a newer version is stored, like in the {@link SolvedCache}. An entry holds the bytes of the
+ * response, plain and gzipped, and its strong ETag, so a hit costs one lookup and no rendering,
+ * compressing or decompressing. Only complete responses are stored. The cache is bounded by its
+ * number of entries and the number of bytes they hold, the least recently used entries are evicted
+ * first.
+ */
+@Component
+class ResponseCache {
+
+  /**
+   * Snapshot of the cache statistics.
+   *
+   * @param hits lookups that found an entry
+   * @param misses lookups that found no entry
+   * @param evictions entries removed to stay within the bounds
+   * @param size the current number of entries
+   * @param bytes the current number of bytes of all entries, plain and gzipped
+   */
+  record Stats(long hits, long misses, long evictions, int size, long bytes) {}
+
+  private record Key(long rulesVersion, String drudle) {}
+
+  /** Writes a response. */
+  @FunctionalInterface
+  interface Body {
+    void writeTo(Writer out) throws IOException;
+  }
+
+  /**
+   * A rendered response.
+   *
+   * @param body the UTF-8 bytes of the response
+   * @param gzip the gzipped {@code body}
+   * @param etag the strong ETag of the uncompressed response, quoted
+   */
+  record Entry(byte[] body, byte[] gzip, String etag) {
+
+    static Entry of(long rulesVersion, String body) {
+      return of(rulesVersion, out -> out.write(body));
+    }
+
+    /**
+     * Renders a response, hashes it and compresses it once, so hits in either content coding only
+     * copy bytes.
+     *
+     * @param rulesVersion the version of the rule set the response was solved with
+     * @param body writes the response
+     * @return the entry of the response
+     */
+    static Entry of(long rulesVersion, Body body) {
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+      var plain = new ByteArrayOutputStream(4096);
+      try (var out =
+          new BufferedWriter(
+              new OutputStreamWriter(new DigestOutputStream(plain, digest), StandardCharsets.UTF_8))) {
+        body.writeTo(out);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      byte[] bytes = plain.toByteArray();
+      var gzip = new ByteArrayOutputStream(Math.max(bytes.length / 4, 64));
+      try (var out = new GZIPOutputStream(gzip)) {
+        out.write(bytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      String hash = HexFormat.of().formatHex(digest.digest(), 0, 16);
+      return new Entry(bytes, gzip.toByteArray(), "\"" + rulesVersion + "-" + hash + "\"");
+    }
+
+    /** @return the number of bytes the entry holds, plain and gzipped */
+    long size() {
+      return (long) body.length + gzip.length;
+    }
+
+    /**
+     * @param gzip true for the gzipped response
+     * @return the strong ETag of the response, a content coding has its own ETag
+     */
+    String etag(boolean gzip) {
+      return gzip ? etag.substring(0, etag.length() - 1) + "-gzip\"" : etag;
+    }
+
+    /**
+     * @param ifNoneMatch the {@code If-None-Match} header, may be null
+     * @return true if the client already has the response, in any content coding
+     */
+    boolean matches(String ifNoneMatch) {
+      if (ifNoneMatch == null) return false;
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.strip();
+        if (tag.startsWith("W/")) tag = tag.substring(2);
+        if (tag.equals("*") || tag.equals(etag(false)) || tag.equals(etag(true))) return true;
+      }
+      return false;
+    }
+  }
+
+  private final int maxEntries;
+  private final long maxBytes;
+
+  /** Time clients may use a response without asking again. */
+  @Getter private final Duration maxAge;
+
+  /** Access ordered, so iteration starts at the least recently used entry. */
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long rulesVersion;
+  private long bytes;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  ResponseCache(int maxEntries, long maxBytes, Duration maxAge) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+  }
+
+  @Autowired
+  ResponseCache(DrudleProperties properties) {
+    this(
+        properties.getCache().getResponse().getMaxEntries(),
+        properties.getCache().getResponse().getMaxBytes(),
+        properties.getCache().getResponse().getMaxAge());
+  }
+
+  /** @return false if the cache can not hold any entry, so responses need no entry */
+  boolean isEnabled() {
+    return maxEntries > 0 && maxBytes > 0;
+  }
+
+  /**
+   * @param rulesVersion the version of the rule set the response has to be solved with
+   * @param drudle the drudle, the cache normalizes it like {@link DrudleServiceImpl#normalize(String)}
+   * @return the cached response, or null if the drudle is not cached
+   */
+  Entry get(long rulesVersion, String drudle) {
+    var key = new Key(rulesVersion, DrudleServiceImpl.normalize(drudle));
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry;
+  }
+
+  /**
+   * Renders, compresses and stores the complete response of a drudle.
+   *
+   * @param rulesVersion the version of the rule set the response was solved with
+   * @param drudle the drudle, the cache normalizes it like {@link DrudleServiceImpl#normalize(String)}
+   * @param body writes the response
+   * @return the entry of the response, also if it was not stored
+   */
+  Entry put(long rulesVersion, String drudle, Body body) {
+    var entry = Entry.of(rulesVersion, body);
+    if (!isEnabled() || entry.size() > maxBytes) return entry;
+    synchronized (this) {
+      if (rulesVersion < this.rulesVersion) return entry;
+      if (rulesVersion > this.rulesVersion) {
+        clear();
+        this.rulesVersion = rulesVersion;
+      }
+      var previous = entries.put(new Key(rulesVersion, DrudleServiceImpl.normalize(drudle)), entry);
+      bytes += entry.size() - (previous == null ? 0 : previous.size());
+      Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+      while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+        bytes -= eldest.next().getValue().size();
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+    return entry;
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  synchronized Stats stats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+  }
+}
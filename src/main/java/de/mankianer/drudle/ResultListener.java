@@ -0,0 +1,30 @@
+package de.mankianer.drudle;
+
+/**
+ * Receives the results of a drudle while it is solved, see {@link DrudleService#processDrudle(String,
+ * SolveLimits, ResultListener)}. With the parallel engine the methods are called from several
+ * threads.
+ */
+@FunctionalInterface
+public interface ResultListener {
+
+  /** Listener that ignores all results. */
+  ResultListener NONE = result -> true;
+
+  /**
+   * Called once for every result of the drudle, as soon as it is found.
+   *
+   * @param result the new result
+   * @return false to stop the search
+   */
+  boolean onResult(DrudleRuleResult result);
+
+  /**
+   * Checked before every step of the search.
+   *
+   * @return true to stop the search, e.g. because the client is gone
+   */
+  default boolean isCancelled() {
+    return false;
+  }
+}
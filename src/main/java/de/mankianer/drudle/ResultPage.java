@@ -0,0 +1,99 @@
+package de.mankianer.drudle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One page of the results of a drudle.<br>
+ * The results come cheapest first, in the order of {@link
+ * DrudleService#processDrudleCheapest(String, SolveLimits, int, ResultListener)}. That order only
+ * depends on the drudle and the rules, and a search for more results finds the same results first,
+ * so for the same rules every request sees the same pages. The search stops at the end of the
+ * requested page: the results behind it are neither solved nor sent, and the total is only known
+ * once a search found every result. The trees are only built for the results of the page.
+ *
+ * @param items the results of the page with their trees
+ * @param total the number of results, null if the search stopped at the end of the page
+ * @param nextOffset the offset of the next page, null if this is the last page
+ */
+record ResultPage(List<Item> items, Integer total, Integer nextOffset) {
+
+  /**
+   * @param result the result
+   * @param tree the derivation tree of the result
+   */
+  record Item(DrudleRuleResult result, ResultTree tree) {}
+
+  /**
+   * @param results the results of the drudle up to the end of the page, in the order they were found
+   * @param offset the index of the first result of the page
+   * @param limit the maximum number of results of the page
+   * @param more true if the search stopped at the end of the page, so more results may follow
+   * @return the page
+   */
+  static ResultPage of(Collection<DrudleRuleResult> results, int offset, int limit, boolean more) {
+    int end = (int) Math.min((long) offset + limit, results.size());
+    List<Item> items = new ArrayList<>(Math.max(end - offset, 0));
+    int i = 0;
+    for (var result : results) {
+      if (i >= end) break;
+      if (i++ >= offset) {
+        items.add(new Item(result, ResultTree.of(result)));
+      }
+    }
+    return new ResultPage(
+        List.copyOf(items),
+        more ? null : results.size(),
+        more || end < results.size() ? end : null);
+  }
+
+  /**
+   * @param rulesVersion the version of the rules the results were solved with
+   * @param offset the offset of the next page
+   * @return the opaque cursor of the next page
+   */
+  static String cursor(long rulesVersion, int offset) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString((rulesVersion + ":" + offset).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param cursor a cursor of {@link #cursor(long, int)}, null for the first page
+   * @param rulesVersion the version of the current rules
+   * @return the offset of the page
+   * @throws IllegalArgumentException if the cursor is malformed or of other rules, whose results
+   *     may be in another order
+   */
+  static int offset(String cursor, long rulesVersion) {
+    if (cursor == null) return 0;
+    String[] parts;
+    try {
+      parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+    }
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor);
+    }
+    long version;
+    int offset;
+    try {
+      version = Long.parseLong(parts[0]);
+      offset = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+    }
+    if (version != rulesVersion) {
+      throw new IllegalArgumentException("Cursor of rules version %d, the rules are at version %d"
+          .formatted(version, rulesVersion));
+    }
+    if (offset < 0) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor);
+    }
+    return offset;
+  }
+}
@@ -0,0 +1,48 @@
+package de.mankianer.drudle;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact derivation tree of a result: the rule, the span of the drudle it was applied to and the
+ * trees of the parts it used. Parts that are kept as they are have no tree.
+ *
+ * @param rule the name of the rule
+ * @param start the start index of the input of the rule in the drudle, null if it is unknown, e.g.
+ *     for a part that is no substring of the drudle
+ * @param end the end index (exclusive) of the input in the drudle, null if it is unknown
+ * @param children the trees of the used parts, in the order of the parts
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+record ResultTree(String rule, Integer start, Integer end, List<ResultTree> children) {
+
+  /**
+   * @param result a result of the drudle
+   * @return the derivation tree of the result
+   */
+  static ResultTree of(DrudleRuleResult result) {
+    return of(result, 0);
+  }
+
+  private static ResultTree of(DrudleRuleResult result, Integer start) {
+    Integer end = start == null ? null : start + result.getInput().length();
+    List<ResultTree> children = new ArrayList<>();
+    if (result instanceof DrudleRuleResultSolved solved && !solved.getParts().isEmpty()) {
+      var parts = solved.getParts();
+      for (int i = 0; i < parts.size(); i++) {
+        if (parts.get(i).isUnsolvedValue()) continue;
+        int partStart = solved.getPartStart(i);
+        children.add(of(parts.get(i), start == null || partStart < 0 ? null : start + partStart));
+      }
+    } else {
+      // the rule only gave the trace of its derivation, the results before it are its children
+      var previous = result.getPreviousResults();
+      for (int i = 0; i < previous.size() - 1; i++) {
+        children.add(new ResultTree(previous.get(i).getRuleName(), null, null, List.of()));
+      }
+    }
+    return new ResultTree(result.getRuleName(), start, end, List.copyOf(children));
+  }
+}
@@ -0,0 +1,186 @@
+package de.mankianer.drudle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Binary form of the YAML rules, compiled by the build (Gradle task {@code ruleBundle}).<br>
+ * The bundle holds every rule with its validated pattern, its slots and its parsed {@link
+ * OutputTemplate}, so loading it only has to compile the patterns: no YAML is parsed and no output
+ * is scanned for slots. The bundle is memory-mapped if it is a file, e.g. in an exploded
+ * deployment, otherwise it is read into memory once.
+ *
+ * <pre>
+ * bundle   = MAGIC FORMAT count:int rule*
+ * rule     = source name pattern description weight:double slots template
+ * slots    = count:int (name flags:byte)*
+ * template = count:int slot:int* literal(count + 1)
+ * string   = length:int utf-8 bytes
+ * </pre>
+ */
+@Log4j2
+public final class RuleBundle {
+
+  /** Classpath location of the bundle. */
+  static final String LOCATION = "rule-bundle/rules.bin";
+
+  private static final int MAGIC = 0x44524231; // "DRB1"
+  private static final int FORMAT = 2;
+
+  private static final int GROUP = 1;
+  private static final int USED = 2;
+  private static final int REQUIRED = 4;
+
+  private RuleBundle() {}
+
+  /**
+   * Compiles the YAML rules of a directory into a bundle.
+   *
+   * @param args the directory with the {@code *.yaml} files and the bundle file to write
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("Usage: RuleBundle <rules directory> <bundle file>");
+    }
+    List<RegexRule> rules = new ArrayList<>();
+    try (Stream<Path> files = Files.list(Path.of(args[0]))) {
+      for (Path file : files.filter(f -> YamlRules.isYaml(f.toString())).sorted().toList()) {
+        rules.addAll(YamlRules.load(new FileSystemResource(file)));
+      }
+    }
+    Path bundle = Path.of(args[1]);
+    Files.createDirectories(bundle.getParent());
+    try (OutputStream out = Files.newOutputStream(bundle)) {
+      write(rules, out);
+    }
+    log.info("Wrote {} rules to {}", rules.size(), bundle);
+  }
+
+  static void write(List<RegexRule> rules, OutputStream out) throws IOException {
+    var data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(FORMAT);
+    data.writeInt(rules.size());
+    for (RegexRule rule : rules) {
+      var compiled = rule.getCompiled();
+      writeString(data, rule.getSource());
+      writeString(data, rule.getName());
+      writeString(data, rule.getPattern());
+      writeString(data, rule.getDescription() == null ? "" : rule.getDescription());
+      data.writeDouble(rule.getWeight());
+      data.writeInt(compiled.slots().size());
+      for (var slot : compiled.slots()) {
+        writeString(data, slot.name());
+        data.writeByte(
+            (slot.group() ? GROUP : 0) | (slot.used() ? USED : 0) | (slot.required() ? REQUIRED : 0));
+      }
+      var template = compiled.template();
+      data.writeInt(template.slotCount());
+      for (int i = 0; i < template.slotCount(); i++) {
+        data.writeInt(template.slot(i));
+      }
+      for (int i = 0; i <= template.slotCount(); i++) {
+        writeString(data, template.literal(i));
+      }
+    }
+    data.flush();
+  }
+
+  private static void writeString(DataOutputStream data, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  /**
+   * @param resource the bundle
+   * @return the rules of the bundle, in the order they were written
+   * @throws IOException if the bundle can not be read or was written by another format version
+   */
+  static List<RegexRule> read(Resource resource) throws IOException {
+    return read(map(resource));
+  }
+
+  static List<RegexRule> read(ByteBuffer buffer) throws IOException {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a rule bundle");
+      }
+      int format = buffer.getInt();
+      if (format != FORMAT) {
+        throw new IOException("Unsupported rule bundle format: " + format);
+      }
+      int count = buffer.getInt();
+      List<RegexRule> rules = new ArrayList<>(count);
+      for (int r = 0; r < count; r++) {
+        String source = readString(buffer);
+        String name = readString(buffer);
+        var regex = Pattern.compile(readString(buffer));
+        String description = readString(buffer);
+        double weight = buffer.getDouble();
+        int slotCount = buffer.getInt();
+        List<CompiledRule.Slot> slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+          String slotName = readString(buffer);
+          int flags = buffer.get();
+          slots.add(
+              new CompiledRule.Slot(
+                  slotName, (flags & GROUP) != 0, (flags & USED) != 0, (flags & REQUIRED) != 0));
+        }
+        if (slotCount != regex.namedGroups().size() + 3) {
+          throw new IOException("Slots of rule " + name + " do not match its pattern");
+        }
+        int templateSlots = buffer.getInt();
+        List<Integer> slotIndices = new ArrayList<>(templateSlots);
+        for (int i = 0; i < templateSlots; i++) {
+          slotIndices.add(buffer.getInt());
+        }
+        List<String> literals = new ArrayList<>(templateSlots + 1);
+        for (int i = 0; i <= templateSlots; i++) {
+          literals.add(readString(buffer));
+        }
+        var template = new OutputTemplate(literals, slotIndices);
+        rules.add(
+            new RegexRule(
+                new CompiledRule(regex, List.copyOf(slots), template),
+                name,
+                description.isEmpty() ? null : description,
+                source,
+                weight));
+      }
+      return rules;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Rule bundle is truncated", e);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static ByteBuffer map(Resource resource) throws IOException {
+    if (resource.isFile()) {
+      try (var channel = FileChannel.open(resource.getFile().toPath())) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+    return ByteBuffer.wrap(resource.getContentAsByteArray());
+  }
+}
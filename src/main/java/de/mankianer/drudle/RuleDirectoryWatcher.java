@@ -0,0 +1,88 @@
+package de.mankianer.drudle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Reloads the rules whenever a YAML file in the rules directory is created, changed or deleted.<br>
+ * Editors and deployments often write several files or a file in several steps, so the reload waits
+ * until the directory was quiet for {@link #QUIET_PERIOD}. A reload that fails, e.g. because of a
+ * broken pattern, is logged and the service keeps solving with the rules it has.
+ */
+@Log4j2
+final class RuleDirectoryWatcher implements Closeable {
+
+  static final Duration QUIET_PERIOD = Duration.ofMillis(500);
+
+  /** Reloads the rules, called on the watcher thread. */
+  interface Reload {
+    void reload() throws IOException;
+  }
+
+  private final Path directory;
+  private final Reload reload;
+  private final WatchService watchService;
+  private final Thread thread;
+
+  RuleDirectoryWatcher(Path directory, Reload reload) throws IOException {
+    this.directory = directory;
+    this.reload = reload;
+    watchService = FileSystems.getDefault().newWatchService();
+    directory.register(
+        watchService,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.ENTRY_DELETE);
+    thread = Thread.ofPlatform().name("drudle-rule-watcher").daemon().start(this::run);
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        boolean changed = poll(watchService.take());
+        // collect the events of the quiet period into one reload
+        WatchKey key;
+        while ((key = watchService.poll(QUIET_PERIOD.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+          changed |= poll(key);
+        }
+        if (changed) {
+          try {
+            reload.reload();
+          } catch (IOException | RuntimeException e) {
+            log.error("Failed to reload the rules of {}, keeping the current rules", directory, e);
+          }
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      log.debug("Stopped watching {}", directory);
+    }
+  }
+
+  /** Takes the events of the key, true if one of them is about a YAML file. */
+  private static boolean poll(WatchKey key) {
+    boolean ret = false;
+    for (var event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW
+          || event.context() instanceof Path file && YamlRules.isYaml(file.toString())) {
+        ret = true;
+      }
+    }
+    key.reset();
+    return ret;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    thread.interrupt();
+  }
+}
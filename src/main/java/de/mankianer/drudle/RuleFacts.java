@@ -0,0 +1,50 @@
+package de.mankianer.drudle;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Facts about a {@link RegexRule}, found when the rule is loaded.<br>
+ * The parts a rule hands to its output are always parts of its input, the output itself is never
+ * solved again. So a rule can only make the search loop if it hands its whole input on as a part:
+ * the part is the input again, and every result of the input fills the part and makes a new result
+ * of the input. If the output adds anything to the part, e.g. {@code <b>{content}</b>}, the results
+ * grow without end. Such a rule is a growth cycle: it is only applied where each used part is
+ * shorter than the input, which bounds its depth to the length of the input.
+ *
+ * @param pattern the facts about the pattern, shared by all rules with the same pattern
+ * @param lengthChange the literal text of the output minus the shortest match, how much longer the
+ *     rule makes its input when it is applied to the shortest match and the parts are kept as they
+ *     are
+ * @param copiesParts true if the output uses a part more than once, so its length grows with the
+ *     length of the input
+ * @param growthCycle true if the rule can hand its whole input on as a part and adds to it
+ */
+record RuleFacts(PatternFacts pattern, int lengthChange, boolean copiesParts, boolean growthCycle) {
+
+  static RuleFacts of(CompiledRule compiled) {
+    var pattern = PatternFacts.of(compiled.regex());
+    var template = compiled.template();
+    boolean forwardsInput = false;
+    Set<Integer> used = new HashSet<>();
+    boolean copiesParts = false;
+    for (int i = 0; i < template.slotCount(); i++) {
+      var slot = compiled.slots().get(template.slot(i));
+      copiesParts |= !used.add(template.slot(i));
+      forwardsInput |=
+          switch (slot.name()) {
+            case CompiledRule.CONTENT -> true;
+            // an empty match leaves the whole input to the head or the tail
+            case CompiledRule.HEAD, CompiledRule.TAIL -> pattern.minLength() == 0;
+            default -> pattern.canBeWholeMatch(slot.name());
+          };
+    }
+    // the output is just the part, its results are the results of the input again
+    boolean passThrough = template.slotCount() == 1 && template.literalLength() == 0;
+    return new RuleFacts(
+        pattern,
+        template.literalLength() - pattern.minLength(),
+        copiesParts,
+        forwardsInput && !passThrough);
+  }
+}
@@ -0,0 +1,206 @@
+package de.mankianer.drudle;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.regex.MatchResult;
+
+/**
+ * Selects the rules that can match a drudle.<br>
+ * {@link RegexRule}s are grouped by pattern, every pattern is matched once per drudle and the
+ * {@link MatchSplit}s are shared by all rules of the group. All literal patterns are put into one
+ * {@link LiteralAutomaton}, so a drudle is scanned once for all of them and only the groups with an
+ * occurrence are applied. Patterns with real regex features are matched one by one, other {@link
+ * DrudleRule}s are applied one by one. So are subclasses of {@link RegexRule}: they may override
+ * {@link RegexRule#apply(String)}, the index can not know when they do not match.
+ */
+final class RuleIndex {
+
+  /** A rule with its position in the rule list, results are returned in rule list order. */
+  private record IndexedRule(int ordinal, DrudleRule rule) {}
+
+  /** All {@link RegexRule}s with the same pattern. */
+  private record PatternGroup(CompiledRule compiled, PatternFacts facts, List<IndexedRule> rules) {}
+
+  private record Candidate(IndexedRule rule, List<MatchSplit> splits) {}
+
+  private final LiteralAutomaton automaton;
+
+  /** Groups per literal pattern id of the {@link #automaton}. */
+  private final List<PatternGroup> literalGroups;
+
+  /** Groups of patterns that have to be matched against every drudle. */
+  private final List<PatternGroup> regexGroups;
+
+  /** Rules that are no {@link RegexRule} and have to be applied to every drudle. */
+  private final List<IndexedRule> scanRules;
+
+  private final DrudleMetrics metrics;
+
+  /** Weight of each rule by name, see {@link DrudleRule#getWeight()}. */
+  private final Map<String, Double> weights = new HashMap<>();
+
+  private final double minWeight;
+
+  RuleIndex(List<? extends DrudleRule> rules) {
+    this(rules, DrudleMetrics.NONE);
+  }
+
+  /**
+   * @param rules the rules, results are returned in this order
+   * @param metrics records the time and the results of every rule applied
+   */
+  RuleIndex(List<? extends DrudleRule> rules, DrudleMetrics metrics) {
+    this.metrics = metrics;
+    Map<String, List<IndexedRule>> byLiteral = new LinkedHashMap<>();
+    Map<String, List<IndexedRule>> byRegex = new LinkedHashMap<>();
+    List<IndexedRule> scan = new ArrayList<>();
+    double min = Double.MAX_VALUE;
+    for (int i = 0; i < rules.size(); i++) {
+      var rule = new IndexedRule(i, rules.get(i));
+      // rules with the same name share their lowest weight, so a bound on it never overestimates
+      weights.merge(rule.rule().getName(), rule.rule().getWeight(), Math::min);
+      min = Math.min(min, rule.rule().getWeight());
+      if (rule.rule() instanceof RegexRule regexRule && regexRule.getClass() == RegexRule.class) {
+        var groups = regexRule.getCompiled().isLiteral() ? byLiteral : byRegex;
+        groups.computeIfAbsent(regexRule.getPattern(), k -> new ArrayList<>()).add(rule);
+      } else {
+        scan.add(rule);
+      }
+    }
+    automaton = new LiteralAutomaton(List.copyOf(byLiteral.keySet()));
+    literalGroups = byLiteral.values().stream().map(RuleIndex::toGroup).toList();
+    regexGroups = byRegex.values().stream().map(RuleIndex::toGroup).toList();
+    scanRules = List.copyOf(scan);
+    minWeight = rules.isEmpty() ? 0 : min;
+  }
+
+  private static PatternGroup toGroup(List<IndexedRule> rules) {
+    var rule = (RegexRule) rules.getFirst().rule();
+    return new PatternGroup(rule.getCompiled(), rule.getFacts().pattern(), List.copyOf(rules));
+  }
+
+  /**
+   * Applies all rules that can match the drudle.
+   *
+   * @param drudle the input drudle string
+   * @return the results of all rules, in rule list order
+   */
+  List<DrudleRuleResult> apply(String drudle) {
+    List<Candidate> candidates = new ArrayList<>();
+    findMatches(
+        drudle,
+        0,
+        drudle.length(),
+        (group, found) -> {
+          // split once, shared by every rule of the group
+          var splits = MatchSplit.of(drudle, found, group.compiled());
+          if (splits.isEmpty()) return;
+          group.rules().forEach(rule -> candidates.add(new Candidate(rule, splits)));
+        });
+    scanRules.forEach(rule -> candidates.add(new Candidate(rule, null)));
+    candidates.sort(Comparator.comparingInt(candidate -> candidate.rule().ordinal()));
+
+    List<DrudleRuleResult> ret = new ArrayList<>();
+    for (var candidate : candidates) {
+      var rule = candidate.rule().rule();
+      long start = System.nanoTime();
+      var results =
+          candidate.splits() == null
+              ? rule.apply(drudle)
+              : ((RegexRule) rule).apply(drudle, candidate.splits());
+      metrics.applied(rule, results.size(), System.nanoTime() - start);
+      ret.addAll(results);
+    }
+    return ret;
+  }
+
+  /**
+   * Selects the rules that can match the span {@code [start, end)} of the text, without cutting
+   * the text into substrings. The span is matched as if it was the whole text: anchors match at its
+   * bounds and lookarounds do not see past them.
+   *
+   * @param text the text
+   * @param start the start index of the span
+   * @param end the end index (exclusive) of the span
+   * @return the rules with their splits, in rule list order; the splits are null for rules that are
+   *     no {@link RegexRule} and have to be applied to the substring
+   */
+  List<SpanCandidate> candidates(String text, int start, int end) {
+    List<SpanCandidate> ret = new ArrayList<>();
+    findMatches(
+        text,
+        start,
+        end,
+        (group, found) -> {
+          var splits = SpanSplit.of(start, end, found, group.compiled());
+          if (splits.isEmpty()) return;
+          group.rules().forEach(rule -> ret.add(new SpanCandidate(rule.ordinal(), rule.rule(), splits)));
+        });
+    scanRules.forEach(rule -> ret.add(new SpanCandidate(rule.ordinal(), rule.rule(), null)));
+    ret.sort(Comparator.comparingInt(SpanCandidate::ordinal));
+    return ret;
+  }
+
+  /**
+   * A rule that can match a span, see {@link #candidates(String, int, int)}.
+   *
+   * @param ordinal the position of the rule in the rule list
+   * @param rule the rule
+   * @param splits the splits of the pattern of a {@link RegexRule}, null for other rules
+   */
+  record SpanCandidate(int ordinal, DrudleRule rule, List<SpanSplit> splits) {}
+
+  DrudleMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * @param ruleName the name of a rule
+   * @return the weight of the rule, 1 if the index does not know it
+   */
+  double weight(String ruleName) {
+    return weights.getOrDefault(ruleName, 1.0);
+  }
+
+  /** @return the lowest weight of all rules */
+  double minWeight() {
+    return minWeight;
+  }
+
+  /** Hands the matches of every pattern with at least one match in {@code text[start, end)} to the sink. */
+  private void findMatches(
+      String text, int start, int end, BiConsumer<PatternGroup, List<MatchResult>> sink) {
+    // non-overlapping occurrences per pattern, like Matcher.find() would report them
+    Map<Integer, List<MatchResult>> matches = new HashMap<>();
+    automaton.scan(
+        text,
+        start,
+        end,
+        (id, from, to) -> {
+          var found = matches.computeIfAbsent(id, k -> new ArrayList<>());
+          if (found.isEmpty() || found.getLast().end() <= from) {
+            found.add(new LiteralMatch(text, from, to));
+          }
+        });
+    matches.forEach((id, found) -> sink.accept(literalGroups.get(id), found));
+
+    for (var group : regexGroups) {
+      // too short or a char every match needs is missing, the pattern can not match
+      if (!group.facts().canMatch(text, start, end)) continue;
+      List<MatchResult> found = new ArrayList<>();
+      // a region with anchoring and opaque bounds, as if the span was the whole text
+      var matcher = group.compiled().regex().matcher(text).region(start, end);
+      while (matcher.find()) {
+        found.add(matcher.toMatchResult());
+      }
+      if (!found.isEmpty()) {
+        sink.accept(group, found);
+      }
+    }
+  }
+}
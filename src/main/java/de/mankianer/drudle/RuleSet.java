@@ -0,0 +1,37 @@
+package de.mankianer.drudle;
+
+import java.util.List;
+
+/**
+ * Immutable snapshot of the rules a drudle is solved with.<br>
+ * A request reads the current snapshot once and solves with it until it is done, a reload builds a
+ * new snapshot and swaps it in, so requests never lock and never see a half loaded rule list. The
+ * version of a snapshot is higher than the version of every snapshot before it and keys everything
+ * derived from the rules, e.g. the {@link SolvedCache}.
+ *
+ * @param version the version of the rules
+ * @param rules the rules, in the order their results are returned
+ * @param index the index over the rules
+ */
+record RuleSet(long version, List<DrudleRule> rules, RuleIndex index) {
+
+  static final RuleSet EMPTY = new RuleSet(0, List.of(), new RuleIndex(List.of()));
+
+  RuleSet {
+    rules = List.copyOf(rules);
+  }
+
+  /**
+   * @param rules the rules of the new snapshot
+   * @param metrics records the rules applied with the new snapshot
+   * @return the snapshot that follows this one
+   */
+  RuleSet next(List<? extends DrudleRule> rules, DrudleMetrics metrics) {
+    List<DrudleRule> copy = List.copyOf(rules);
+    return new RuleSet(version + 1, copy, new RuleIndex(copy, metrics));
+  }
+
+  RuleSetInfo info() {
+    return new RuleSetInfo(version, rules.size());
+  }
+}
@@ -0,0 +1,9 @@
+package de.mankianer.drudle;
+
+/**
+ * Describes the rules a {@link DrudleService} currently solves with.
+ *
+ * @param version the version of the rules, higher after every reload
+ * @param rules the number of rules
+ */
+public record RuleSetInfo(long version, int rules) {}
@@ -0,0 +1,41 @@
+package de.mankianer.drudle;
+
+import java.io.IOException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint {@code rules}: the version and size of the current rules, and a reload of the
+ * rules.<br>
+ * Reloading costs a full parse of every rule file, so the endpoint is not exposed over the web by
+ * default. Add {@code rules} to {@code management.endpoints.web.exposure.include} to reach it at
+ * {@code GET /actuator/rules} and {@code POST /actuator/rules}, best behind the management port or
+ * Spring Security.
+ */
+@Component
+@Endpoint(id = "rules")
+class RulesEndpoint {
+
+  private final DrudleService drudleService;
+
+  RulesEndpoint(DrudleService drudleService) {
+    this.drudleService = drudleService;
+  }
+
+  @ReadOperation
+  public RuleSetInfo rules() {
+    return drudleService.getRuleSetInfo();
+  }
+
+  /**
+   * Loads the rules again and swaps them in, requests that are running finish with the old rules.
+   *
+   * @return the version and size of the new rules
+   */
+  @WriteOperation
+  public RuleSetInfo reload() throws IOException {
+    return drudleService.reloadRules();
+  }
+}
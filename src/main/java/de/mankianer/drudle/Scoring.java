@@ -0,0 +1,102 @@
+package de.mankianer.drudle;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cost of the results of a drudle, lower is simpler, see {@link DrudleProcess.BestFirst}.<br>
+ * A result costs the {@link DrudleRule#getWeight() weight} of every rule of its derivation, plus
+ * {@link Weights#depth()} per level of its derivation tree and {@link Weights#remainder()} per char
+ * that is kept as it is. A result never costs less than one of its parts, so a search that works
+ * off the cheapest items first also finds the cheapest results first. Not thread-safe.
+ */
+final class Scoring {
+
+  /**
+   * @param depth cost per level of the derivation tree
+   * @param remainder cost per char that no rule solved
+   */
+  record Weights(double depth, double remainder) {}
+
+  /** The parts of the cost of a solved result. */
+  private record Score(double ruleWeights, int keptChars, int height) {}
+
+  private final RuleIndex ruleIndex;
+  private final Weights weights;
+
+  /** Score per solved result, results are shared by the derivations of their parents. */
+  private final Map<DrudleRuleResult, Score> scores = new IdentityHashMap<>();
+
+  Scoring(RuleIndex ruleIndex, Weights weights) {
+    this.ruleIndex = ruleIndex;
+    this.weights = weights;
+  }
+
+  /**
+   * @param result a solved result
+   * @return the cost of the result
+   */
+  double cost(DrudleRuleResultSolved result) {
+    var score = score(result);
+    return score.ruleWeights()
+        + weights.remainder() * score.keptChars()
+        + weights.depth() * score.height();
+  }
+
+  /**
+   * @param result a result of a rule
+   * @return the cost of the result if it is solved, otherwise a lower bound of the cost of every
+   *     solved result built from it: each used part is either kept as it is or solved by at least
+   *     one rule
+   */
+  double bound(DrudleRuleResult result) {
+    if (result instanceof DrudleRuleResultSolved solved) return cost(solved);
+    var solved = result.getSolvedResult();
+    if (solved != null) return cost(solved);
+    double ret = ruleIndex.weight(result.getRuleName()) + weights.depth();
+    for (int i = 0; i < result.getPartCount(); i++) {
+      ret += Math.min(ruleIndex.minWeight(), weights.remainder() * result.getPartLength(i));
+    }
+    return ret;
+  }
+
+  /**
+   * @param results solved results
+   * @return the results ordered by cost, the cheapest first
+   */
+  Set<DrudleRuleResult> rank(Collection<DrudleRuleResult> results) {
+    List<DrudleRuleResult> ranked = new ArrayList<>(results);
+    Map<DrudleRuleResult, Double> costs = new IdentityHashMap<>();
+    ranked.forEach(result -> costs.put(result, bound(result)));
+    ranked.sort(Comparator.comparingDouble(costs::get));
+    return new LinkedHashSet<>(ranked);
+  }
+
+  private Score score(DrudleRuleResultSolved result) {
+    var ret = scores.get(result);
+    if (ret != null) return ret;
+    if (result.isUnsolvedValue()) {
+      ret = new Score(0, result.getInput().length(), 0);
+    } else {
+      double ruleWeights = ruleIndex.weight(result.getRuleName());
+      int keptChars = 0;
+      int height = 0;
+      for (var part : result.getParts()) {
+        var score = score(part);
+        ruleWeights += score.ruleWeights();
+        keptChars += score.keptChars();
+        height = Math.max(height, score.height());
+      }
+      ret = new Score(ruleWeights, keptChars, height + 1);
+    }
+    scores.put(result, ret);
+    return ret;
+  }
+}
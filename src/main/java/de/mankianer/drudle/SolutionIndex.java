@@ -0,0 +1,480 @@
+package de.mankianer.drudle;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Solved results of a word list, precomputed offline (Gradle task {@code precompute}).<br>
+ * The index holds the complete solved results of every word and of every substring solved on the
+ * way, as one DAG of results like the engines build it. The file is memory-mapped and only the
+ * results of a looked up drudle are built, so opening even a large index costs next to nothing. An
+ * index only answers for the rules it was solved with: it is tagged with a fingerprint of the
+ * rules, and a service with other rules does not use it.
+ *
+ * <pre>
+ * index   = MAGIC FORMAT fingerprint:byte[32] strings nodes entries
+ * strings = count:int offset:int* string*
+ * nodes   = count:int offset:int* node*
+ * node    = flags:byte rule:string input:string [output:string] slotCount:int slot:int*
+ *           partCount:int (part:int start:int)*
+ * entries = count:int (drudle:string first:int count:int)* result:int*
+ * string  = length:int utf-8 bytes, referenced by its index
+ * </pre>
+ *
+ * The entries are sorted by drudle, so a drudle is found by binary search. Every offset, count
+ * and reference is checked while it is read, a lookup that runs into a damaged part of the file is
+ * a miss.
+ */
+@Log4j2
+public final class SolutionIndex {
+
+  private static final int MAGIC = 0x44534931; // "DSI1"
+  private static final int FORMAT = 1;
+
+  /** The node keeps its input as it is. */
+  private static final int UNSOLVED = 1;
+
+  /** The output of the node is stored, otherwise it is built from the template of the rule. */
+  private static final int OUTPUT = 2;
+
+  private static final int HEADER = 8 + 32;
+  private static final int ENTRY = 12;
+
+  private final ByteBuffer buffer;
+
+  /** Output templates of the rules by name. */
+  private final Map<String, OutputTemplate> templates;
+
+  /** Version of the rules the index was opened for, lookups for other versions miss. */
+  @Getter private final long rulesVersion;
+
+  private final int strings;
+  private final int stringCount;
+  private final int nodes;
+  private final int nodeCount;
+  private final int entries;
+  private final int entryCount;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /** Set once a lookup ran into a damaged part of the index, so it is logged only once. */
+  private final AtomicBoolean damaged = new AtomicBoolean();
+
+  private SolutionIndex(ByteBuffer buffer, RuleSet rules) throws IOException {
+    this.buffer = buffer;
+    this.rulesVersion = rules.version();
+    templates = new HashMap<>();
+    for (var rule : rules.rules()) {
+      if (rule instanceof RegexRule regexRule) {
+        templates.putIfAbsent(regexRule.getName(), regexRule.getCompiled().template());
+      }
+    }
+    try {
+      strings = HEADER;
+      stringCount = count(strings, 4);
+      int lastString = buffer.getInt(strings + 4 * stringCount);
+      // the nodes follow the last string
+      nodes = stringCount == 0 ? strings + 4 : lastString + 4 + buffer.getInt(lastString);
+      nodeCount = count(nodes, 4);
+      int lastNode = nodeCount == 0 ? nodes + 4 : buffer.getInt(nodes + 4 * nodeCount);
+      // the entries follow the last node
+      entries = skipNode(lastNode, nodeCount == 0);
+      entryCount = count(entries, ENTRY);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Solution index is truncated", e);
+    }
+  }
+
+  /**
+   * Solves a word list with the rules of a directory and writes the index.
+   *
+   * @param args the directory with the {@code *.yaml} files, the word list with one word per line
+   *     ({@code #} starts a comment), the index file to write and optionally the number of words
+   *     solved at the same time
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3 || args.length > 4) {
+      throw new IllegalArgumentException(
+          "Usage: SolutionIndex <rules directory> <word list> <index file> [parallelism]");
+    }
+    var properties = new DrudleProperties();
+    properties.getRules().setDirectory(Path.of(args[0]));
+    properties.getRules().setWatch(false);
+    properties.getCache().setMaxEntries(0);
+    int parallelism =
+        args.length == 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+    List<String> words = new ArrayList<>();
+    for (String line : Files.readAllLines(Path.of(args[1]))) {
+      line = line.strip();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        words.add(line);
+      }
+    }
+    var service = new DrudleServiceImpl(properties);
+    service.init();
+    long start = System.nanoTime();
+    var solved = service.precompute(words, parallelism);
+    Path index = Path.of(args[2]);
+    if (index.getParent() != null) {
+      Files.createDirectories(index.getParent());
+    }
+    try (OutputStream out = Files.newOutputStream(index)) {
+      write(service.getRules(), solved, out);
+    }
+    service.shutdown();
+    log.info(
+        "Solved {} words into {} drudles in {} ms, wrote {} ({} bytes)",
+        words.size(),
+        solved.size(),
+        (System.nanoTime() - start) / 1_000_000,
+        index,
+        Files.size(index));
+  }
+
+  /**
+   * @param rules the rules the results were solved with
+   * @param solved the complete solved results per drudle
+   * @param out receives the index
+   */
+  static void write(
+      List<? extends DrudleRule> rules, Map<String, Set<DrudleRuleResult>> solved, OutputStream out)
+      throws IOException {
+    Map<String, Integer> stringIds = new HashMap<>();
+    List<String> stringList = new ArrayList<>();
+    Map<DrudleRuleResultSolved, Integer> nodeIds = new IdentityHashMap<>();
+    List<DrudleRuleResultSolved> nodeList = new ArrayList<>();
+    List<String> drudles = new ArrayList<>(solved.keySet());
+    drudles.sort(null);
+    for (String drudle : drudles) {
+      id(stringIds, stringList, drudle);
+      for (var result : solved.get(drudle)) {
+        addNode((DrudleRuleResultSolved) result, nodeIds, nodeList, stringIds, stringList);
+      }
+    }
+
+    var data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(FORMAT);
+    data.write(fingerprint(rules));
+
+    List<byte[]> encoded = new ArrayList<>(stringList.size());
+    stringList.forEach(value -> encoded.add(value.getBytes(StandardCharsets.UTF_8)));
+    int offset = HEADER + 4 + 4 * encoded.size();
+    data.writeInt(encoded.size());
+    for (byte[] bytes : encoded) {
+      data.writeInt(offset);
+      offset += 4 + bytes.length;
+    }
+    for (byte[] bytes : encoded) {
+      data.writeInt(bytes.length);
+      data.write(bytes);
+    }
+
+    var nodeBytes = new ByteArrayOutputStream();
+    var nodeData = new DataOutputStream(nodeBytes);
+    int[] nodeOffsets = new int[nodeList.size()];
+    int nodesStart = offset + 4 + 4 * nodeList.size();
+    for (int i = 0; i < nodeList.size(); i++) {
+      nodeOffsets[i] = nodesStart + nodeData.size();
+      writeNode(nodeData, nodeList.get(i), nodeIds, stringIds);
+    }
+    data.writeInt(nodeList.size());
+    for (int nodeOffset : nodeOffsets) {
+      data.writeInt(nodeOffset);
+    }
+    nodeBytes.writeTo(data);
+
+    data.writeInt(drudles.size());
+    int first = 0;
+    for (String drudle : drudles) {
+      int count = solved.get(drudle).size();
+      data.writeInt(stringIds.get(drudle));
+      data.writeInt(first);
+      data.writeInt(count);
+      first += count;
+    }
+    for (String drudle : drudles) {
+      for (var result : solved.get(drudle)) {
+        data.writeInt(nodeIds.get((DrudleRuleResultSolved) result));
+      }
+    }
+    data.flush();
+  }
+
+  /** Numbers the result after its parts, shared parts once. */
+  private static void addNode(
+      DrudleRuleResultSolved result,
+      Map<DrudleRuleResultSolved, Integer> nodeIds,
+      List<DrudleRuleResultSolved> nodeList,
+      Map<String, Integer> stringIds,
+      List<String> stringList) {
+    if (nodeIds.containsKey(result)) return;
+    for (var part : result.getParts()) {
+      addNode(part, nodeIds, nodeList, stringIds, stringList);
+    }
+    id(stringIds, stringList, result.getRuleName());
+    id(stringIds, stringList, result.getInput());
+    if (!result.isUnsolvedValue() && result.getTemplate() == null) {
+      id(stringIds, stringList, result.getOutput());
+    }
+    nodeIds.put(result, nodeList.size());
+    nodeList.add(result);
+  }
+
+  private static void writeNode(
+      DataOutputStream data,
+      DrudleRuleResultSolved result,
+      Map<DrudleRuleResultSolved, Integer> nodeIds,
+      Map<String, Integer> stringIds)
+      throws IOException {
+    boolean unsolved = result.isUnsolvedValue();
+    boolean output = !unsolved && result.getTemplate() == null;
+    data.writeByte((unsolved ? UNSOLVED : 0) | (output ? OUTPUT : 0));
+    data.writeInt(stringIds.get(result.getRuleName()));
+    data.writeInt(stringIds.get(result.getInput()));
+    if (output) {
+      data.writeInt(stringIds.get(result.getOutput()));
+    }
+    int[] slotToPart = output || unsolved ? new int[0] : result.getSlotToPart();
+    data.writeInt(slotToPart.length);
+    for (int part : slotToPart) {
+      data.writeInt(part);
+    }
+    var parts = result.getParts();
+    data.writeInt(parts.size());
+    for (int i = 0; i < parts.size(); i++) {
+      data.writeInt(nodeIds.get(parts.get(i)));
+      data.writeInt(result.getPartStart(i));
+    }
+  }
+
+  private static int id(Map<String, Integer> ids, List<String> values, String value) {
+    return ids.computeIfAbsent(
+        value,
+        k -> {
+          values.add(k);
+          return values.size() - 1;
+        });
+  }
+
+  /**
+   * Fingerprint of everything of the rules that can change a result: their order, names,
+   * patterns, outputs and weights.
+   */
+  static byte[] fingerprint(List<? extends DrudleRule> rules) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    var text = new StringBuilder();
+    for (var rule : rules) {
+      text.append(rule.getClass().getName()).append('\0').append(rule.getName()).append('\0');
+      text.append(rule.getWeight()).append('\0');
+      if (rule instanceof RegexRule regexRule) {
+        var compiled = regexRule.getCompiled();
+        text.append(regexRule.getPattern()).append('\0').append(compiled.slots()).append('\0');
+        var template = compiled.template();
+        for (int i = 0; i < template.slotCount(); i++) {
+          text.append(template.literal(i)).append('\0').append(template.slot(i)).append('\0');
+        }
+        text.append(template.literal(template.slotCount())).append('\0');
+      }
+      text.append('\n');
+    }
+    return digest.digest(text.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Maps an index file for the rules.
+   *
+   * @param file the index
+   * @param rules the current rules
+   * @return the index, null if it was solved with other rules
+   * @throws IOException if the file can not be read or is no solution index
+   */
+  static SolutionIndex open(Path file, RuleSet rules) throws IOException {
+    try (var channel = FileChannel.open(file)) {
+      return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), rules);
+    }
+  }
+
+  static SolutionIndex read(ByteBuffer buffer, RuleSet rules) throws IOException {
+    try {
+      if (buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a solution index");
+      }
+      int format = buffer.getInt(4);
+      if (format != FORMAT) {
+        throw new IOException("Unsupported solution index format: " + format);
+      }
+      byte[] fingerprint = new byte[32];
+      buffer.get(8, fingerprint);
+      if (!Arrays.equals(fingerprint, fingerprint(rules.rules()))) {
+        return null;
+      }
+    } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+      throw new IOException("Solution index is truncated", e);
+    }
+    return new SolutionIndex(buffer, rules);
+  }
+
+  /** @return the number of drudles of the index */
+  int size() {
+    return entryCount;
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @param drudle the drudle substring
+   * @return the complete solved results of the drudle, or null if it is not in the index
+   */
+  Set<DrudleRuleResult> get(String drudle) {
+    try {
+      int low = 0;
+      int high = entryCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int entry = entries + 4 + mid * ENTRY;
+        int cmp = string(buffer.getInt(entry)).compareTo(drudle);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          var ret = results(buffer.getInt(entry + 4), buffer.getInt(entry + 8));
+          hits.increment();
+          return ret;
+        }
+      }
+    } catch (IndexOutOfBoundsException | IllegalStateException e) {
+      if (damaged.compareAndSet(false, true)) {
+        log.error("Solution index is damaged, solving its drudles live", e);
+      }
+    }
+    misses.increment();
+    return null;
+  }
+
+  private Set<DrudleRuleResult> results(int first, int count) {
+    long ids = entries + 4L + (long) entryCount * ENTRY + 4L * first;
+    Objects.checkFromIndexSize(ids, 4L * count, buffer.limit());
+    // the results of one drudle share their parts
+    Map<Integer, DrudleRuleResultSolved> built = new HashMap<>();
+    Set<DrudleRuleResult> ret = new HashSet<>(count * 2);
+    for (int i = 0; i < count; i++) {
+      ret.add(node(Objects.checkIndex(buffer.getInt((int) ids + 4 * i), nodeCount), built));
+    }
+    return ret;
+  }
+
+  private DrudleRuleResultSolved node(int id, Map<Integer, DrudleRuleResultSolved> built) {
+    var ret = built.get(id);
+    if (ret != null) return ret;
+    int at = buffer.getInt(nodes + 4 + 4 * id);
+    int flags = buffer.get(at);
+    String ruleName = string(buffer.getInt(at + 1));
+    String input = string(buffer.getInt(at + 5));
+    at += 9;
+    String output = null;
+    if ((flags & OUTPUT) != 0) {
+      output = string(buffer.getInt(at));
+      at += 4;
+    }
+    int[] slotToPart = new int[count(at, 4)];
+    at += 4;
+    for (int i = 0; i < slotToPart.length; i++, at += 4) {
+      slotToPart[i] = buffer.getInt(at);
+    }
+    var parts = new DrudleRuleResultSolved[count(at, 8)];
+    int[] partStarts = new int[parts.length];
+    at += 4;
+    for (int i = 0; i < parts.length; i++, at += 8) {
+      // parts are written before the results that use them, which also rules out cycles
+      parts[i] = node(Objects.checkIndex(buffer.getInt(at), id), built);
+      partStarts[i] = buffer.getInt(at + 4);
+    }
+    if ((flags & UNSOLVED) != 0) {
+      ret = new DrudleRuleResultSolved(input);
+    } else if (output != null) {
+      ret = new DrudleRuleResultSolved(ruleName, input, output, partStarts, parts);
+    } else {
+      var template = templates.get(ruleName);
+      if (template == null) {
+        throw new IllegalStateException("Solution index uses the unknown rule " + ruleName);
+      }
+      if (slotToPart.length != template.slotCount()) {
+        throw new IllegalStateException("Solution index has the wrong slots for rule " + ruleName);
+      }
+      for (int part : slotToPart) {
+        Objects.checkIndex(part, parts.length);
+      }
+      ret = new DrudleRuleResultSolved(ruleName, input, template, slotToPart, partStarts, parts);
+    }
+    built.put(id, ret);
+    return ret;
+  }
+
+  /**
+   * Reads a count and checks that its items fit into the buffer.
+   *
+   * @param at the offset of the count, followed by the items
+   * @param itemSize the bytes of one item
+   * @return the count
+   */
+  private int count(int at, int itemSize) {
+    int ret = buffer.getInt(at);
+    Objects.checkFromIndexSize(at + 4L, (long) itemSize * ret, buffer.limit());
+    return ret;
+  }
+
+  /** @return the offset after the node at the offset */
+  private int skipNode(int at, boolean none) {
+    if (none) return at;
+    int flags = buffer.get(at);
+    at += 9 + ((flags & OUTPUT) != 0 ? 4 : 0);
+    at += 4 + 4 * buffer.getInt(at);
+    return at + 4 + 8 * buffer.getInt(at);
+  }
+
+  private String string(int id) {
+    int at = buffer.getInt(strings + 4 + 4 * Objects.checkIndex(id, stringCount));
+    byte[] bytes = new byte[count(at, 1)];
+    buffer.get(at + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
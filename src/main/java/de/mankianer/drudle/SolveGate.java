@@ -0,0 +1,229 @@
+package de.mankianer.drudle;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission control of the CPU-bound solves.<br>
+ * At most {@code maxConcurrent} solves run at once, at most {@code maxQueued} more wait for a free
+ * slot. A request beyond that is rejected right away with a {@link SolveRejectedException}, so a
+ * burst of hard drudles can not take every thread and starve the other endpoints, health checks
+ * included. Solves run on virtual threads: a waiting solve costs no platform thread, and keeping
+ * {@code maxConcurrent} below the number of carrier threads leaves a carrier for everything else.
+ */
+@Log4j2
+@Component
+class SolveGate {
+
+  private final int maxConcurrent;
+  private final int maxQueued;
+  @Getter private final Duration maxWait;
+  private final Duration retryAfter;
+
+  /** One permit per solve that may run. */
+  private final Semaphore running;
+
+  /** Admitted tickets that have not been closed yet, running or waiting. */
+  private final AtomicInteger admitted = new AtomicInteger();
+
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+  /** Counts rejected requests, null if no registry is used. */
+  private final Counter rejected;
+
+  SolveGate(DrudleProperties.Admission admission) {
+    this(admission, null);
+  }
+
+  @Autowired
+  SolveGate(DrudleProperties properties, MeterRegistry meterRegistry) {
+    this(properties.getAdmission(), meterRegistry);
+  }
+
+  private SolveGate(DrudleProperties.Admission admission, MeterRegistry meterRegistry) {
+    this.maxConcurrent = admission.getMaxConcurrent();
+    this.maxQueued = admission.getMaxQueued();
+    this.maxWait = admission.getMaxWait();
+    this.retryAfter = admission.getRetryAfter();
+    this.running = new Semaphore(maxConcurrent, true);
+    if (meterRegistry == null) {
+      rejected = null;
+      return;
+    }
+    Gauge.builder("drudle.admission.running", this, SolveGate::getRunning)
+        .description("Solves running")
+        .register(meterRegistry);
+    Gauge.builder("drudle.admission.queued", this, SolveGate::getQueued)
+        .description("Solves waiting for a free slot")
+        .register(meterRegistry);
+    rejected =
+        Counter.builder("drudle.admission.rejected")
+            .description("Requests rejected because all slots and the queue were taken")
+            .register(meterRegistry);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Takes a place in the queue, on the request thread, so a full queue is answered before anything
+   * is sent to the client.
+   *
+   * @return the ticket to run the solve with, it has to be closed if it is not used
+   * @throws SolveRejectedException if all slots and the queue are taken
+   */
+  Ticket admit() {
+    if (admitted.incrementAndGet() > maxConcurrent + maxQueued) {
+      admitted.decrementAndGet();
+      throw reject("Too many drudles are solved at the moment");
+    }
+    return new Ticket();
+  }
+
+  int getRunning() {
+    return maxConcurrent - running.availablePermits();
+  }
+
+  int getQueued() {
+    return Math.max(admitted.get() - getRunning(), 0);
+  }
+
+  private SolveRejectedException reject(String message) {
+    if (rejected != null) {
+      rejected.increment();
+    }
+    log.debug("{}, running: {}, queued: {}", message, getRunning(), getQueued());
+    return new SolveRejectedException(message, retryAfter);
+  }
+
+  /**
+   * A place in the queue of the gate, for one solve.<br>
+   * The ticket holds a slot from {@link #acquire()} until the solve is done or, if it never runs,
+   * until the ticket is closed. Closing is safe from any thread and any number of times, a running
+   * solve keeps its slot and gives it back when it is done.
+   */
+  final class Ticket implements AutoCloseable {
+    private boolean closed;
+
+    /** True while the ticket holds a permit of {@link #running}. */
+    private boolean holding;
+
+    private boolean solving;
+
+    private Ticket() {}
+
+    /**
+     * Waits for a free slot on the calling thread, if the ticket does not hold one yet. The ticket
+     * is closed if no slot is free.
+     *
+     * @throws SolveRejectedException if no slot was free within the maximum wait, or the ticket was
+     *     closed
+     */
+    void acquire() {
+      synchronized (this) {
+        if (holding) return;
+        if (closed) throw closedWhileWaiting();
+      }
+      boolean acquired;
+      try {
+        acquired = running.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw reject("Interrupted while waiting for a free slot");
+      }
+      if (!acquired) {
+        close();
+        throw reject("No free slot within " + maxWait);
+      }
+      synchronized (this) {
+        if (!closed) {
+          holding = true;
+          return;
+        }
+      }
+      // the request ended while waiting
+      running.release();
+      throw closedWhileWaiting();
+    }
+
+    /**
+     * Waits for a free slot, unless the ticket already holds one, and solves on the calling thread.
+     *
+     * @param solve the solve
+     * @return the result of the solve
+     * @throws SolveRejectedException if no slot was free within the maximum wait
+     */
+    <T> T call(Supplier<T> solve) {
+      acquire();
+      synchronized (this) {
+        if (!holding) throw closedWhileWaiting();
+        solving = true;
+      }
+      try {
+        return solve.get();
+      } finally {
+        synchronized (this) {
+          solving = false;
+        }
+        close();
+      }
+    }
+
+    /**
+     * Waits for a free slot and solves on a new virtual thread.
+     *
+     * @param solve the solve
+     * @return the result of the solve, completed with a {@link SolveRejectedException} if no slot
+     *     was free within the maximum wait
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> solve) {
+      try {
+        return CompletableFuture.supplyAsync(() -> call(solve), executor);
+      } catch (RuntimeException e) {
+        // the executor is shut down
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * Gives the place in the queue and the slot back, if they were not used. A running solve gives
+     * them back when it is done.
+     */
+    @Override
+    public void close() {
+      boolean release;
+      synchronized (this) {
+        if (closed || solving) return;
+        closed = true;
+        release = holding;
+        holding = false;
+      }
+      if (release) {
+        running.release();
+      }
+      admitted.decrementAndGet();
+    }
+
+    private SolveRejectedException closedWhileWaiting() {
+      return new SolveRejectedException("The request ended while waiting for a free slot", retryAfter);
+    }
+  }
+}
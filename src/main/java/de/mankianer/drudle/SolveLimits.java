@@ -0,0 +1,46 @@
+package de.mankianer.drudle;
+
+import java.time.Duration;
+
+/**
+ * Limits of a single {@link DrudleService#processDrudle(String, SolveLimits)} call. When a limit is
+ * hit, the search stops and returns the results found so far as a truncated {@link SolveResult}.
+ *
+ * @param maxSteps maximum number of queue items processed
+ * @param maxDuration maximum wall-clock time of the search
+ * @param maxDepth maximum number of rules applied on top of each other, deeper parts are kept as
+ *     they are
+ * @param maxResults maximum number of results
+ */
+public record SolveLimits(int maxSteps, Duration maxDuration, int maxDepth, int maxResults) {
+
+  /**
+   * Lowers the limits to the given values, a request may only tighten the configured limits.
+   *
+   * @param maxSteps the new maximum number of queue items, or null to keep it
+   * @param maxDuration the new maximum time, or null to keep it
+   * @param maxDepth the new maximum depth, or null to keep it
+   * @param maxResults the new maximum number of results, or null to keep it
+   * @return the lowered limits
+   * @throws IllegalArgumentException if a limit would allow no search at all: less than one step,
+   *     millisecond or result, or a negative depth
+   */
+  public SolveLimits restrict(
+      Integer maxSteps, Duration maxDuration, Integer maxDepth, Integer maxResults) {
+    if ((maxSteps != null && maxSteps < 1)
+        || (maxDuration != null && maxDuration.toMillis() < 1)
+        || (maxDepth != null && maxDepth < 0)
+        || (maxResults != null && maxResults < 1)) {
+      throw new IllegalArgumentException(
+          "Limits have to be positive: maxSteps=%s, maxDuration=%s, maxDepth=%s, maxResults=%s"
+              .formatted(maxSteps, maxDuration, maxDepth, maxResults));
+    }
+    return new SolveLimits(
+        maxSteps == null ? this.maxSteps : Math.min(this.maxSteps, maxSteps),
+        maxDuration == null || maxDuration.compareTo(this.maxDuration) > 0
+            ? this.maxDuration
+            : maxDuration,
+        maxDepth == null ? this.maxDepth : Math.min(this.maxDepth, maxDepth),
+        maxResults == null ? this.maxResults : Math.min(this.maxResults, maxResults));
+  }
+}
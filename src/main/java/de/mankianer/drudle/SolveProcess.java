@@ -0,0 +1,47 @@
+package de.mankianer.drudle;
+
+import de.mankianer.drudle.SolveResult.Truncation;
+import java.util.Set;
+
+/**
+ * One search for all results of a drudle, by one of the engines of {@link
+ * DrudleProperties.Engine.Mode}.
+ */
+interface SolveProcess {
+
+  /**
+   * Searches all results of the drudle, until every part is solved or a limit is hit.
+   *
+   * @param drudle the lower case input drudle string
+   * @param listener receives every result of the drudle as soon as it is found
+   * @return the limit that stopped the search, {@link Truncation#NONE} if all results were found
+   */
+  Truncation run(String drudle, ResultListener listener);
+
+  /**
+   * @return the results of the drudle found so far
+   */
+  Set<DrudleRuleResult> getResults();
+
+  /**
+   * Stores every solved part in the cache. Only allowed if the search was not truncated, otherwise
+   * parts may be incomplete.
+   */
+  void storeSolved();
+
+  /**
+   * @return the number of queue items processed
+   */
+  int getSteps();
+
+  /**
+   * @return the number of solved results of all parts, including the results that keep a part as
+   *     it is
+   */
+  int getSolvedCount();
+
+  /**
+   * @return the largest number of items that waited in the queue at the same time
+   */
+  int getPeakWaiting();
+}
@@ -0,0 +1,16 @@
+package de.mankianer.drudle;
+
+import java.time.Duration;
+import lombok.Getter;
+
+/** Thrown by the {@link SolveGate} when a solve is not admitted, answered with 503. */
+class SolveRejectedException extends RuntimeException {
+
+  /** Time after which the client may try again. */
+  @Getter private final Duration retryAfter;
+
+  SolveRejectedException(String message, Duration retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+}
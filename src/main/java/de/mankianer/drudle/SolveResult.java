@@ -0,0 +1,49 @@
+package de.mankianer.drudle;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Results of a {@link DrudleService#processDrudle(String, SolveLimits)} call.
+ *
+ * @param results the results found
+ * @param truncation the limit that stopped the search, {@link Truncation#NONE} if all results were
+ *     found
+ */
+public record SolveResult(Set<DrudleRuleResult> results, Truncation truncation) {
+
+  /** The limit of {@link SolveLimits} that stopped a search. */
+  public enum Truncation {
+    NONE,
+    STEPS,
+    TIME,
+    DEPTH,
+    RESULTS,
+    /** Stopped by the {@link ResultListener}. */
+    CANCELLED
+  }
+
+  /**
+   * Creates a result and cuts it to the maximum number of results.
+   *
+   * @param results the results found
+   * @param truncation the limit that stopped the search
+   * @param limits the limits of the search
+   * @return the result with at most {@link SolveLimits#maxResults()} results
+   */
+  static SolveResult of(Set<DrudleRuleResult> results, Truncation truncation, SolveLimits limits) {
+    if (results.size() <= limits.maxResults()) {
+      return new SolveResult(results, truncation);
+    }
+    Set<DrudleRuleResult> limited = new LinkedHashSet<>();
+    for (var result : results) {
+      if (limited.size() == limits.maxResults()) break;
+      limited.add(result);
+    }
+    return new SolveResult(limited, Truncation.RESULTS);
+  }
+
+  public boolean isTruncated() {
+    return truncation != Truncation.NONE;
+  }
+}
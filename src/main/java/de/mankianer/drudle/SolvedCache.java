@@ -0,0 +1,238 @@
+package de.mankianer.drudle;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe cache of solved drudle substrings, shared between requests.<br>
+ * The solved results of a substring only depend on the substring and the rule set, so entries are
+ * keyed by both and entries of an older rule set version are dropped as soon as a newer version is
+ * stored. That holds for the engines that combine every solution of each part, the sequential
+ * engine only stores and looks up whole drudles, see {@link DrudleServiceImpl}. An entry keeps the
+ * order of the stored results, so a cached drudle is answered in the same order every time. The cache is bounded by its number of entries and by its weight. Solved results keep
+ * their whole derivation, so the weight of an entry is the number of chars of every result in the
+ * derivations plus {@link #RESULT_WEIGHT} per result. Results shared with other entries are counted
+ * in each of them, the weight rather overestimates the memory held. The least recently used
+ * entries are evicted first.
+ */
+class SolvedCache {
+
+  /** Weight of one result object with its arrays, in chars. */
+  static final int RESULT_WEIGHT = 32;
+
+  /**
+   * Snapshot of the cache statistics.
+   *
+   * @param hits lookups that found an entry
+   * @param misses lookups that found no entry
+   * @param evictions entries removed to stay within the bounds
+   * @param size the current number of entries
+   * @param weight the current weight of all entries
+   */
+  record Stats(long hits, long misses, long evictions, int size, long weight) {
+    double hitRate() {
+      long requests = hits + misses;
+      return requests == 0 ? 0 : (double) hits / requests;
+    }
+  }
+
+  private record Key(long rulesVersion, String drudle) {}
+
+  private record Entry(Set<DrudleRuleResult> results, long weight) {}
+
+  /** Cache that holds nothing, for engines that must not share parts. */
+  static final SolvedCache NONE =
+      new SolvedCache(0, 0) {
+        @Override
+        Set<DrudleRuleResult> get(long rulesVersion, String drudle) {
+          return null;
+        }
+
+        @Override
+        void put(long rulesVersion, String drudle, Set<DrudleRuleResult> results) {}
+      };
+
+  private final int maxEntries;
+  private final long maxWeight;
+
+  /** Access ordered, so iteration starts at the least recently used entry. */
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long rulesVersion;
+  private long weight;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  SolvedCache(int maxEntries, long maxWeight) {
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+  /**
+   * @param rulesVersion the version of the rule set the results have to be solved with
+   * @param drudle the drudle substring
+   * @return the cached solved results, or null if the substring is not cached
+   */
+  Set<DrudleRuleResult> get(long rulesVersion, String drudle) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(new Key(rulesVersion, drudle));
+    }
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.results();
+  }
+
+  /**
+   * Stores the complete set of solved results of a substring.
+   *
+   * @param rulesVersion the version of the rule set the results were solved with
+   * @param drudle the drudle substring
+   * @param results all solved results of the substring
+   */
+  void put(long rulesVersion, String drudle, Set<DrudleRuleResult> results) {
+    if (maxEntries <= 0) return;
+    var entry =
+        new Entry(Collections.unmodifiableSet(new LinkedHashSet<>(results)), weigh(drudle, results));
+    if (entry.weight() > maxWeight) return;
+    synchronized (this) {
+      if (rulesVersion < this.rulesVersion) return;
+      if (rulesVersion > this.rulesVersion) {
+        clear();
+        this.rulesVersion = rulesVersion;
+      }
+      var previous = entries.put(new Key(rulesVersion, drudle), entry);
+      weight += entry.weight() - (previous == null ? 0 : previous.weight());
+      Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+      while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+        weight -= eldest.next().getValue().weight();
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  /** @return a view of this cache that looks up its entries but stores nothing */
+  SolvedCache readOnly() {
+    var cache = this;
+    return new SolvedCache(0, 0) {
+      @Override
+      Set<DrudleRuleResult> get(long rulesVersion, String drudle) {
+        return cache.get(rulesVersion, drudle);
+      }
+
+      @Override
+      void put(long rulesVersion, String drudle, Set<DrudleRuleResult> results) {}
+    };
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    weight = 0;
+  }
+
+  synchronized Stats stats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), weight);
+  }
+
+  /** @return the results of every cached substring of the newest rule set version */
+  synchronized Map<String, Set<DrudleRuleResult>> entries() {
+    Map<String, Set<DrudleRuleResult>> ret = new HashMap<>();
+    entries.forEach((key, entry) -> ret.put(key.drudle(), entry.results()));
+    return ret;
+  }
+
+  /**
+   * Unbounded cache of one engine session, for example a batch of drudles. Every substring solved
+   * in the session is kept until the session ends, so later drudles of the session reuse it even if
+   * the shared cache evicted or never stored it. Lookups that miss fall back to the shared cache and
+   * stored results are shared, too.
+   */
+  static final class Session extends SolvedCache {
+    private final SolvedCache shared;
+
+    Session(SolvedCache shared) {
+      super(Integer.MAX_VALUE, Long.MAX_VALUE);
+      this.shared = shared;
+    }
+
+    @Override
+    Set<DrudleRuleResult> get(long rulesVersion, String drudle) {
+      var ret = super.get(rulesVersion, drudle);
+      return ret != null ? ret : shared.get(rulesVersion, drudle);
+    }
+
+    @Override
+    void put(long rulesVersion, String drudle, Set<DrudleRuleResult> results) {
+      super.put(rulesVersion, drudle, results);
+      shared.put(rulesVersion, drudle, results);
+    }
+  }
+
+  /**
+   * Looks up the substrings the shared cache misses in a {@link SolutionIndex}. Results found in
+   * the index are stored in the shared cache, so each is only built once.
+   */
+  static final class Indexed extends SolvedCache {
+    private final SolvedCache shared;
+    private final SolutionIndex index;
+
+    Indexed(SolvedCache shared, SolutionIndex index) {
+      super(0, 0);
+      this.shared = shared;
+      this.index = index;
+    }
+
+    @Override
+    Set<DrudleRuleResult> get(long rulesVersion, String drudle) {
+      var ret = shared.get(rulesVersion, drudle);
+      if (ret == null && rulesVersion == index.getRulesVersion()) {
+        ret = index.get(drudle);
+        if (ret != null) {
+          shared.put(rulesVersion, drudle, ret);
+        }
+      }
+      return ret;
+    }
+
+    @Override
+    void put(long rulesVersion, String drudle, Set<DrudleRuleResult> results) {
+      shared.put(rulesVersion, drudle, results);
+    }
+
+    @Override
+    Stats stats() {
+      return shared.stats();
+    }
+  }
+
+  /** @return the weight of the results with their derivations, each result counted once */
+  static long weigh(String drudle, Set<DrudleRuleResult> results) {
+    long ret = drudle.length();
+    Set<DrudleRuleResult> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    var todo = new ArrayDeque<DrudleRuleResult>(results);
+    while (!todo.isEmpty()) {
+      var result = todo.pop();
+      if (!seen.add(result)) continue;
+      ret += RESULT_WEIGHT + result.getInput().length() + result.getOutputLength();
+      if (result instanceof DrudleRuleResultSolved solved) {
+        todo.addAll(solved.getRetained());
+      }
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,95 @@
+package de.mankianer.drudle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.MatchResult;
+
+/**
+ * The parts one match of a pattern cuts a span {@code [start, end)} of a text into, as index spans
+ * instead of substrings.<br>
+ * The span counterpart of {@link MatchSplit}, used by the {@link ChartProcess}. Head, content and
+ * tail always cover the span, the named groups cover the content together with the text between
+ * them as long as they do not overlap. So only the slot spans are kept, not the matching parts.
+ *
+ * @param starts the start index of each slot of the {@link CompiledRule}, in slot order
+ * @param ends the end index (exclusive) of each slot
+ * @param order the slots in match order, null if that is the slot order, see {@link
+ *     CompiledRule#matchOrder(int[])}
+ */
+record SpanSplit(int[] starts, int[] ends, int[] order) {
+
+  /**
+   * Cuts the span at the match.
+   *
+   * @param start the start index of the span
+   * @param end the end index (exclusive) of the span
+   * @param match a match of the pattern in the span
+   * @param compiled the compiled pattern with its slots
+   * @return the split, or null if the named groups overlap or did not take part in the match
+   */
+  static SpanSplit of(int start, int end, MatchResult match, CompiledRule compiled) {
+    var slots = compiled.slots();
+    int[] starts = new int[slots.size()];
+    int[] ends = new int[slots.size()];
+    for (int i = 0; i < slots.size(); i++) {
+      switch (slots.get(i).name()) {
+        case CompiledRule.HEAD -> {
+          starts[i] = start;
+          ends[i] = match.start();
+        }
+        case CompiledRule.CONTENT -> {
+          starts[i] = match.start();
+          ends[i] = match.end();
+        }
+        case CompiledRule.TAIL -> {
+          starts[i] = match.end();
+          ends[i] = end;
+        }
+        default -> {
+          starts[i] = match.start(slots.get(i).name());
+          ends[i] = match.end(slots.get(i).name());
+        }
+      }
+    }
+    int[] order = compiled.matchOrder(starts);
+    int contentPosition = match.start();
+    for (int k = 0; k < slots.size() - 3; k++) {
+      int i = order == null ? k : order[k];
+      // a group that did not take part in the match (-1), or overlaps the group before it
+      if (starts[i] < contentPosition) return null;
+      contentPosition = ends[i];
+    }
+    // a group in a lookaround may end behind the match
+    if (contentPosition > match.end()) return null;
+    return new SpanSplit(starts, ends, order);
+  }
+
+  /**
+   * @param k the position of a slot in the match order
+   * @return the index of the slot in the {@link CompiledRule}
+   */
+  int slot(int k) {
+    return order == null ? k : order[k];
+  }
+
+  /**
+   * Cuts the span at every match.
+   *
+   * @param start the start index of the span
+   * @param end the end index (exclusive) of the span
+   * @param matches the matches of the pattern in the span, in order
+   * @param compiled the compiled pattern with its slots
+   * @return the splits of all matches whose parts cover the span
+   */
+  static List<SpanSplit> of(
+      int start, int end, List<? extends MatchResult> matches, CompiledRule compiled) {
+    List<SpanSplit> ret = new ArrayList<>(matches.size());
+    for (var match : matches) {
+      var split = of(start, end, match, compiled);
+      if (split != null) {
+        ret.add(split);
+      }
+    }
+    return ret;
+  }
+}
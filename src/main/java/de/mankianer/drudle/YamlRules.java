@@ -0,0 +1,58 @@
+package de.mankianer.drudle;
+
+import java.io.IOException;
+import java.util.List;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Reads {@link RegexRule}s from a YAML file, one document per rule with the keys {@code name},
+ * {@code pattern}, {@code output} and the optional {@code description} and {@code weight}.
+ */
+final class YamlRules {
+
+  /** Location pattern of the rule files on the classpath. */
+  static final String CLASSPATH_PATTERN = "classpath:rules/*.yaml";
+
+  private YamlRules() {}
+
+  static boolean isYaml(String fileName) {
+    return fileName.endsWith(".yaml") || fileName.endsWith(".yml");
+  }
+
+  /**
+   * @param resource the YAML file
+   * @return the rules of the file, named {@code <file name>-<rule name>}
+   */
+  static List<RegexRule> load(Resource resource) throws IOException {
+    YamlPropertySourceLoader loader = new YamlPropertySourceLoader();
+    List<PropertySource<?>> load = loader.load(resource.getFilename(), resource);
+    return load.stream()
+        .map(
+            (yp) -> {
+              return new RegexRule(
+                  resource.getFilename() + "-" + ((String) yp.getProperty("name")),
+                  (String) yp.getProperty("pattern"),
+                  (String) yp.getProperty("output"),
+                  (String) yp.getProperty("description"),
+                  resource.getFilename(),
+                  weight(yp));
+            })
+        .toList();
+  }
+
+  /** @return the weight of the rule, 1 if it has none */
+  private static double weight(PropertySource<?> rule) {
+    Object weight = rule.getProperty("weight");
+    if (weight == null) return 1;
+    try {
+      return weight instanceof Number number
+          ? number.doubleValue()
+          : Double.parseDouble(weight.toString());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          "Weight of rule " + rule.getProperty("name") + " is no number: " + weight, e);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BatchItemTest {
+
+  @Test
+  void batchSharesPartsTest() {
+    RegexRule rule = spy(new RegexRule("testRule", "test", "{head}{tail}"));
+    DrudleProperties properties = new DrudleProperties();
+    // without the shared cache, only the batch session can share the parts
+    properties.getCache().setMaxEntries(0);
+    // the sequential engine shares whole drudles only
+    properties.getEngine().setMode(DrudleProperties.Engine.Mode.PARALLEL);
+    DrudleServiceImpl service = new DrudleServiceImpl(properties);
+    service.addRules(rule);
+    List<BatchItem> items =
+        service.processBatch(List.of("1test2test3", " ", "2test3"), service.getDefaultLimits());
+    // assert that the part both drudles share is solved once
+    verify(rule, times(1)).apply("2test3");
+    assertEquals(3, items.size());
+    assertEquals(service.processDrudle("1test2test3"), items.get(0).result().results());
+    assertTrue(items.get(1).isFailed());
+    assertEquals(service.processDrudle("2test3"), items.get(2).result().results());
+    service.shutdown();
+  }
+}
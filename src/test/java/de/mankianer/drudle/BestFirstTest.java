@@ -0,0 +1,94 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class BestFirstTest {
+
+  private static final Scoring.Weights WEIGHTS = new Scoring.Weights(0.5, 0.25);
+
+  private static final RuleIndex INDEX =
+      new RuleIndex(
+          List.of(
+              new RegexRule("rot-0", "rot", "{head}<r>rot</r>{tail}"),
+              new RegexRule("rot-1", "rot", "{head}<r>ROT</r>{tail}", null, "", 3),
+              new RegexRule("blau-0", "blau", "{head}<b>blau</b>{tail}"),
+              new RegexRule("2-0", "zwei", "{head}<row>{tail}{tail}</row>")));
+
+  private static SolveLimits limits(int maxResults) {
+    return new SolveLimits(1_000_000, Duration.ofSeconds(10), 32, maxResults);
+  }
+
+  private static Set<String> outputs(Set<DrudleRuleResult> results) {
+    return results.stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+  }
+
+  private static List<Double> costs(Set<DrudleRuleResult> results) {
+    var scoring = new Scoring(INDEX, WEIGHTS);
+    return results.stream().map(scoring::bound).toList();
+  }
+
+  @Test
+  void sameResultsAsParallelTest() {
+    for (String drudle : List.of("zweirot", "rotblauzwei", "zweizweiblau", "nomatch")) {
+      // both combine every solution of every part
+      var parallel =
+          new DrudleProcess.Parallel(INDEX, 1, new SolvedCache(0, 0), limits(100_000), ForkJoinPool.commonPool());
+      parallel.run(drudle, ResultListener.NONE);
+      var bestFirst = new DrudleProcess.BestFirst(INDEX, 1, new SolvedCache(0, 0), limits(100_000), WEIGHTS);
+      assertEquals(SolveResult.Truncation.NONE, bestFirst.run(drudle, ResultListener.NONE));
+      assertEquals(outputs(parallel.getResults()), outputs(bestFirst.getResults()), drudle);
+
+      var costs = costs(bestFirst.getResults());
+      var sorted = new ArrayList<>(costs);
+      sorted.sort(null);
+      assertEquals(sorted, costs, drudle);
+    }
+  }
+
+  @Test
+  void topResultsAreTheCheapestTest() {
+    String drudle = "rotzweiblaurot";
+    var all = new DrudleProcess.BestFirst(INDEX, 1, new SolvedCache(0, 0), limits(100_000), WEIGHTS);
+    all.run(drudle, ResultListener.NONE);
+    var allCosts = costs(all.getResults());
+    assertTrue(allCosts.size() > 20);
+
+    var top = new DrudleProcess.BestFirst(INDEX, 1, new SolvedCache(0, 0), limits(5), WEIGHTS);
+    assertEquals(SolveResult.Truncation.RESULTS, top.run(drudle, ResultListener.NONE));
+    assertEquals(allCosts.subList(0, 5), costs(top.getResults()));
+    assertTrue(outputs(all.getResults()).containsAll(outputs(top.getResults())));
+    // the cheapest results are found long before the search is complete
+    assertTrue(top.getSteps() * 2 < all.getSteps(), top.getSteps() + " of " + all.getSteps());
+  }
+
+  @Test
+  void weightTest() {
+    var top = new DrudleProcess.BestFirst(INDEX, 1, new SolvedCache(0, 0), limits(1), WEIGHTS);
+    top.run("rot", ResultListener.NONE);
+    // rot-1 has the higher weight
+    assertEquals(Set.of("<r>rot</r>"), outputs(top.getResults()));
+  }
+
+  @Test
+  void costTest() {
+    var scoring = new Scoring(INDEX, WEIGHTS);
+    var process = new DrudleProcess.Sequential(INDEX, 1, new SolvedCache(0, 0), limits(100_000));
+    process.run("zweirot", ResultListener.NONE);
+    var costs =
+        process.getResults().stream()
+            .collect(Collectors.toMap(DrudleRuleResult::getOutput, scoring::bound));
+    // one rule, one level, "rot" kept
+    assertEquals(1 + 0.5 + 3 * 0.25, costs.get("<row>rotrot</row>"));
+    // two rules, two levels
+    assertEquals(2 + 2 * 0.5, costs.get("<row><r>rot</r><r>rot</r></row>"));
+    assertEquals(4 + 2 * 0.5, costs.get("<row><r>ROT</r><r>ROT</r></row>"));
+  }
+}
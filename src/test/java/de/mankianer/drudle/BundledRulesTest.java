@@ -0,0 +1,129 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+class BundledRulesTest {
+
+  private static final SolveLimits LIMITS = new SolveLimits(1_000_000, Duration.ofSeconds(20), 32, 100_000);
+
+  /**
+   * The results of the short and medium benchmark corpora with the bundled rules, as the
+   * sequential search solved them before solved results became a lazy derivation DAG. One result
+   * per line: drudle, rule, output and trace (rule:input of each previous result), tab separated,
+   * with escaped newlines.
+   */
+  private static final String EXPECTED = "/bundled-rules-results.tsv";
+
+  /** The drudles of the short, medium and pathological corpora of the JMH benchmark. */
+  private static final List<String> BENCHMARK_DRUDLES =
+      List.of(
+          "zweirot", "rotblau", "blaues", "dreigrün",
+          "blaueszweirot", "dreizweirotblau", "zweizweiblau", "rotrotrotrotrot",
+          "eeeeeeeeeeeeeeee", "zweizweizweizweizweizweiblau", "rotblaurotblaurotblaurotblau", "dreidreizweirotblaugrün");
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\t", "\\t");
+  }
+
+  private static List<DrudleRule> bundledRules() throws IOException {
+    List<DrudleRule> rules = new ArrayList<>();
+    Resource[] resources = new PathMatchingResourcePatternResolver().getResources(YamlRules.CLASSPATH_PATTERN);
+    for (Resource resource : resources) {
+      rules.addAll(YamlRules.load(resource));
+    }
+    return rules;
+  }
+
+  private static Map<String, List<String>> expected() throws IOException {
+    Map<String, List<String>> ret = new LinkedHashMap<>();
+    try (InputStream in = BundledRulesTest.class.getResourceAsStream(EXPECTED)) {
+      assertNotNull(in, EXPECTED);
+      new String(in.readAllBytes(), StandardCharsets.UTF_8)
+          .lines()
+          .forEach(line -> ret.computeIfAbsent(line.substring(0, line.indexOf('\t')), drudle -> new ArrayList<>()).add(line));
+    }
+    return ret;
+  }
+
+  private static List<String> lines(SolveProcess process, String drudle) {
+    assertEquals(SolveResult.Truncation.NONE, process.run(drudle, ResultListener.NONE), drudle);
+    List<String> ret = new ArrayList<>();
+    for (var result : process.getResults()) {
+      var trace = new StringJoiner(",");
+      result.getPreviousResults().forEach(previous -> trace.add(previous.getRuleName() + ":" + previous.getInput()));
+      ret.add(String.join("\t", drudle, result.getRuleName(), escape(result.getOutput()), escape(trace.toString())));
+    }
+    ret.sort(null);
+    return ret;
+  }
+
+  @Test
+  void sameResultsAndTracesAsBeforeTest() throws IOException {
+    var index = new RuleIndex(bundledRules());
+    var expected = expected();
+    assertFalse(expected.isEmpty());
+    expected.forEach(
+        (drudle, lines) ->
+            assertEquals(lines, lines(new ChartProcess(index, 1, new SolvedCache(0, 0), LIMITS), drudle), drudle));
+  }
+
+  /** The page as the renderer built it by formatting the html template for every result. */
+  private static String formatted(OutputRenderer renderer, String drudle, Set<DrudleRuleResult> results) {
+    StringBuilder ret = new StringBuilder();
+    ret.append("<h2>Input: %s</h2>".formatted(drudle));
+    for (DrudleRuleResult res : results) {
+      ret.append(renderer.htmlTemplate.formatted(res.getOutput()));
+      ret.append("<br/>Used Rules:");
+      res.getPreviousResults().forEach(r -> ret.append("<br/>%s: %s ->".formatted(r.getRuleName(), r.getInput())));
+    }
+    return ret.toString();
+  }
+
+  @Test
+  void sameHtmlAsFormattedTemplateTest() throws IOException {
+    var index = new RuleIndex(bundledRules());
+    var renderer = new OutputRenderer();
+    for (String drudle : expected().keySet()) {
+      var process = new ChartProcess(index, 1, new SolvedCache(0, 0), LIMITS);
+      process.run(drudle, ResultListener.NONE);
+      Set<DrudleRuleResult> results = process.getResults();
+      assertEquals(formatted(renderer, drudle, results), renderer.render(drudle, results), drudle);
+    }
+  }
+
+  private static Set<String> outputs(SolveProcess process, String drudle) {
+    assertEquals(SolveResult.Truncation.NONE, process.run(drudle, ResultListener.NONE), drudle);
+    return process.getResults().stream()
+        .map(result -> result.getRuleName() + "|" + result.getOutput())
+        .collect(Collectors.toSet());
+  }
+
+  @Test
+  void sameResultsAsParallelOnBenchmarkCorporaTest() throws IOException {
+    var index = new RuleIndex(bundledRules());
+    for (String drudle : BENCHMARK_DRUDLES) {
+      // both combine every solution of every part, equal results may keep different traces
+      var expected =
+          outputs(
+              new DrudleProcess.Parallel(index, 1, new SolvedCache(0, 0), LIMITS, ForkJoinPool.commonPool()),
+              drudle);
+      assertEquals(expected, outputs(new ChartProcess(index, 1, new SolvedCache(0, 0), LIMITS), drudle), drudle);
+    }
+  }
+}
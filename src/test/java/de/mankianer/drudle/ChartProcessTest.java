@@ -0,0 +1,111 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class ChartProcessTest {
+
+  private static final SolveLimits LIMITS = new SolveLimits(1_000_000, Duration.ofSeconds(10), 32, 100_000);
+
+  /** Solves "x" with the made up text "blaurot", a part that is not part of the drudle. */
+  private static final DrudleRule X_IS_BLAUROT =
+      new DrudleRule() {
+        @Override
+        public List<DrudleRuleResult> apply(String drudle) {
+          if (!drudle.equals("x")) return List.of();
+          return List.of(
+              new DrudleRuleResult(
+                  getName(), drudle, List.of(drudle), List.of("blaurot"), parts -> "[" + parts.get("blaurot") + "]"));
+        }
+
+        @Override
+        public String getName() {
+          return "x-is-blaurot";
+        }
+      };
+
+  private static final RuleIndex INDEX =
+      new RuleIndex(
+          List.of(
+              new RegexRule("rot-0", "rot", "<r>{head}*</r>{tail}"),
+              new RegexRule("rot-2", "rot", "<r>{tail}*</r>{head}"),
+              new RegexRule("2-0", "zwei", "{head}<row>{tail}*{tail}*</row>"),
+              new RegexRule("ee->e-0", "ee", "{head}e{tail}"),
+              new RegexRule("start-e", "^e", "E{tail}"),
+              new RegexRule("named", "e(?<key>\\w)e", "{head}({key}){tail}"),
+              X_IS_BLAUROT));
+
+  /**
+   * One worker that works off its tasks in the order they are queued, so the parallel search keeps
+   * the same derivation of equal results as the chart.
+   */
+  private static final ForkJoinPool IN_ORDER =
+      new ForkJoinPool(1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+  private static Set<String> results(SolveProcess process, String drudle) {
+    process.run(drudle, ResultListener.NONE);
+    return process.getResults().stream()
+        .map(result -> result.getRuleName() + "|" + result.getOutput() + "|" + result.getPreviousResults().size())
+        .collect(Collectors.toSet());
+  }
+
+  @Test
+  void sameResultsAsParallelTest() {
+    for (String drudle : List.of("zweirot", "eeerot", "exeeyezwei", "rotxrot", "zweix", "eeeeeeee", "nomatch")) {
+      // both combine every solution of every part
+      var expected =
+          results(
+              new DrudleProcess.Parallel(INDEX, 1, new SolvedCache(0, 0), LIMITS, IN_ORDER),
+              drudle);
+      var actual = results(new ChartProcess(INDEX, 1, new SolvedCache(0, 0), LIMITS), drudle);
+      assertEquals(expected, actual, drudle);
+    }
+  }
+
+  @Test
+  void anchorsMatchAtSpanBoundsTest() {
+    var process = new ChartProcess(INDEX, 1, new SolvedCache(0, 0), LIMITS);
+    process.run("roteee", ResultListener.NONE);
+    Set<String> outputs = process.getResults().stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+    // "^e" matches the tail "eee" of "rot", but not the "e" after "rot" in the drudle
+    assertTrue(outputs.contains("<r>Eee</r>"), outputs.toString());
+    assertTrue(process.getResults().stream().noneMatch(result -> result.getRuleName().equals("start-e")));
+  }
+
+  @Test
+  void madeUpPartsAreSolvedTest() {
+    var process = new ChartProcess(INDEX, 1, new SolvedCache(0, 0), LIMITS);
+    process.run("zweix", ResultListener.NONE);
+    Set<String> outputs = process.getResults().stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+    assertTrue(outputs.contains("<row>[<r>blau</r>][<r>blau</r>]</row>"), outputs.toString());
+  }
+
+  @Test
+  void solvedPartsAreStoredTest() {
+    var cache = new SolvedCache(100, 1_000_000);
+    var process = new ChartProcess(INDEX, 1, cache, LIMITS);
+    process.run("zweirot", ResultListener.NONE);
+    process.storeSolved();
+    assertEquals(process.getResults(), cache.get(1, "zweirot"));
+    assertNotNull(cache.get(1, "rot"));
+    // a later search takes the parts from the cache
+    var cached = new ChartProcess(INDEX, 1, cache, LIMITS);
+    cached.run("zweirot", ResultListener.NONE);
+    assertEquals(process.getResults(), cached.getResults());
+    assertTrue(cache.stats().hits() > 0);
+  }
+
+  @Test
+  void limitsTest() {
+    var limits = new SolveLimits(10, Duration.ofSeconds(10), 32, 100_000);
+    var process = new ChartProcess(INDEX, 1, new SolvedCache(0, 0), limits);
+    assertEquals(SolveResult.Truncation.STEPS, process.run("eeeeeeee", ResultListener.NONE));
+    assertEquals(10, process.getSteps());
+  }
+}
@@ -0,0 +1,163 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+class DrudleControllerTest {
+
+  private static final SolveLimits LIMITS = new SolveLimits(1_000, Duration.ofSeconds(1), 8, 100);
+
+  private final DrudleService service = mock(DrudleService.class);
+  private SolveGate gate;
+  private ResponseCache responseCache;
+  private DrudleController controller;
+
+  @BeforeEach
+  void setUp() {
+    var admission = new DrudleProperties.Admission();
+    admission.setMaxConcurrent(1);
+    admission.setMaxQueued(1);
+    admission.setMaxWait(Duration.ofMillis(50));
+    admission.setRetryAfter(Duration.ofSeconds(1));
+    gate = new SolveGate(admission);
+    when(service.getDefaultLimits()).thenReturn(LIMITS);
+    when(service.getRuleSetInfo()).thenReturn(new RuleSetInfo(1, 0));
+    responseCache = new ResponseCache(10, 1_000_000, Duration.ofMinutes(1));
+    controller =
+        new DrudleController(
+            service, new OutputRenderer(), new ObjectMapper(), gate, responseCache, new DrudleProperties());
+  }
+
+  @AfterEach
+  void tearDown() {
+    gate.shutdown();
+  }
+
+  /** A request that supports async processing, as the servlet container hands it to the controller. */
+  private static ServletWebRequest asyncRequest() {
+    var request = new MockHttpServletRequest();
+    request.setAsyncSupported(true);
+    var response = new MockHttpServletResponse();
+    var ret = new ServletWebRequest(request, response);
+    var asyncManager = WebAsyncUtils.getAsyncManager(ret);
+    asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+    asyncManager.setTaskExecutor(new TaskExecutorAdapter(Runnable::run));
+    return ret;
+  }
+
+  private ResponseEntity<byte[]> getDrudle(String drudle, SolveResult result, String acceptEncoding)
+      throws Exception {
+    when(service.processDrudle(eq(drudle), any(SolveLimits.class), any(ResultListener.class))).thenReturn(result);
+    var answered = new CompletableFuture<Object>();
+    controller.getDrudle(drudle, null, null, null, null, null, acceptEncoding).setResultHandler(answered::complete);
+    @SuppressWarnings("unchecked")
+    var ret = (ResponseEntity<byte[]>) answered.get(10, TimeUnit.SECONDS);
+    return ret;
+  }
+
+  @Test
+  void onlyCompleteResponsesStoredTest() throws Exception {
+    var truncated = getDrudle("rot", new SolveResult(Set.of(), SolveResult.Truncation.STEPS), "gzip");
+    assertEquals("no-store", truncated.getHeaders().getCacheControl());
+    assertEquals("STEPS", truncated.getHeaders().getFirst(DrudleController.TRUNCATED_HEADER));
+    assertNull(truncated.getHeaders().getETag());
+    assertNull(truncated.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(0, responseCache.stats().size());
+
+    var complete = getDrudle("blau", new SolveResult(Set.of(), SolveResult.Truncation.NONE), "gzip");
+    assertNotNull(complete.getHeaders().getETag());
+    assertEquals("gzip", complete.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertTrue(complete.getHeaders().getCacheControl().contains("public"));
+    assertEquals(1, responseCache.stats().size());
+  }
+
+  @Test
+  void acceptEncodingTest() throws Exception {
+    var result = new SolveResult(Set.of(), SolveResult.Truncation.NONE);
+    // a malformed q value refuses gzip instead of failing the request
+    var malformed = getDrudle("rot", result, "gzip;q=abc");
+    assertEquals(200, malformed.getStatusCode().value());
+    assertNull(malformed.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertNotNull(malformed.getHeaders().getETag());
+    // * allows gzip, unless gzip is refused by name
+    assertEquals("gzip", getDrudle("rot", result, "*").getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("gzip", getDrudle("rot", result, "br;q=1, *;q=0.5").getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertNull(getDrudle("rot", result, "gzip;q=0, *").getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertNull(getDrudle("rot", result, "*;q=0").getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  @Test
+  void fullPageByDefaultTest() throws Exception {
+    var index = new RuleIndex(List.of(new RegexRule("rot-0", "rot", "{head}<r>rot</r>{tail}")));
+    var process = new DrudleProcess.Sequential(index, 1, new SolvedCache(0, 0), LIMITS);
+    var truncation = process.run("rotrot", ResultListener.NONE);
+    var result = new SolveResult(process.getResults(), truncation);
+    var renderer = new OutputRenderer();
+    var page = getDrudle("rotrot", result, null);
+    assertEquals(renderer.render("rotrot", result), new String(page.getBody(), StandardCharsets.UTF_8));
+
+    // opt in to the compact page, without the full page in the cache
+    var properties = new DrudleProperties();
+    properties.getRender().setCompactPage(true);
+    controller =
+        new DrudleController(
+            service, renderer, new ObjectMapper(), gate, new ResponseCache(0, 0, Duration.ofMinutes(1)), properties);
+    var compact = new StringWriter();
+    renderer.render("rotrot", result, compact);
+    assertEquals(compact.toString(), new String(getDrudle("rotrot", result, null).getBody(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void abandonedStreamReturnsSlotTest() throws Exception {
+    var request = asyncRequest();
+    var response = controller.streamDrudleNdjson("rot", null, null, null, null, request);
+    assertNotNull(response.getBody());
+    assertEquals(1, gate.getRunning());
+    // no free slot: rejected before the stream sends 200
+    assertThrows(
+        SolveRejectedException.class,
+        () -> controller.streamDrudleHtml("rot", null, null, null, null, asyncRequest()));
+    assertEquals(0, gate.getQueued());
+    // the request ends without running the body, e.g. because the client is gone
+    WebAsyncUtils.getAsyncManager(request).startCallableProcessing(() -> null);
+    request.getRequest().getAsyncContext().complete();
+    assertEquals(0, gate.getRunning());
+    assertEquals(0, gate.getQueued());
+    verify(service, never()).processDrudle(any(), any(SolveLimits.class), any(ResultListener.class));
+  }
+
+  @Test
+  void failingStreamReturnsSlotTest() {
+    when(service.processDrudle(eq("rot"), any(SolveLimits.class), any(ResultListener.class)))
+        .thenThrow(new IllegalStateException("broken rule"));
+    var ndjson = controller.streamDrudleNdjson("rot", null, null, null, null, asyncRequest());
+    assertThrows(IllegalStateException.class, () -> ndjson.getBody().writeTo(OutputStream.nullOutputStream()));
+    assertEquals(0, gate.getRunning());
+    assertEquals(0, gate.getQueued());
+    var html = controller.streamDrudleHtml("rot", null, null, null, null, asyncRequest());
+    assertThrows(IllegalStateException.class, () -> html.getBody().writeTo(OutputStream.nullOutputStream()));
+    assertEquals(0, gate.getRunning());
+    assertEquals(0, gate.getQueued());
+  }
+}
@@ -0,0 +1,26 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+class DrudleMetricsTest {
+
+  @Test
+  void solveMetricsTest() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    DrudleServiceImpl service = new DrudleServiceImpl(new DrudleProperties(), registry);
+    service.addRules(new RegexRule("testRule", "test", "{head}{tail}"));
+    service.processDrudle("1test2test3");
+    assertEquals(1, registry.get("drudle.solve").timer().count());
+    assertEquals(3, registry.get("drudle.solve.results").summary().totalAmount());
+    assertTrue(registry.get("drudle.solve.steps").summary().totalAmount() > 0);
+    // every result of the rule uses the whole input
+    double fired = registry.get("drudle.rule.fired").tag("rule", "testRule").counter().count();
+    assertTrue(fired > 0);
+    assertEquals(fired, registry.get("drudle.rule.valid").tag("rule", "testRule").counter().count());
+    assertEquals(
+        1, registry.get("drudle.rule.apply").tag("rule", "testRule").tag("file", "none").timers().size());
+  }
+}
@@ -0,0 +1,142 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class DrudleRuleResultTest {
+
+  @Test
+  void sameDerivationInDifferentOrderIsEqualTest() {
+    RegexRule rule = new RegexRule("testRule", "test", "{head}-{tail}");
+    var first = rule.apply("1test2").getFirst().getUsedPartsFulfillmentConsumerMap();
+    var second = rule.apply("1test2").getFirst().getUsedPartsFulfillmentConsumerMap();
+    // fill head first
+    assertNull(first.get("1").apply(new DrudleRuleResultSolved("CLICK")));
+    DrudleRuleResultSolved headFirst = first.get("2").apply(new DrudleRuleResultSolved("CLACK"));
+    // fill tail first
+    assertNull(second.get("2").apply(new DrudleRuleResultSolved("CLACK")));
+    DrudleRuleResultSolved tailFirst = second.get("1").apply(new DrudleRuleResultSolved("CLICK"));
+
+    assertNotSame(headFirst, tailFirst);
+    assertEquals(headFirst, tailFirst);
+    assertEquals(headFirst.hashCode(), tailFirst.hashCode());
+    assertTrue(Set.of(headFirst).contains(tailFirst));
+  }
+
+  @Test
+  void everyCombinationOfPartSolutionsTest() {
+    RegexRule rule = new RegexRule("testRule", "test", "{head}-{tail}");
+    var result = rule.apply("1test2").getFirst();
+    assertTrue(result.fulfill(0, new DrudleRuleResultSolved("A")).isEmpty());
+    assertEquals(
+        List.of("A-C"),
+        result.fulfill(1, new DrudleRuleResultSolved("C")).stream().map(DrudleRuleResult::getOutput).toList());
+    assertEquals(
+        List.of("B-C"),
+        result.fulfill(0, new DrudleRuleResultSolved("B")).stream().map(DrudleRuleResult::getOutput).toList());
+    // a new tail solution is combined with every known head solution
+    assertEquals(
+        Set.of("A-D", "B-D"),
+        result.fulfill(1, new DrudleRuleResultSolved("D")).stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet()));
+  }
+
+  @Test
+  void latestPartSolutionsTest() {
+    RegexRule rule = new RegexRule("testRule", "test", "{head}-{tail}");
+    var fulfill = rule.apply("1test2").getFirst().getUsedPartsFulfillmentConsumerMap();
+    assertNull(fulfill.get("1").apply(new DrudleRuleResultSolved("A")));
+    assertEquals("A-C", fulfill.get("2").apply(new DrudleRuleResultSolved("C")).getOutput());
+    // a new solution replaces the solution of its part
+    assertEquals("B-C", fulfill.get("1").apply(new DrudleRuleResultSolved("B")).getOutput());
+    assertEquals("B-D", fulfill.get("2").apply(new DrudleRuleResultSolved("D")).getOutput());
+  }
+
+  @Test
+  void differentOutputIsNotEqualTest() {
+    assertEquals(new DrudleRuleResultSolved("rot"), new DrudleRuleResultSolved("rot"));
+    assertNotEquals(new DrudleRuleResultSolved("rot"), new DrudleRuleResultSolved("blau"));
+  }
+
+  @Test
+  void solvedResultIsItsOwnSolvedResultTest() {
+    DrudleRuleResultSolved solved = new DrudleRuleResultSolved("rot");
+    assertSame(solved, solved.getSolvedResult());
+  }
+
+  @Test
+  void differentDerivationsWithSameOutputAreEqualTest() {
+    RegexRule rule = new RegexRule("ee->e", "ee", "{head}e{tail}");
+    // "eee" matches once, "e" + "ee" and "ee" + "e" are two derivations of "ee"
+    var atStart = rule.apply("xeee").getFirst().getUsedPartsFulfillmentConsumerMap();
+    assertNull(atStart.get("x").apply(new DrudleRuleResultSolved("x")));
+    DrudleRuleResultSolved first = atStart.get("e").apply(new DrudleRuleResultSolved("e"));
+    var literal = new RegexRule("ee->e", "ee", "xe{tail}").apply("xeee").getFirst().getUsedPartsFulfillmentConsumerMap();
+    DrudleRuleResultSolved second = literal.get("e").apply(new DrudleRuleResultSolved("e"));
+
+    assertEquals("xee", first.getOutput());
+    assertEquals(first.getOutput(), second.getOutput());
+    assertEquals(first.getOutput().length(), first.getOutputLength());
+    assertEquals(first, second);
+    assertEquals(first.hashCode(), second.hashCode());
+  }
+
+  @Test
+  void previousResultsAreBuiltFromThePartsTest() {
+    RegexRule rule = new RegexRule("testRule", "test", "{head}-{tail}");
+    var inner = rule.apply("1test2").getFirst().getUsedPartsFulfillmentConsumerMap();
+    inner.get("1").apply(new DrudleRuleResultSolved("1"));
+    DrudleRuleResultSolved innerSolved = inner.get("2").apply(new DrudleRuleResultSolved("2"));
+    var outer = rule.apply("1test2test3").get(1).getUsedPartsFulfillmentConsumerMap();
+    outer.get("1test2").apply(innerSolved);
+    DrudleRuleResultSolved outerSolved = outer.get("3").apply(new DrudleRuleResultSolved("3"));
+
+    assertEquals("1-2-3", outerSolved.getOutput());
+    assertEquals(List.of("1test2", "1test2test3"), outerSolved.getPreviousResults().stream().map(DrudleRuleResult::getInput).toList());
+  }
+
+  @Test
+  void partsWithRegexCharactersAreValidTest() {
+    RegexRule rule = new RegexRule("testRule", "test", "{head}-{tail}");
+    var result = rule.apply("1+test(2").getFirst();
+    assertTrue(result.isValid());
+    assertEquals(Set.of("1+", "(2"), result.getUsedPartsFulfillmentConsumerMap().keySet());
+
+    var parts = List.of("(c", "a.b");
+    assertTrue(new DrudleRuleResult("testRule", "(ca.b", parts, parts, outputs -> "x").isValid());
+    assertFalse(new DrudleRuleResult("testRule", "(caxb", parts, parts, outputs -> "x").isValid());
+    // the parts have to match in order
+    assertFalse(new DrudleRuleResult("testRule", "a.b(c", parts, parts, outputs -> "x").isValid());
+    // the part is no pattern, "." does not match the "x"
+    assertFalse(new DrudleRuleResult("testRule", "axb", List.of("a.b"), List.of("a.b"), outputs -> "x").isValid());
+  }
+
+  @Test
+  void manyPartsAreValidTest() {
+    List<String> parts = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      parts.add(i % 2 == 0 ? "ab" : "");
+    }
+    String input = "ab".repeat(50);
+    assertTrue(new DrudleRuleResult("testRule", input, parts, parts, outputs -> "x").isValid());
+    assertFalse(new DrudleRuleResult("testRule", input + "a", parts, parts, outputs -> "x").isValid());
+  }
+
+  @Test
+  void partsByIndexTest() {
+    var result = new RegexRule("testRule", "test", "{head}-{tail}-{head}").apply("1test22").getFirst();
+    assertEquals(2, result.getPartCount());
+    assertEquals("1", result.getPart(0));
+    assertEquals("22", result.getPart(1));
+    assertEquals(2, result.getPartLength(1));
+    assertFalse(result.usesWholeInput());
+    assertTrue(result.fulfill(0, new DrudleRuleResultSolved("A")).isEmpty());
+    assertEquals("A-B-A", result.fulfill(1, new DrudleRuleResultSolved("B")).getFirst().getOutput());
+    assertEquals(0, new DrudleRuleResultSolved("rot").getPartCount());
+  }
+}
@@ -0,0 +1,72 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DrudleServiceImplParallelTest {
+
+    private DrudleServiceImpl sequential;
+    private DrudleServiceImpl parallel;
+    private DrudleServiceImpl chart;
+    private DrudleServiceImpl bestFirst;
+
+    private static DrudleServiceImpl createService(DrudleProperties.Engine.Mode mode) {
+        DrudleProperties properties = new DrudleProperties();
+        properties.getEngine().setMode(mode);
+        properties.getEngine().setParallelism(4);
+        // solve everything, do not answer from the cache
+        properties.getCache().setMaxEntries(0);
+        DrudleServiceImpl service = new DrudleServiceImpl(properties);
+        service.addRules(
+            new RegexRule("rot-0", "rot", "<r>{head}*</r>{tail}"),
+            new RegexRule("rot-2", "rot", "<r>{tail}*</r>{head}"),
+            new RegexRule("blau-0", "blau", "<b>{head}*</b>{tail}"),
+            new RegexRule("blau-2", "blau", "<b>{tail}*</b>{head}"),
+            new RegexRule("2-0", "zwei", "{head}<row>{tail}*{tail}*</row>"),
+            new RegexRule("2-1", "zwei", "{head}<col>{tail}*{tail}*</col>"),
+            new RegexRule("es->s-0", "es", "{head}s{tail}"),
+            new RegexRule("ee->e-0", "ee", "{head}e{tail}"));
+        return service;
+    }
+
+    private static Set<String> outputs(DrudleServiceImpl service, String drudle) {
+        return service.processDrudle(drudle).stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+    }
+
+    @BeforeEach
+    void setUp() {
+        sequential = createService(DrudleProperties.Engine.Mode.SEQUENTIAL);
+        parallel = createService(DrudleProperties.Engine.Mode.PARALLEL);
+        chart = createService(DrudleProperties.Engine.Mode.CHART);
+        bestFirst = createService(DrudleProperties.Engine.Mode.BEST_FIRST);
+    }
+
+    @AfterEach
+    void tearDown() {
+        parallel.shutdown();
+    }
+
+    @Test
+    void testSameResults() {
+        for (String drudle : Set.of("zweirot", "rotblauzwei", "blaueszweirot", "rotrotrot", "zweizweiblau", "nomatch")) {
+            Set<String> expected = outputs(chart, drudle);
+            // repeat, so different thread interleavings are covered
+            for (int i = 0; i < 5; i++) {
+                assertEquals(expected, outputs(parallel, drudle), drudle);
+            }
+            assertEquals(expected, outputs(bestFirst, drudle), drudle);
+            // the sequential engine only combines the latest solution of each part
+            assertTrue(expected.containsAll(outputs(sequential, drudle)), drudle);
+        }
+    }
+
+    @Test
+    void testResultsNotEmpty() {
+        assertFalse(outputs(parallel, "zweirotblau").isEmpty());
+    }
+}
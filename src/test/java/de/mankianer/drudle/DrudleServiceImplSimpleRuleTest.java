@@ -63,4 +63,15 @@ class DrudleServiceImplSimpleRuleTest {
         verify(rule, times(1)).apply("2");
         verify(rule, times(1)).apply("3");
     }
+
+    @Test
+    void testDecomposedUmlaut() {
+        // apply the composed and the decomposed form of the same drudle
+        Set<String> composed = service.processDrudle("1test2ü").stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+        Set<String> decomposed = service.processDrudle("1test2u\u0308").stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+        // assert that both are one drudle, the second is answered from the cache
+        assertEquals(composed, decomposed);
+        verify(rule, times(1)).apply("1test2ü");
+        verify(rule, never()).apply("1test2u\u0308");
+    }
 }
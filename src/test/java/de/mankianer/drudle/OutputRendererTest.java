@@ -0,0 +1,75 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class OutputRendererTest {
+
+  private static final RuleIndex INDEX =
+      new RuleIndex(
+          List.of(
+              new RegexRule("rot-0", "rot", "{head}<r>rot</r>{tail}"),
+              new RegexRule("rot-1", "rot", "{head}<r>ROT</r>{tail}"),
+              new RegexRule("grün-0", "grün", "{head}<g>grün</g>{tail}")));
+
+  private final OutputRenderer renderer = new OutputRenderer();
+
+  private static SolveResult solve(String drudle) {
+    var process =
+        new DrudleProcess.Sequential(
+            INDEX, 1, new SolvedCache(0, 0), new SolveLimits(100_000, Duration.ofSeconds(10), 32, 1_000));
+    var truncation = process.run(drudle, ResultListener.NONE);
+    return new SolveResult(process.getResults(), truncation);
+  }
+
+  private static int count(String text, String part) {
+    int ret = 0;
+    for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+      ret++;
+    }
+    return ret;
+  }
+
+  @Test
+  void compactPageTest() throws IOException {
+    var result = solve("rotrotrot");
+    assertTrue(result.results().size() > 8);
+    var out = new StringWriter();
+    renderer.render("rotrotrot", result, out);
+    String page = out.toString();
+    assertEquals(1, count(page, "<style>"));
+    assertEquals(1, count(page, "<script>"));
+    assertEquals(result.results().size(), count(page, "class=\"drudle-content\""));
+    assertTrue(page.contains("<r>ROT</r><r>rot</r><r>ROT</r>"), page);
+    assertTrue(page.contains("<h2>Input: rotrotrot</h2>"));
+    assertFalse(page.contains("Partial result"));
+    // the full page repeats the style and script per result
+    assertTrue(page.length() < renderer.render("rotrotrot", result).length() / 2);
+  }
+
+  @Test
+  void streamedPageTest() throws IOException {
+    var result = solve("grünrot");
+    var rendered = new ByteArrayOutputStream();
+    renderer.render("grünrot", result, rendered);
+
+    var streamed = new StringWriter();
+    var page = renderer.page("grünrot", streamed);
+    page.truncated(SolveResult.Truncation.NONE);
+    for (var res : result.results()) {
+      page.result(res);
+    }
+    page.flush();
+    assertEquals(streamed.toString(), rendered.toString(StandardCharsets.UTF_8));
+
+    page.truncated(SolveResult.Truncation.STEPS);
+    assertTrue(streamed.toString().endsWith("stopped at its steps limit, more drawings may exist.</p>"));
+  }
+}
@@ -0,0 +1,60 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class OutputTemplateTest {
+
+  private static String fill(OutputTemplate template, int[] slotToPart, String... parts) {
+    var solved = new DrudleRuleResultSolved[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      solved[i] = new DrudleRuleResultSolved(parts[i]);
+    }
+    var sb = new StringBuilder();
+    template.appendTo(sb, solved, slotToPart);
+    assertEquals(sb.length(), template.length(solved, slotToPart));
+    assertEquals(sb.toString().hashCode(), template.hash(solved, slotToPart));
+    return sb.toString();
+  }
+
+  @Test
+  void literalsAndSlotsTest() {
+    OutputTemplate template = OutputTemplate.parse("<b>{head}*</b>{tail}", List.of("head", "content", "tail"));
+    assertEquals(2, template.slotCount());
+    assertEquals(0, template.slot(0));
+    assertEquals(2, template.slot(1));
+    assertEquals("<b>rot</b>blau", fill(template, new int[] {0, 1}, "rot", "blau"));
+  }
+
+  @Test
+  void repeatedSlotTest() {
+    OutputTemplate template = OutputTemplate.parse("{tail}*-{tail}*-{tail}*", List.of("head", "content", "tail"));
+    assertEquals(3, template.slotCount());
+    assertEquals("x-x-x", fill(template, new int[] {0, 0, 0}, "x"));
+  }
+
+  @Test
+  void unknownBracesStayLiteralTest() {
+    OutputTemplate template = OutputTemplate.parse("{x}{head}{", List.of("head", "content", "tail"));
+    assertEquals(1, template.slotCount());
+    assertEquals("{x}a{", fill(template, new int[] {0}, "a"));
+  }
+
+  @Test
+  void deepDerivationHashTest() {
+    OutputTemplate template = OutputTemplate.parse("<{head}>", List.of("head"));
+    var result = new DrudleRuleResultSolved("x");
+    for (int depth = 0; depth < 2_000; depth++) {
+      result =
+          new DrudleRuleResultSolved(
+              "wrap", "x", template, new int[] {0}, new int[] {0}, new DrudleRuleResultSolved[] {result});
+    }
+    // the hash is taken from the stored hashes of the parts, the output is only built here
+    String output = result.getOutput();
+    assertEquals(2_000 * 2 + 1, output.length());
+    assertEquals(output.hashCode(), result.outputHash());
+  }
+}
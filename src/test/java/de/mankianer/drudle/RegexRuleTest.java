@@ -128,4 +128,22 @@ class RegexRuleTest {
     assertTrue(tailResult.isSolved());
     assertEquals("13-24", tailResult.getOutput());
   }
+
+  @Test
+  void namedGroupsInMatchOrderTest() {
+    // "late" is declared first but matches behind "early", the parts are ordered by the match
+    RegexRule rule =
+        new RegexRule("testRule", "(?=.(?<late>b))(?<early>a)b", "{head}{late}{early}{tail}");
+    List<DrudleRuleResult> results = rule.apply("xaby");
+    assertEquals(1, results.size());
+    DrudleRuleResult result = results.getFirst();
+    assertTrue(result.isValid());
+    var usedPartsFulfillmentConsumerMap = result.getUsedPartsFulfillmentConsumerMap();
+    assertEquals(List.of("a", "b", "x", "y"), List.copyOf(usedPartsFulfillmentConsumerMap.keySet()));
+    usedPartsFulfillmentConsumerMap.get("a").apply(new DrudleRuleResult.DrudleRuleResultSolved("1"));
+    usedPartsFulfillmentConsumerMap.get("b").apply(new DrudleRuleResult.DrudleRuleResultSolved("2"));
+    usedPartsFulfillmentConsumerMap.get("x").apply(new DrudleRuleResult.DrudleRuleResultSolved("3"));
+    var solved = usedPartsFulfillmentConsumerMap.get("y").apply(new DrudleRuleResult.DrudleRuleResultSolved("4"));
+    assertEquals("3214", solved.getOutput());
+  }
 }
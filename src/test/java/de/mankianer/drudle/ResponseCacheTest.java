@@ -0,0 +1,92 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+
+class ResponseCacheTest {
+
+  private static ResponseCache cache(int maxEntries, long maxBytes) {
+    return new ResponseCache(maxEntries, maxBytes, Duration.ofMinutes(1));
+  }
+
+  @Test
+  void hitAndMissTest() {
+    var cache = cache(10, 100_000);
+    assertNull(cache.get(1, "rot"));
+    var stored = cache.put(1, "rot", out -> out.write("<p>rot</p>"));
+    assertSame(stored, cache.get(1, "rot"));
+    assertNull(cache.get(2, "rot"));
+    assertEquals(1, cache.stats().hits());
+    assertEquals(2, cache.stats().misses());
+  }
+
+  @Test
+  void newerVersionDropsOlderEntriesTest() {
+    var cache = cache(10, 100_000);
+    cache.put(1, "rot", out -> out.write("<p>rot</p>"));
+    cache.put(2, "blau", out -> out.write("<p>blau</p>"));
+    assertNull(cache.get(1, "rot"));
+    // an older version is not stored once a newer one is
+    cache.put(1, "rot", out -> out.write("<p>rot</p>"));
+    assertNull(cache.get(1, "rot"));
+    assertEquals(1, cache.stats().size());
+  }
+
+  @Test
+  void evictWithinBytesTest() {
+    var first = ResponseCache.Entry.of(1, "<p>rot</p>");
+    var cache = cache(10, first.size() * 2);
+    cache.put(1, "a", out -> out.write("<p>rot</p>"));
+    cache.put(1, "b", out -> out.write("<p>rot</p>"));
+    cache.get(1, "a");
+    cache.put(1, "c", out -> out.write("<p>rot</p>"));
+    assertNotNull(cache.get(1, "a"));
+    assertNull(cache.get(1, "b"));
+    assertEquals(1, cache.stats().evictions());
+    assertTrue(cache.stats().bytes() <= first.size() * 2);
+  }
+
+  @Test
+  void entryTest() throws IOException {
+    var entry = ResponseCache.Entry.of(3, "<p>grün</p>");
+    assertArrayEquals("<p>grün</p>".getBytes(StandardCharsets.UTF_8), entry.body());
+    try (var in = new GZIPInputStream(new ByteArrayInputStream(entry.gzip()))) {
+      assertArrayEquals(entry.body(), in.readAllBytes());
+    }
+    assertEquals(entry.etag(), ResponseCache.Entry.of(3, "<p>grün</p>").etag());
+    assertNotEquals(entry.etag(), ResponseCache.Entry.of(4, "<p>grün</p>").etag());
+    assertNotEquals(entry.etag(), ResponseCache.Entry.of(3, "<p>gruen</p>").etag());
+    assertNotEquals(entry.etag(false), entry.etag(true));
+    assertTrue(entry.matches(entry.etag(false)));
+    assertTrue(entry.matches("\"other\", W/" + entry.etag(true)));
+    assertTrue(entry.matches("*"));
+    assertFalse(entry.matches("\"other\""));
+    assertFalse(entry.matches(null));
+  }
+
+  @Test
+  void disabledCacheTest() {
+    var cache = cache(0, 100_000);
+    assertFalse(cache.isEnabled());
+    assertNotNull(cache.put(1, "rot", out -> out.write("<p>rot</p>")));
+    assertNull(cache.get(1, "rot"));
+    assertEquals(0, cache.stats().bytes());
+  }
+
+  @Test
+  void normalizeTest() {
+    assertEquals("grün", DrudleServiceImpl.normalize("gru\u0308n"));
+    String composed = "grün";
+    assertSame(composed, DrudleServiceImpl.normalize(composed));
+    // the composed and decomposed drudle share one entry
+    var cache = cache(10, 100_000);
+    var entry = cache.put(1, "gru\u0308n", out -> out.write("<p>grün</p>"));
+    assertSame(entry, cache.get(1, composed));
+  }
+}
@@ -0,0 +1,47 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResultListenerTest {
+
+  private DrudleServiceImpl service;
+
+  @BeforeEach
+  void setUp() {
+    service = new DrudleServiceImpl();
+    service.addRules(new RegexRule("testRule", "test", "{head}{tail}"));
+  }
+
+  @Test
+  void streamedResultsTest() {
+    Set<DrudleRuleResult> streamed = new HashSet<>();
+    SolveResult result =
+        service.processDrudle("1test2test3", service.getDefaultLimits(), streamed::add);
+    // assert that every result is streamed once
+    assertEquals(result.results(), streamed);
+    assertEquals(SolveResult.Truncation.NONE, result.truncation());
+  }
+
+  @Test
+  void cancelledStreamTest() {
+    List<DrudleRuleResult> streamed = new ArrayList<>();
+    // the client is gone after the first result
+    SolveResult result =
+        service.processDrudle(
+            "1test2test3",
+            service.getDefaultLimits(),
+            res -> {
+              streamed.add(res);
+              return false;
+            });
+    assertEquals(1, streamed.size());
+    assertEquals(SolveResult.Truncation.CANCELLED, result.truncation());
+  }
+}
@@ -0,0 +1,127 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ResultPageTest {
+
+  private static final SolveLimits LIMITS = new SolveLimits(1_000_000, Duration.ofSeconds(10), 32, 100_000);
+
+  private static final List<RegexRule> RULES =
+      List.of(
+          new RegexRule("rot-0", "rot", "{head}<r>rot</r>{tail}"),
+          new RegexRule("rot-1", "rot", "{head}<r>ROT</r>{tail}"),
+          new RegexRule("2-0", "zwei", "{head}<row>{tail}{tail}</row>"));
+
+  private static final RuleIndex INDEX = new RuleIndex(RULES);
+
+  private static Set<DrudleRuleResult> solve(SolveProcess process, String drudle) {
+    process.run(drudle, ResultListener.NONE);
+    return process.getResults();
+  }
+
+  private static Set<DrudleRuleResult> sequential(String drudle) {
+    return solve(new DrudleProcess.Sequential(INDEX, 1, new SolvedCache(0, 0), LIMITS), drudle);
+  }
+
+  @Test
+  void treeSpansTest() {
+    var trees = sequential("zweirot").stream().map(ResultTree::of).toList();
+    // zwei splits off "rot" as tail, which rot-0 solves at offset 4
+    assertTrue(trees.contains(new ResultTree("2-0", 0, 7, List.of(new ResultTree("rot-0", 4, 7, List.of())))));
+    // rot splits off "zwei" as head, which 2-0 solves at offset 0
+    assertTrue(trees.contains(new ResultTree("rot-1", 0, 7, List.of(new ResultTree("2-0", 0, 4, List.of())))));
+    for (var tree : trees) {
+      assertEquals(0, tree.start());
+      assertEquals(7, tree.end());
+    }
+  }
+
+  private static DrudleServiceImpl service(DrudleProperties.Engine.Mode mode) {
+    var properties = new DrudleProperties();
+    properties.getEngine().setMode(mode);
+    var service = new DrudleServiceImpl(properties);
+    service.addRules(RULES.toArray(DrudleRule[]::new));
+    return service;
+  }
+
+  /** The page like the results endpoint asks for it: the search stops at the end of the page. */
+  private static ResultPage page(DrudleService service, String drudle, int offset, int limit) {
+    int count = offset + limit;
+    var result = service.processDrudleCheapest(drudle, LIMITS, count, ResultListener.NONE);
+    boolean more = result.truncation() == SolveResult.Truncation.RESULTS && count < LIMITS.maxResults();
+    return ResultPage.of(result.results(), offset, limit, more);
+  }
+
+  private static List<ResultTree> trees(ResultPage page) {
+    return page.items().stream().map(ResultPage.Item::tree).toList();
+  }
+
+  @Test
+  void searchStopsAtThePageTest() {
+    var service = service(DrudleProperties.Engine.Mode.SEQUENTIAL);
+    var result = service.processDrudleCheapest("zweizweirot", LIMITS, 3, ResultListener.NONE);
+    assertEquals(3, result.results().size());
+    assertEquals(SolveResult.Truncation.RESULTS, result.truncation());
+    var first = page(service, "zweizweirot", 0, 3);
+    assertNull(first.total());
+    assertEquals(3, first.nextOffset());
+    // a larger search finds the same results first
+    assertEquals(trees(first), trees(page(service, "zweizweirot", 0, 6)).subList(0, 3));
+  }
+
+  @Test
+  void samePagesForAllEnginesAndHistoriesTest() {
+    List<ResultTree> expected = null;
+    for (var mode : DrudleProperties.Engine.Mode.values()) {
+      for (var history : List.of(List.<String>of(), List.of("rot", "zwei", "zweirot"))) {
+        var service = service(mode);
+        history.forEach(service::processDrudle);
+        var trees = trees(page(service, "zweizweirot", 2, 4));
+        if (expected == null) expected = trees;
+        assertEquals(expected, trees, mode + " after " + history);
+        service.shutdown();
+      }
+    }
+  }
+
+  @Test
+  void pagesCoverAllResultsTest() {
+    var service = service(DrudleProperties.Engine.Mode.SEQUENTIAL);
+    var results = solve(new ChartProcess(INDEX, 1, new SolvedCache(0, 0), LIMITS), "zweizweirot");
+    assertTrue(results.size() > 3);
+    Set<DrudleRuleResult> seen = new HashSet<>();
+    int offset = 0;
+    int pages = 0;
+    while (true) {
+      var page = page(service, "zweizweirot", offset, 3);
+      page.items().forEach(item -> assertTrue(seen.add(item.result())));
+      pages++;
+      if (page.nextOffset() == null) {
+        assertEquals(results.size(), page.total());
+        break;
+      }
+      assertNull(page.total());
+      offset = page.nextOffset();
+    }
+    assertEquals(results, seen);
+    // the last page may end exactly at the last result, the page behind it is empty
+    assertTrue(pages == (results.size() + 2) / 3 || pages == results.size() / 3 + 1);
+    assertTrue(page(service, "zweizweirot", results.size() + 5, 3).items().isEmpty());
+  }
+
+  @Test
+  void cursorTest() {
+    String cursor = ResultPage.cursor(7, 20);
+    assertEquals(20, ResultPage.offset(cursor, 7));
+    assertEquals(0, ResultPage.offset(null, 7));
+    assertThrows(IllegalArgumentException.class, () -> ResultPage.offset(cursor, 8));
+    assertThrows(IllegalArgumentException.class, () -> ResultPage.offset("not a cursor!", 7));
+    assertThrows(IllegalArgumentException.class, () -> ResultPage.offset(ResultPage.cursor(7, -1), 7));
+  }
+}
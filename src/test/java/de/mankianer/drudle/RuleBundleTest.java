@@ -0,0 +1,59 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RuleBundleTest {
+
+  private static List<RegexRule> roundTrip(List<RegexRule> rules) throws IOException {
+    var out = new ByteArrayOutputStream();
+    RuleBundle.write(rules, out);
+    return RuleBundle.read(ByteBuffer.wrap(out.toByteArray()));
+  }
+
+  private static List<String> outputs(RegexRule rule, String drudle) {
+    return rule.apply(drudle).stream()
+        .map(result -> {
+          var fulfill = result.getUsedPartsFulfillmentConsumerMap();
+          DrudleRuleResult.DrudleRuleResultSolved solved = null;
+          for (var part : fulfill.keySet()) {
+            solved = fulfill.get(part).apply(new DrudleRuleResult.DrudleRuleResultSolved(part.toUpperCase()));
+          }
+          return solved.getOutput();
+        })
+        .toList();
+  }
+
+  @Test
+  void roundTripTest() throws IOException {
+    List<RegexRule> rules = List.of(
+        new RegexRule("rot-0", "rot", "<r>{head}*</r>{tail}", "rot", "_colors.yaml", 2.5),
+        new RegexRule("2-0", "zwei", "{head}<row>{tail}*{tail}*</row>"),
+        new RegexRule("group", "id(?<key>\\w+):(?<val>\\w+)end", "{head}{val}-{key}{tail}"));
+    List<RegexRule> read = roundTrip(rules);
+
+    assertEquals(rules.size(), read.size());
+    for (int i = 0; i < rules.size(); i++) {
+      assertEquals(rules.get(i).getName(), read.get(i).getName());
+      assertEquals(rules.get(i).getPattern(), read.get(i).getPattern());
+      assertEquals(rules.get(i).getDescription(), read.get(i).getDescription());
+      assertEquals(rules.get(i).getSource(), read.get(i).getSource());
+      assertEquals(rules.get(i).getWeight(), read.get(i).getWeight());
+      assertEquals(rules.get(i).getCompiled().slots(), read.get(i).getCompiled().slots());
+    }
+    assertEquals(outputs(rules.get(0), "xrotblau"), outputs(read.get(0), "xrotblau"));
+    assertEquals(List.of("X<row>DREIDREI</row>"), outputs(read.get(1), "xzweidrei"));
+    assertEquals(outputs(rules.get(2), "blaidtest:valenddawblu"), outputs(read.get(2), "blaidtest:valenddawblu"));
+  }
+
+  @Test
+  void notABundleTest() {
+    assertThrows(IOException.class, () -> RuleBundle.read(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8})));
+    assertThrows(IOException.class, () -> RuleBundle.read(ByteBuffer.wrap(new byte[] {1})));
+  }
+}
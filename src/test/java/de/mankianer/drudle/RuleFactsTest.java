@@ -0,0 +1,130 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.mankianer.drudle.SolveResult.Truncation;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class RuleFactsTest {
+
+  private static final SolveLimits LIMITS = new SolveLimits(1_000_000, Duration.ofSeconds(10), 32, 100_000);
+
+  private static Set<Character> required(PatternFacts facts) {
+    return new String(facts.requiredChars()).chars().mapToObj(c -> (char) c).collect(Collectors.toSet());
+  }
+
+  @Test
+  void patternFactsTest() {
+    var literal = PatternFacts.of(Pattern.compile("ae"));
+    assertEquals(2, literal.minLength());
+    assertEquals(Set.of('a', 'e'), required(literal));
+
+    var alternation = PatternFacts.of(Pattern.compile("rot|rosa"));
+    assertEquals(3, alternation.minLength());
+    assertEquals(Set.of('r', 'o'), required(alternation));
+
+    var optional = PatternFacts.of(Pattern.compile("ab?c*(de)+[xyz]{2,}"));
+    assertEquals(5, optional.minLength());
+    assertEquals(Set.of('a', 'd', 'e'), required(optional));
+
+    var group = PatternFacts.of(Pattern.compile("e(?<key>\\w)e(?=x)"));
+    assertEquals(3, group.minLength());
+    assertEquals(Set.of('e'), required(group));
+    assertFalse(group.canBeWholeMatch("key"));
+
+    var caseInsensitive = PatternFacts.of(Pattern.compile("(?i)rot"));
+    assertEquals(3, caseInsensitive.minLength());
+    assertEquals(Set.of(), required(caseInsensitive));
+
+    var comments = PatternFacts.of(Pattern.compile("r o t", Pattern.COMMENTS));
+    assertEquals(0, comments.minLength());
+    assertTrue(comments.canBeWholeMatch("any"));
+
+    var quoted = PatternFacts.of(Pattern.compile("x\\Q(a]|\\E"));
+    assertEquals(5, quoted.minLength());
+    assertEquals(Set.of('x', '(', 'a', ']', '|'), required(quoted));
+
+    var leadingBracket = PatternFacts.of(Pattern.compile("[]a]b[^]]"));
+    assertEquals(3, leadingBracket.minLength());
+    assertEquals(Set.of('b'), required(leadingBracket));
+
+    var inlineGroup = PatternFacts.of(Pattern.compile("(?i:rot)grün"));
+    assertEquals(7, inlineGroup.minLength());
+    // the flag only covers the group, the chars after it may be required
+    assertTrue(Set.of('g', 'r', 'ü', 'n').containsAll(required(inlineGroup)));
+
+    var openRepeat = PatternFacts.of(Pattern.compile("(ab){3,}c{0,}"));
+    assertEquals(6, openRepeat.minLength());
+    assertEquals(Set.of('a', 'b'), required(openRepeat));
+  }
+
+  @Test
+  void canonicalEquivalenceTest() {
+    // the decomposed e and accent match the one composed char
+    var pattern = Pattern.compile("e\u0301", Pattern.CANON_EQ);
+    assertTrue(pattern.matcher("\u00e9").matches());
+    var facts = PatternFacts.of(pattern);
+    assertEquals(0, facts.minLength());
+    assertEquals(0, facts.requiredChars().length);
+    assertTrue(facts.canMatch("\u00e9", 0, 1));
+  }
+
+  @Test
+  void matchesHaveTheFactsTest() {
+    var random = new Random(17);
+    for (String regex :
+        List.of("ae|oe", "a+b?", "(?<x>a|b)c", "[ab]{2}c|ca", "\\Qa.b\\E", "(a|)b", "b(?!a)a?", "(?:ab)*c")) {
+      var pattern = Pattern.compile(regex);
+      var facts = PatternFacts.of(pattern);
+      for (int i = 0; i < 200; i++) {
+        var text = new StringBuilder();
+        for (int j = random.nextInt(10); j > 0; j--) {
+          text.append("abce.".charAt(random.nextInt(5)));
+        }
+        var matcher = pattern.matcher(text);
+        boolean found = matcher.find();
+        if (!facts.canMatch(text.toString(), 0, text.length())) {
+          assertFalse(found, regex + " on " + text);
+        }
+        if (found) {
+          assertTrue(matcher.end() - matcher.start() >= facts.minLength(), regex + " on " + text);
+          for (char c : facts.requiredChars()) {
+            assertTrue(matcher.group().indexOf(c) >= 0, regex + " on " + text);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void growthCycleTest() {
+    assertTrue(new RegexRule("wrap", "x", "{head}<b>{content}</b>{tail}").getFacts().growthCycle());
+    assertTrue(new RegexRule("all", ".*", "[{content}]").getFacts().growthCycle());
+    assertTrue(new RegexRule("empty", "a?", "{head}!{tail}").getFacts().growthCycle());
+    assertTrue(new RegexRule("group", "(?<key>\\w+)", "<{key}>").getFacts().growthCycle());
+
+    assertFalse(new RegexRule("ae", "ä", "{head}ae{tail}").getFacts().growthCycle());
+    assertFalse(new RegexRule("pass", "x", "{content}").getFacts().growthCycle());
+    assertFalse(new RegexRule("inner", "e(?<key>\\w)e", "{head}({key}){tail}").getFacts().growthCycle());
+  }
+
+  @Test
+  void growthCycleTerminatesTest() {
+    var index = new RuleIndex(List.of(new RegexRule("wrap", "x", "{head}<b>{content}</b>{tail}")));
+    for (SolveProcess process :
+        List.of(
+            new DrudleProcess.Sequential(index, 1, new SolvedCache(0, 0), LIMITS),
+            new ChartProcess(index, 1, new SolvedCache(0, 0), LIMITS))) {
+      assertEquals(Truncation.NONE, process.run("axb", ResultListener.NONE));
+      Set<String> outputs =
+          process.getResults().stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+      assertEquals(Set.of("a<b>x</b>b"), outputs);
+    }
+  }
+}
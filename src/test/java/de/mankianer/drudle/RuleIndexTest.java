@@ -0,0 +1,85 @@
+package de.mankianer.drudle;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RuleIndexTest {
+
+  private static List<String> ruleNames(List<DrudleRuleResult> results) {
+    return results.stream().map(DrudleRuleResult::getRuleName).toList();
+  }
+
+  private static List<String> usedParts(List<DrudleRuleResult> results) {
+    return results.stream()
+        .map(result -> String.join("|", result.getUsedPartsFulfillmentConsumerMap().keySet().stream().sorted().toList()))
+        .toList();
+  }
+
+  @Test
+  void literalRulesOnlyApplyOnMatchTest() {
+    RegexRule rot = new RegexRule("rot", "rot", "{head}*{tail}");
+    RegexRule blau = new RegexRule("blau", "blau", "{head}*{tail}");
+    RuleIndex index = new RuleIndex(List.of(rot, blau));
+
+    assertThat(ruleNames(index.apply("xrot"))).containsExactly("rot");
+    assertThat(ruleNames(index.apply("xblau"))).containsExactly("blau");
+    assertTrue(index.apply("gruen").isEmpty());
+  }
+
+  @Test
+  void literalRulesNotAppliedWithoutMatchTest() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    RegexRule test = new RegexRule("test", "test", "{head}{tail}");
+    RuleIndex index = new RuleIndex(List.of(test), new DrudleMetrics(registry, "test"));
+
+    // the automaton finds no occurrence, the rule is not applied at all
+    index.apply("nomatch");
+    index.apply("1");
+    assertTrue(registry.find("drudle.rule.apply").timers().isEmpty());
+    index.apply("1test2");
+    assertEquals(1, registry.get("drudle.rule.apply").tag("rule", "test").timer().count());
+  }
+
+  @Test
+  void subclassesAppliedToEveryDrudleTest() {
+    List<String> applied = new ArrayList<>();
+    RegexRule counting =
+        new RegexRule("test", "test", "{head}{tail}") {
+          @Override
+          public List<DrudleRuleResult> apply(String drudle) {
+            applied.add(drudle);
+            return super.apply(drudle);
+          }
+        };
+    RuleIndex index = new RuleIndex(List.of(counting));
+
+    // the subclass may match more than its pattern, the index can not skip it
+    assertTrue(index.apply("nomatch").isEmpty());
+    assertThat(ruleNames(index.apply("1test2"))).containsExactly("test");
+    assertThat(applied).containsExactly("nomatch", "1test2");
+  }
+
+  @Test
+  void sameResultsAsRulesTest() {
+    List<DrudleRule> rules =
+        List.of(
+            new RegexRule("ee", "ee", "{head}e{tail}"),
+            new RegexRule("e", "e", "{head}-{tail}"),
+            new RegexRule("named", "e(?<key>\\w)e", "{head}{key}{tail}"),
+            new RegexRule("test", "test", "{head}*-{tail}*"));
+    RuleIndex index = new RuleIndex(rules);
+
+    for (String drudle : List.of("eee", "eeee", "test1test2test3", "aexeb", "nomatch")) {
+      List<DrudleRuleResult> expected =
+          rules.stream().flatMap(rule -> rule.apply(drudle).stream()).toList();
+      List<DrudleRuleResult> actual = index.apply(drudle);
+      assertEquals(ruleNames(expected), ruleNames(actual), drudle);
+      assertEquals(usedParts(expected), usedParts(actual), drudle);
+    }
+  }
+}
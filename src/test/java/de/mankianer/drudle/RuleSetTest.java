@@ -0,0 +1,57 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RuleSetTest {
+
+  private static Set<String> outputs(Set<DrudleRuleResult> results) {
+    return results.stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+  }
+
+  @Test
+  void reloadRulesTest(@TempDir Path rulesDirectory) throws IOException {
+    Path ruleFile = rulesDirectory.resolve("test.yaml");
+    Files.writeString(ruleFile, "name: a\npattern: test\noutput: \"{head}A{tail}\"\n");
+    DrudleProperties properties = new DrudleProperties();
+    properties.getRules().setDirectory(rulesDirectory);
+    properties.getRules().setWatch(false);
+    DrudleServiceImpl service = new DrudleServiceImpl(properties);
+    service.init();
+    assertEquals(new RuleSetInfo(1, 1), service.getRuleSetInfo());
+    assertEquals(Set.of("1A2"), outputs(service.processDrudle("1test2")));
+    // change the rule, the cached result of the old rules must not be returned
+    Files.writeString(ruleFile, "name: b\npattern: test\noutput: \"{head}B{tail}\"\n");
+    assertEquals(new RuleSetInfo(2, 1), service.reloadRules());
+    Set<DrudleRuleResult> after = service.processDrudle("1test2");
+    assertEquals(Set.of("1B2"), outputs(after));
+    assertEquals("test.yaml-b", after.iterator().next().getRuleName());
+    // a broken rule keeps the current rules
+    Files.writeString(ruleFile, "name: c\npattern: \"(test\"\noutput: \"{head}C{tail}\"\n");
+    assertThrows(IllegalArgumentException.class, service::reloadRules);
+    assertEquals(new RuleSetInfo(2, 1), service.getRuleSetInfo());
+    assertEquals(after, service.processDrudle("1test2"));
+  }
+
+  @Test
+  void rulesEndpointTest(@TempDir Path rulesDirectory) throws IOException {
+    Files.writeString(rulesDirectory.resolve("test.yaml"), "name: a\npattern: test\noutput: \"{head}A{tail}\"\n");
+    DrudleProperties properties = new DrudleProperties();
+    properties.getRules().setDirectory(rulesDirectory);
+    properties.getRules().setWatch(false);
+    DrudleServiceImpl service = new DrudleServiceImpl(properties);
+    service.init();
+    var endpoint = new RulesEndpoint(service);
+    assertEquals(new RuleSetInfo(1, 1), endpoint.rules());
+    Files.writeString(rulesDirectory.resolve("more.yaml"), "name: b\npattern: more\noutput: \"{head}B{tail}\"\n");
+    assertEquals(new RuleSetInfo(2, 2), endpoint.reload());
+    assertEquals(new RuleSetInfo(2, 2), service.getRuleSetInfo());
+  }
+}
@@ -0,0 +1,144 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SolutionIndexTest {
+
+  private static final List<DrudleRule> RULES =
+      List.of(
+          new RegexRule("rot-0", "rot", "{head}<r>rot</r>{tail}"),
+          new RegexRule("rot-1", "rot", "{head}<r>ROT</r>{tail}"),
+          new RegexRule("2-0", "zwei", "{head}<row>{tail}{tail}</row>"),
+          new RegexRule("named", "e(?<key>\\w)e", "{head}({key}){tail}"));
+
+  private static final List<String> WORDS = List.of("zweirot", "rotzweirot", "exerot");
+
+  private static DrudleServiceImpl service(Path indexFile) {
+    return service(indexFile, DrudleProperties.Engine.Mode.SEQUENTIAL);
+  }
+
+  private static DrudleServiceImpl service(Path indexFile, DrudleProperties.Engine.Mode mode) {
+    var properties = new DrudleProperties();
+    properties.getEngine().setMode(mode);
+    properties.getCache().setMaxEntries(0);
+    properties.getIndex().setFile(indexFile);
+    var service = new DrudleServiceImpl(properties);
+    service.addRules(RULES.toArray(DrudleRule[]::new));
+    return service;
+  }
+
+  private static Set<String> outputs(Set<DrudleRuleResult> results) {
+    return results.stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+  }
+
+  private static Set<String> solve(String drudle) {
+    var process =
+        new DrudleProcess.Sequential(
+            new RuleIndex(RULES), 1, new SolvedCache(0, 0), new SolveLimits(100_000, Duration.ofSeconds(10), 32, 1_000));
+    process.run(drudle, ResultListener.NONE);
+    return outputs(process.getResults());
+  }
+
+  private static byte[] write(Map<String, Set<DrudleRuleResult>> solved) throws IOException {
+    var out = new ByteArrayOutputStream();
+    SolutionIndex.write(RULES, solved, out);
+    return out.toByteArray();
+  }
+
+  @Test
+  void roundTripTest() throws IOException {
+    var solved = service(null).precompute(WORDS, 2);
+    assertTrue(solved.keySet().containsAll(WORDS));
+    var rules = new RuleSet(1, RULES, new RuleIndex(RULES));
+    var index = SolutionIndex.read(ByteBuffer.wrap(write(solved)), rules);
+
+    assertEquals(solved.size(), index.size());
+    for (String drudle : solved.keySet()) {
+      assertEquals(solve(drudle), outputs(index.get(drudle)), drudle);
+    }
+    var tree = index.get("zweirot").stream().map(ResultTree::of).toList();
+    assertTrue(tree.contains(new ResultTree("2-0", 0, 7, List.of(new ResultTree("rot-0", 4, 7, List.of())))));
+    assertNull(index.get("blau"));
+    assertEquals(1, index.getMisses());
+  }
+
+  @Test
+  void sameIndexForAnyParallelismTest() throws IOException {
+    List<String> words =
+        List.of("zweirot", "rotzweirot", "exerot", "rotrot", "zweizwei", "rotzweizwei", "zweirotrot", "exezwei");
+    for (var mode : DrudleProperties.Engine.Mode.values()) {
+      var service = service(null, mode);
+      byte[] expected = write(service.precompute(words, 1));
+      for (int run = 0; run < 5; run++) {
+        assertArrayEquals(expected, write(service.precompute(words, 4)), mode.name());
+      }
+      service.shutdown();
+    }
+  }
+
+  @Test
+  void otherRulesTest() throws IOException {
+    byte[] bytes = write(service(null).precompute(WORDS, 2));
+    List<DrudleRule> other = List.of(RULES.get(0), new RegexRule("rot-1", "rot", "{head}<r>Rot</r>{tail}"));
+    assertNull(SolutionIndex.read(ByteBuffer.wrap(bytes), new RuleSet(1, other, new RuleIndex(other))));
+    assertThrows(
+        IOException.class,
+        () -> SolutionIndex.read(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}), new RuleSet(1, RULES, new RuleIndex(RULES))));
+  }
+
+  @Test
+  void damagedIndexMissesTest() throws IOException {
+    var solved = service(null).precompute(WORDS, 2);
+    var rules = new RuleSet(1, RULES, new RuleIndex(RULES));
+    var bytes = ByteBuffer.wrap(write(solved));
+    int strings = 8 + 32;
+    int stringCount = bytes.getInt(strings);
+    int lastString = bytes.getInt(strings + 4 * stringCount);
+    int nodes = lastString + 4 + bytes.getInt(lastString);
+    // every result points behind the end of the file
+    for (int i = 0; i < bytes.getInt(nodes) - 1; i++) {
+      bytes.putInt(nodes + 4 + 4 * i, bytes.limit());
+    }
+    var index = SolutionIndex.read(bytes, rules);
+    assertNull(index.get("zweirot"));
+    assertNull(index.get("exerot"));
+    assertEquals(2, index.getMisses());
+    assertEquals(0, index.getHits());
+
+    // every string but the last has a negative length
+    bytes = ByteBuffer.wrap(write(solved));
+    for (int i = 0; i < stringCount - 1; i++) {
+      bytes.putInt(bytes.getInt(strings + 4 + 4 * i), -1);
+    }
+    index = SolutionIndex.read(bytes, rules);
+    assertNull(index.get("zweirot"));
+    assertEquals(1, index.getMisses());
+  }
+
+  @Test
+  void serviceAnswersFromTheIndexTest(@TempDir Path dir) throws IOException {
+    Path file = dir.resolve("solutions.idx");
+    Files.write(file, write(service(null).precompute(WORDS, 2)));
+
+    var service = service(file);
+    assertNotNull(service.getSolutionIndex());
+    for (String drudle : List.of("zweirot", "exerot", "rotrot")) {
+      assertEquals(solve(drudle), outputs(service.processDrudle(drudle)), drudle);
+    }
+    // zweirot and exerot, the sequential engine solves the parts of rotrot live
+    assertEquals(2, service.getSolutionIndex().getHits());
+  }
+}
@@ -0,0 +1,125 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SolveGateTest {
+
+  private SolveGate gate;
+
+  private SolveGate gate(int maxConcurrent, int maxQueued, Duration maxWait) {
+    var admission = new DrudleProperties.Admission();
+    admission.setMaxConcurrent(maxConcurrent);
+    admission.setMaxQueued(maxQueued);
+    admission.setMaxWait(maxWait);
+    admission.setRetryAfter(Duration.ofSeconds(3));
+    gate = new SolveGate(admission);
+    return gate;
+  }
+
+  @AfterEach
+  void tearDown() {
+    gate.shutdown();
+  }
+
+  @Test
+  void rejectWhenQueueIsFullTest() {
+    var gate = gate(1, 1, Duration.ofSeconds(1));
+    var first = gate.admit();
+    var second = gate.admit();
+    var e = assertThrows(SolveRejectedException.class, gate::admit);
+    assertEquals(Duration.ofSeconds(3), e.getRetryAfter());
+    first.close();
+    assertNotNull(gate.admit());
+    second.close();
+  }
+
+  @Test
+  void solveOnVirtualThreadTest() {
+    var gate = gate(1, 0, Duration.ofSeconds(1));
+    var virtual = gate.admit().submit(() -> Thread.currentThread().isVirtual()).join();
+    assertTrue(virtual);
+    assertEquals(0, gate.getRunning());
+    // the slot was given back
+    assertEquals("ok", gate.admit().call(() -> "ok"));
+  }
+
+  @Test
+  void rejectAfterMaxWaitTest() throws InterruptedException {
+    var gate = gate(1, 1, Duration.ofMillis(50));
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var running =
+        gate.admit()
+            .submit(
+                () -> {
+                  started.countDown();
+                  try {
+                    release.await();
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                  return "done";
+                });
+    started.await();
+    assertEquals(1, gate.getRunning());
+    var waiting = gate.admit().submit(() -> "late");
+    var e = assertThrows(CompletionException.class, waiting::join);
+    assertInstanceOf(SolveRejectedException.class, e.getCause());
+    release.countDown();
+    assertEquals("done", running.join());
+    assertEquals(0, gate.getQueued());
+  }
+
+  @Test
+  void unusedTicketReturnsSlotTest() {
+    var gate = gate(1, 0, Duration.ofSeconds(1));
+    var ticket = gate.admit();
+    ticket.acquire();
+    assertEquals(1, gate.getRunning());
+    // e.g. the streaming body never ran
+    ticket.close();
+    ticket.close();
+    assertEquals(0, gate.getRunning());
+    assertEquals(0, gate.getQueued());
+    assertThrows(SolveRejectedException.class, ticket::acquire);
+    assertEquals("ok", gate.admit().call(() -> "ok"));
+  }
+
+  @Test
+  void failingSolveReturnsSlotTest() {
+    var gate = gate(1, 0, Duration.ofSeconds(1));
+    var ticket = gate.admit();
+    ticket.acquire();
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            ticket.call(
+                () -> {
+                  throw new IllegalStateException("broken rule");
+                }));
+    assertEquals(0, gate.getRunning());
+    assertEquals(0, gate.getQueued());
+  }
+
+  @Test
+  void closeWhileSolvingKeepsSlotTest() {
+    var gate = gate(1, 0, Duration.ofSeconds(1));
+    var ticket = gate.admit();
+    var result =
+        ticket.call(
+            () -> {
+              // the request timed out, the solve still runs until it sees the cancel
+              ticket.close();
+              return gate.getRunning();
+            });
+    assertEquals(1, result);
+    assertEquals(0, gate.getRunning());
+    assertEquals(0, gate.getQueued());
+  }
+}
@@ -0,0 +1,74 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SolveLimitsTest {
+
+  private RegexRule rule;
+  private DrudleServiceImpl service;
+
+  @BeforeEach
+  void setUp() {
+    rule = spy(new RegexRule("testRule", "test", "{head}{tail}"));
+    service = new DrudleServiceImpl();
+    service.addRules(rule);
+  }
+
+  @Test
+  void restrictKeepsDefaultsTest() {
+    SolveLimits defaults = service.getDefaultLimits();
+    assertEquals(defaults, defaults.restrict(null, null, null, null));
+    // a request can only lower the limits
+    assertEquals(defaults.maxSteps(), defaults.restrict(Integer.MAX_VALUE, null, null, null).maxSteps());
+  }
+
+  @Test
+  void restrictRejectsEmptyLimitsTest() {
+    SolveLimits defaults = service.getDefaultLimits();
+    assertThrows(IllegalArgumentException.class, () -> defaults.restrict(0, null, null, null));
+    assertThrows(
+        IllegalArgumentException.class, () -> defaults.restrict(null, Duration.ofMillis(-5), null, null));
+    assertThrows(IllegalArgumentException.class, () -> defaults.restrict(null, null, -1, null));
+    assertThrows(IllegalArgumentException.class, () -> defaults.restrict(null, null, null, 0));
+    // depth 0 keeps the parts as they are, see depthLimitTest
+    assertEquals(0, defaults.restrict(null, null, 0, null).maxDepth());
+  }
+
+  @Test
+  void stepLimitTest() {
+    // stop the search after the first queue item
+    SolveLimits limits = service.getDefaultLimits().restrict(1, null, null, null);
+    SolveResult result = service.processDrudle("1test2test3", limits);
+    // assert that the partial result is returned and marked
+    assertNotNull(result.results());
+    assertEquals(SolveResult.Truncation.STEPS, result.truncation());
+  }
+
+  @Test
+  void depthLimitTest() {
+    // do not apply rules to the parts of the drudle
+    SolveLimits limits = service.getDefaultLimits().restrict(null, null, 0, null);
+    SolveResult result = service.processDrudle("1test2test3", limits);
+    // assert that the parts are kept as they are
+    assertEquals(
+        Set.of("12test3", "1test23"),
+        result.results().stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet()));
+    assertEquals(SolveResult.Truncation.DEPTH, result.truncation());
+    verify(rule, never()).apply("2test3");
+  }
+
+  @Test
+  void resultLimitTest() {
+    SolveLimits limits = service.getDefaultLimits().restrict(null, null, null, 1);
+    SolveResult result = service.processDrudle("1test2test3", limits);
+    assertEquals(1, result.results().size());
+    assertEquals(SolveResult.Truncation.RESULTS, result.truncation());
+  }
+}
@@ -0,0 +1,120 @@
+package de.mankianer.drudle;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import de.mankianer.drudle.DrudleRuleResult.DrudleRuleResultSolved;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class SolvedCacheTest {
+
+  private static Set<DrudleRuleResult> solved(String value) {
+    return Set.of(new DrudleRuleResultSolved(value));
+  }
+
+  @Test
+  void hitAndMissTest() {
+    SolvedCache cache = new SolvedCache(10, 1_000);
+    assertNull(cache.get(1, "rot"));
+    cache.put(1, "rot", solved("rot"));
+    assertNotNull(cache.get(1, "rot"));
+    assertEquals(1, cache.stats().hits());
+    assertEquals(1, cache.stats().misses());
+  }
+
+  @Test
+  void evictLeastRecentlyUsedTest() {
+    SolvedCache cache = new SolvedCache(2, 1_000);
+    cache.put(1, "a", solved("a"));
+    cache.put(1, "b", solved("b"));
+    cache.get(1, "a");
+    cache.put(1, "c", solved("c"));
+    assertNotNull(cache.get(1, "a"));
+    assertNull(cache.get(1, "b"));
+    assertNotNull(cache.get(1, "c"));
+    assertEquals(1, cache.stats().evictions());
+  }
+
+  @Test
+  void evictByWeightTest() {
+    // each entry weighs the key, the input and the output plus one result
+    long entryWeight = 3 + SolvedCache.RESULT_WEIGHT;
+    SolvedCache cache = new SolvedCache(10, 2 * entryWeight + 1);
+    cache.put(1, "a", solved("a"));
+    cache.put(1, "b", solved("b"));
+    cache.put(1, "c", solved("c"));
+    assertEquals(2, cache.stats().size());
+    assertTrue(cache.stats().weight() <= 2 * entryWeight + 1);
+  }
+
+  @Test
+  void weighDerivationTest() {
+    DrudleRuleResultSolved part = new DrudleRuleResultSolved("a");
+    DrudleRuleResultSolved result =
+        new DrudleRuleResultSolved(
+            "rule", "aa", "x", null, new DrudleRuleResultSolved[] {part, part});
+    // the part is kept by the result and counted once
+    assertEquals(
+        2 + (SolvedCache.RESULT_WEIGHT + 3) + (SolvedCache.RESULT_WEIGHT + 2),
+        SolvedCache.weigh("aa", Set.of(result)));
+  }
+
+  @Test
+  void newRulesVersionInvalidatesTest() {
+    SolvedCache cache = new SolvedCache(10, 1_000);
+    cache.put(1, "rot", solved("rot"));
+    assertNull(cache.get(2, "rot"));
+    cache.put(2, "blau", solved("blau"));
+    assertNull(cache.get(1, "rot"));
+    assertEquals(1, cache.stats().size());
+    // results of an outdated version are not stored anymore
+    cache.put(1, "rot", solved("rot"));
+    assertNull(cache.get(1, "rot"));
+  }
+
+  @Test
+  void serviceAnswersFromCacheTest() {
+    RegexRule rule = spy(new RegexRule("testRule", "test", "{head}{tail}"));
+    DrudleServiceImpl service = new DrudleServiceImpl();
+    service.addRules(rule);
+    // apply the same drudle twice
+    Set<String> first =
+        service.processDrudle("1test2").stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+    Set<String> second =
+        service.processDrudle("1test2").stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet());
+    // assert that the second request is answered from the cache
+    assertEquals(first, second);
+    verify(rule, times(1)).apply("1test2");
+    assertEquals(1, service.getSolvedCacheStats().hits());
+  }
+
+  @Test
+  void sameResultsAfterAnyHistoryTest() {
+    // the sequential engine solves a part differently depending on the drudle it is a part of
+    List<List<String>> histories =
+        List.of(List.of(), List.of("rot", "zwei"), List.of("zwei", "zweirotrot"), List.of("zweirot", "rotzwei"));
+    for (var mode : DrudleProperties.Engine.Mode.values()) {
+      for (String drudle : List.of("zweirot", "rotzweirot")) {
+        Set<Set<String>> seen = new HashSet<>();
+        for (var history : histories) {
+          var properties = new DrudleProperties();
+          properties.getEngine().setMode(mode);
+          properties.getEngine().setParallelism(2);
+          var service = new DrudleServiceImpl(properties);
+          service.addRules(
+              new RegexRule("rot-0", "rot", "{head}<r>rot</r>{tail}"),
+              new RegexRule("rot-1", "rot", "{head}<r>ROT</r>{tail}"),
+              new RegexRule("2-0", "zwei", "{head}<row>{tail}{tail}</row>"));
+          history.forEach(service::processDrudle);
+          seen.add(service.processDrudle(drudle).stream().map(DrudleRuleResult::getOutput).collect(Collectors.toSet()));
+          service.shutdown();
+        }
+        assertEquals(1, seen.size(), mode + " " + drudle + ": " + seen);
+      }
+    }
+  }
+}